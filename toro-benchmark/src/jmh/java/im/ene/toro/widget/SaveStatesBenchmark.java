@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.widget;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks of {@link SavedStates}, the save walk and restore loop that
+ * {@link PlaybackInfoCache#saveStates(int)} and {@link PlaybackInfoCache#restoreStates} run. The
+ * cold cache is a {@link HashMap}, the saved SparseArray a {@link SortedIntMap}, and the
+ * PlaybackInfoStore only counts the spilled entries.
+ *
+ * @author eneim (2018/06/10).
+ */
+@State(Scope.Thread) @BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SaveStatesBenchmark {
+
+  private static final int MAX_SAVED_STATES = 256;  // Container.MAX_SAVED_STATES
+
+  @Param({ "100", "10000" }) int size;
+
+  private SortedIntMap<Object> orderToKey;
+  private ColdValues coldValues;
+  private IntMapStates saved;
+  private int anchor;
+  private final SavedStates savedStates = new SavedStates();
+
+  @Setup public void setUp() {
+    orderToKey = new SortedIntMap<>(size);
+    coldValues = new ColdValues(size);
+    for (int i = 0; i < size; i++) {
+      Object key = "key:" + i;
+      orderToKey.put(i, key);
+      if (i % 8 != 0) coldValues.cache.put(key, new Object());  // 1 in 8 was evicted.
+    }
+    anchor = size / 2;
+    saved = new IntMapStates(MAX_SAVED_STATES);
+    savedStates.save(orderToKey, anchor, coldValues, false, saved, MAX_SAVED_STATES);
+  }
+
+  // Without a PlaybackInfoStore: stops after MAX_SAVED_STATES entries.
+  @Benchmark public int save() {
+    IntMapStates states = new IntMapStates(MAX_SAVED_STATES);
+    savedStates.save(orderToKey, anchor, coldValues, false, states, MAX_SAVED_STATES);
+    return states.size();
+  }
+
+  // With a PlaybackInfoStore that has seen none of the entries: the ones over MAX_SAVED_STATES are
+  // spilled to it.
+  @Benchmark public int saveAndSpill(Unstored unstored) {
+    IntMapStates states = new IntMapStates(MAX_SAVED_STATES);
+    savedStates.save(orderToKey, anchor, coldValues, true, states, MAX_SAVED_STATES);
+    return states.size() + coldValues.spilled;
+  }
+
+  // With a PlaybackInfoStore that has seen all the entries, as on the next save.
+  @Benchmark public int saveAfterSpill() {
+    IntMapStates states = new IntMapStates(MAX_SAVED_STATES);
+    savedStates.save(orderToKey, anchor, coldValues, true, states, MAX_SAVED_STATES);
+    return states.size() + coldValues.spilled;
+  }
+
+  @Benchmark public int restore() {
+    RestoredValues restored = new RestoredValues(saved.size());
+    SavedStates.restore(saved, new SortedIntMap<>(saved.size()), restored);
+    return restored.cache.size();
+  }
+
+  // The store has seen none of the entries, before each call.
+  @State(Scope.Thread) public static class Unstored {
+
+    @Setup(Level.Invocation) public void setUp(SaveStatesBenchmark benchmark) {
+      benchmark.coldValues.unstoreAll();
+    }
+  }
+
+  static final class ColdValues implements SavedStates.Values<Object> {
+
+    final Map<Object, Object> cache;
+    final Set<Object> unstored;
+    int spilled;
+
+    ColdValues(int size) {
+      this.cache = new HashMap<>(size * 2);
+      this.unstored = new HashSet<>(size * 2);
+    }
+
+    void unstoreAll() {
+      unstored.addAll(cache.keySet());
+    }
+
+    @Override public Object peek(Object key) {
+      return cache.get(key);
+    }
+
+    @Override public boolean isStored(Object key) {
+      return !unstored.contains(key);
+    }
+
+    @Override public boolean hasUnstored() {
+      return !unstored.isEmpty();
+    }
+
+    @Override public void spill(int order, Object key, Object value) {
+      spilled++;
+      unstored.remove(key);
+    }
+  }
+
+  static final class IntMapStates implements SavedStates.States<Object> {
+
+    final SortedIntMap<Object> map;
+
+    IntMapStates(int capacity) {
+      this.map = new SortedIntMap<>(capacity);
+    }
+
+    @Override public int size() {
+      return map.size();
+    }
+
+    @Override public int keyAt(int index) {
+      return map.keyAt(index);
+    }
+
+    @Override public Object valueAt(int index) {
+      return map.valueAt(index);
+    }
+
+    @Override public void put(int order, Object value) {
+      map.put(order, value);
+    }
+  }
+
+  static final class RestoredValues implements SavedStates.Restorer<Object> {
+
+    final Map<Object, Object> cache;
+
+    RestoredValues(int size) {
+      this.cache = new HashMap<>(size * 2);
+    }
+
+    @Override public Object keyOf(int order) {
+      return "key:" + order;
+    }
+
+    @Override public void restore(int order, Object value) {
+      cache.put(keyOf(order), value);
+    }
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package im.ene.toro.widget;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks of the selection steps in {@link Selections}: collecting the candidates in order as
+ * {@link Container} does on every selection pass, sorting by the order comparator as
+ * {@link Container#filterBy} does, and picking a player as the built-in PlayerSelectors do.
+ * Players are replaced by {@link Item}s whose order is precomputed, so only the selection itself
+ * is measured. PlayerSelector.BY_AREA is not measured here, as it reads the visible area of the
+ * player Views.
+ *
+ * @author eneim (2018/06/10).
+ */
+@State(Scope.Thread) @BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SelectionBenchmark {
+
+  static final class Item {
+
+    final int order;
+
+    Item(int order) {
+      this.order = order;
+    }
+  }
+
+  private static final Selections.OrderProvider<Item> ORDERS =
+      new Selections.OrderProvider<Item>() {
+        @Override public int orderOf(Item item) {
+          return item.order;
+        }
+      };
+
+  private static final Comparator<Item> ORDER_COMPARATOR = Selections.orderComparator(ORDERS);
+
+  // 8 is a phone screen of a grid, 1000 is far more than any Container manages.
+  @Param({ "8", "1000" }) int size;
+
+  private Item[] layoutOrder;  // players as the LayoutManager attaches them.
+  private Item[] shuffled;     // players in no order, as PlayerManager holds them.
+  private final List<Item> candidates = new ArrayList<>();
+  private final List<Item> sorted = new ArrayList<>();
+
+  @Setup public void setUp() {
+    Random random = new Random(42);  // same inputs for every run.
+    layoutOrder = new Item[size];
+    for (int i = 0; i < size; i++) layoutOrder[i] = new Item(i);
+    // A few swaps, as when a child is attached before the ones above it.
+    for (int i = 0; i + 1 < size; i += 4) {
+      Item item = layoutOrder[i];
+      layoutOrder[i] = layoutOrder[i + 1];
+      layoutOrder[i + 1] = item;
+    }
+    shuffled = layoutOrder.clone();
+    for (int i = size - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      Item item = shuffled[i];
+      shuffled[i] = shuffled[j];
+      shuffled[j] = item;
+    }
+    for (Item item : layoutOrder) Selections.insertByOrder(sorted, item, ORDERS);
+  }
+
+  // Container#collectCandidates.
+  @Benchmark public int collectCandidates() {
+    candidates.clear();
+    for (Item item : layoutOrder) Selections.insertByOrder(candidates, item, ORDERS);
+    return candidates.size();
+  }
+
+  // Container#filterBy, with Common.ORDER_COMPARATOR.
+  @Benchmark public Item sortByOrder() {
+    List<Item> result = new ArrayList<>(size);
+    Collections.addAll(result, shuffled);
+    Collections.sort(result, ORDER_COMPARATOR);
+    return result.get(0);
+  }
+
+  // PlayerSelector.DEFAULT.
+  @Benchmark public Item selectFirst() {
+    return sorted.isEmpty() ? null : sorted.get(0);
+  }
+
+  // PlayerSelector.DEFAULT_REVERSE.
+  @Benchmark public Item selectLast() {
+    return sorted.isEmpty() ? null : sorted.get(sorted.size() - 1);
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.widget;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of {@link SortedIntMap}, which holds the hot cache and the cold key map of
+ * {@link PlaybackInfoCache}. Each storm replays the operations {@link PlaybackInfoCache} does on
+ * Adapter's data change events, in a way that keeps the keys contiguous, so that every invocation
+ * works on a map of the same size.
+ *
+ * @author eneim (2018/06/28).
+ */
+@State(Scope.Thread) @BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SortedIntMapBenchmark {
+
+  private static final int STORM_SIZE = 100;  // data change events per invocation.
+
+  @Param({ "100", "10000" }) int size;
+
+  private SortedIntMap<Object> map;
+  private int[] positions;
+  private int[] targets;
+  private final Object value = new Object();
+
+  @Setup public void setUp() {
+    map = new SortedIntMap<>(size + 1);
+    for (int i = 0; i < size; i++) map.put(i, value);
+    Random random = new Random(42);  // same storm for every run.
+    positions = new int[STORM_SIZE];
+    targets = new int[STORM_SIZE];
+    for (int i = 0; i < STORM_SIZE; i++) {
+      positions[i] = random.nextInt(size);
+      targets[i] = random.nextInt(size);
+    }
+  }
+
+  // Adapter#notifyItemInserted followed by Adapter#notifyItemRemoved, as in onItemRangeInserted
+  // and onItemRangeRemoved.
+  @Benchmark public int insertRemoveStorm() {
+    for (int i = 0; i < STORM_SIZE; i++) {
+      int position = positions[i];
+      map.shift(position, 1);
+      map.put(position, value);
+      int target = targets[i];
+      map.removeRange(target, target + 1);
+      map.shift(target + 1, -1);
+    }
+    return map.size();
+  }
+
+  // Adapter#notifyItemMoved, as in onItemRangeMoved.
+  @Benchmark public int moveStorm() {
+    for (int i = 0; i < STORM_SIZE; i++) {
+      map.move(positions[i], targets[i]);
+    }
+    return map.size();
+  }
+
+  // Save then restore the PlaybackInfo of every entry.
+  @Benchmark public void saveRestore(Blackhole blackhole) {
+    for (int i = 0; i < size; i++) {
+      map.put(i, value);
+    }
+    for (int i = 0; i < size; i++) {
+      blackhole.consume(map.get(i));
+    }
+  }
+
+  // Walk the entries in order, as Container does to save its states.
+  @Benchmark public void iterate(Blackhole blackhole) {
+    for (int i = 0, count = map.size(); i < count; i++) {
+      blackhole.consume(map.keyAt(i));
+      blackhole.consume(map.valueAt(i));
+    }
+  }
+}
@@ -31,6 +31,15 @@ import java.util.LinkedHashMap;
  * {@link CacheManager} must provide keys which are uniquely distinguished by
  * {@link Object#equals(Object)}.
  *
+ * Keys derived from the order (for example, the order itself) don't follow the Adapter data, so
+ * {@link Container} files the cached {@link PlaybackInfo} under a private key of its own for each
+ * order instead. On insert, remove or move events of the Adapter, it only shifts the orders, in
+ * O(log n), and the cached {@link PlaybackInfo} follow their items. A {@link CacheManager} whose
+ * keys follow the Adapter data (the item at a new order has the same key it had at its old order,
+ * like an item id) can implement {@link StableKeys}, so that its keys are used as-is: the cached
+ * {@link PlaybackInfo} of an item is then found again from its key alone, for example after the
+ * item is removed and inserted again.
+ *
  * @author eneim (7/5/17).
  */
 public interface CacheManager {
@@ -68,4 +77,17 @@ public interface CacheManager {
       return key instanceof Integer ? (Integer) key : null;
     }
   };
+
+  /**
+   * A {@link CacheManager} whose keys follow the Adapter data: after an insert, remove or move
+   * event, the item at a new order has the same key it had at its old order. {@link Container}
+   * then caches the {@link PlaybackInfo} under these keys directly, instead of a private key per
+   * order. Implementing this with keys derived from the order restores the wrong
+   * {@link PlaybackInfo} after such events.
+   *
+   * @since 3.5.3
+   */
+  interface StableKeys extends CacheManager {
+
+  }
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import im.ene.toro.helper.FilePlaybackInfoStore;
+import im.ene.toro.media.PlaybackInfo;
+import im.ene.toro.widget.Container;
+
+/**
+ * A persistent storage of {@link PlaybackInfo}, which outlives the {@link Container} and the
+ * process. {@link Container} reads from it when a {@link ToroPlayer} is attached and there is no
+ * in-memory cache for it, and writes to it whenever a {@link PlaybackInfo} is saved.
+ *
+ * Keys are the ones obtained from {@link CacheManager}, so a {@link PlaybackInfoStore} is only used
+ * when the {@link Container} has a non-null {@link CacheManager}. As keys must be recognized across
+ * process restarts, they should be stable values like Strings or Numbers.
+ *
+ * Both methods are called on the main thread, so implementation must not do any disk I/O, nor
+ * wait for it, there. A store that loads its content in background should implement
+ * {@link Async}, so that the {@link Container} can apply the loaded {@link PlaybackInfo} to the
+ * {@link ToroPlayer}s attached before that. See {@link FilePlaybackInfoStore} for a built-in
+ * implementation.
+ *
+ * @author eneim (2018/06/12).
+ * @since 3.5.3
+ */
+public interface PlaybackInfoStore {
+
+  /**
+   * Get the persisted {@link PlaybackInfo} for a key. Returning {@code null} means there is no
+   * such {@link PlaybackInfo}, or it is not available yet.
+   *
+   * @param key the key obtained from {@link CacheManager#getKeyForOrder(int)}.
+   * @return a {@link PlaybackInfo} owned by caller, or {@code null}.
+   */
+  @Nullable PlaybackInfo get(@NonNull Object key);
+
+  /**
+   * Persist a {@link PlaybackInfo} for a key. Implementation should keep its own copy, as the
+   * {@link PlaybackInfo} may be mutated later.
+   *
+   * @param key the key obtained from {@link CacheManager#getKeyForOrder(int)}.
+   * @param playbackInfo the {@link PlaybackInfo} to persist.
+   */
+  void put(@NonNull Object key, @NonNull PlaybackInfo playbackInfo);
+
+  /**
+   * A {@link PlaybackInfoStore} whose content is loaded in background. Until it is loaded,
+   * {@link #get(Object)} returns {@code null}, and the {@link Container} asks to be called back
+   * once it is loaded.
+   *
+   * @since 3.5.3
+   */
+  interface Async extends PlaybackInfoStore {
+
+    /**
+     * @return {@code true} if the content is loaded, and {@link #get(Object)} returns it.
+     */
+    boolean isLoaded();
+
+    /**
+     * Run a callback on the main thread, once the content is loaded. If it is loaded already, the
+     * callback is posted right away.
+     *
+     * @param callback the callback to run.
+     */
+    void runWhenLoaded(@NonNull Runnable callback);
+  }
+}
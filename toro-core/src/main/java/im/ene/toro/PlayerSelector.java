@@ -21,12 +21,8 @@ import im.ene.toro.annotations.Sorted;
 import im.ene.toro.widget.Container;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
-import java.util.NavigableMap;
-import java.util.TreeMap;
 
-import static im.ene.toro.ToroUtil.visibleAreaOffset;
 import static im.ene.toro.annotations.Sorted.Order.ASCENDING;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
@@ -106,29 +102,28 @@ public interface PlayerSelector {
     }
   };
 
+  /**
+   * Select the {@link ToroPlayer} with the largest visible area, measured by
+   * {@link Container#visibleAreaOffset(ToroPlayer)}. If many players have the same visible area,
+   * the last one is selected. This selector has no state, so it is safe to share between
+   * {@link Container}s.
+   */
   @SuppressWarnings("unused") PlayerSelector BY_AREA = new PlayerSelector() {
 
-    NavigableMap<Float, ToroPlayer> areas = new TreeMap<>(new Comparator<Float>() {
-      @Override public int compare(Float o1, Float o2) {
-        return Float.compare(o2, o1); // reverse order, from high to low.
-      }
-    });
-
     @NonNull @Override public Collection<ToroPlayer> select(@NonNull final Container container,
         @Sorted(order = ASCENDING) @NonNull List<ToroPlayer> items) {
-      areas.clear();
-      int count = items.size();
-      if (count > 0) {
-        for (int i = 0; i < count; i++) {
-          ToroPlayer item = items.get(i);
-          if (!areas.containsValue(item)) areas.put(visibleAreaOffset(item, container), item);
+      ToroPlayer selected = null;
+      float maxOffset = -1.f;
+      for (int i = 0, count = items.size(); i < count; i++) {
+        ToroPlayer item = items.get(i);
+        float offset = container.visibleAreaOffset(item);
+        if (offset >= maxOffset) {
+          maxOffset = offset;
+          selected = item;
         }
-
-        count = areas.size();
       }
 
-      return count > 0 ? singletonList(areas.firstEntry().getValue())
-          : Collections.<ToroPlayer>emptyList();
+      return selected != null ? singletonList(selected) : Collections.<ToroPlayer>emptyList();
     }
 
     @NonNull @Override public PlayerSelector reverse() {
@@ -68,6 +68,15 @@ public interface ToroPlayer {
    */
   void release();
 
+  /**
+   * Only asked for the players {@link Container} sees on screen. {@link Container} checks again
+   * whether a player is on screen when its item View is laid out, or when a scroll moves it across
+   * or along the visible edges of the {@link Container}. Otherwise it keeps the last result: a
+   * player View that moves inside its item View without a layout (for example, in a nested
+   * scrolling View) is only seen on the next layout of the item.
+   *
+   * @return {@code true} if this player wants to play now.
+   */
   boolean wantsToPlay();
 
   /**
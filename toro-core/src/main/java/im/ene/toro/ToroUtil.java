@@ -46,10 +46,13 @@ public final class ToroUtil {
    * @param container the {@link ViewParent} that holds the {@link ToroPlayer}. If {@code null}
    * then this method must returns 0.0f;
    * @return the value in range of 0.0 ~ 1.0 of the visible area.
+   * @see Container#visibleAreaOffset(ToroPlayer)
    */
   @FloatRange(from = 0.0, to = 1.0) //
   public static float visibleAreaOffset(@NonNull ToroPlayer player, ViewParent container) {
     if (container == null) return 0.0f;
+    // Container has its own buffers, so this doesn't allocate.
+    if (container instanceof Container) return ((Container) container).visibleAreaOffset(player);
 
     View playerView = player.getPlayerView();
     Rect drawRect = new Rect();
@@ -0,0 +1,442 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.helper;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import im.ene.toro.PlaybackInfoStore;
+import im.ene.toro.media.PlaybackInfo;
+import im.ene.toro.media.VolumeInfo;
+import im.ene.toro.widget.Container;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static im.ene.toro.ToroUtil.checkNotNull;
+
+/**
+ * A {@link PlaybackInfoStore} backed by an append-only log file, accessed via memory mapping.
+ *
+ * - The file is loaded lazily on a background thread, on the first call to {@link #get(Object)}
+ * or {@link #put(Object, PlaybackInfo)}. {@link #get(Object)} never waits for it: it returns
+ * {@code null} until the file is loaded, then the {@link Container} applies the loaded
+ * {@link PlaybackInfo} to its attached players, see {@link PlaybackInfoStore.Async}.
+ * - Writes are applied to memory immediately, then batched and appended to the file on the
+ * background thread.
+ * - When the log has much more records than the number of keys, it is compacted to contain only
+ * the latest record of each key. The compacted log is written to a temporary file, then renamed
+ * over the current one, so an error or a process kill in the middle doesn't lose anything. If the
+ * compaction fails, the current log is kept and used as before.
+ *
+ * Keys are persisted using {@link String#valueOf(Object)}, so they must have a stable and unique
+ * {@link Object#toString()} representation.
+ *
+ * This class is thread-safe. A single instance should be used for each file, for example as an
+ * Application-wide singleton, and shared by the {@link Container}s.
+ *
+ * Usage:
+ * <pre><code>
+ *   PlaybackInfoStore store = new FilePlaybackInfoStore(context, "toro_playback_infos");
+ *   container.setCacheManager(cacheManager);  // required
+ *   container.setPlaybackInfoStore(store);
+ * </code></pre>
+ *
+ * @author eneim (2018/06/12).
+ * @since 3.5.3
+ */
+@SuppressWarnings({ "WeakerAccess", "unused" }) //
+public final class FilePlaybackInfoStore implements PlaybackInfoStore.Async, Handler.Callback {
+
+  private static final String TAG = "ToroLib:Store";
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final int MAGIC = 0x546f726f; // 'Toro'
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 8; // magic + version
+  // Record: [int key length][key bytes][int window][long position][byte mute][float volume]
+  private static final int RECORD_FIXED_SIZE = 4 + 4 + 8 + 1 + 4;
+  private static final int MAX_KEY_LENGTH = 4096;
+  private static final int MIN_MAPPED_SIZE = 64 * 1024;
+  private static final int COMPACT_MIN_RECORDS = 1024;
+
+  static final long FLUSH_DELAY = 1000; // ms, to batch the writes.
+
+  static final int MSG_LOAD = 1;
+  static final int MSG_FLUSH = 2;
+  static final int MSG_CLOSE = 3;
+
+  @NonNull private final File file;
+
+  private final Object lock = new Object();
+  // Latest PlaybackInfo of each key, guarded by lock.
+  private final HashMap<String, PlaybackInfo> entries = new HashMap<>();
+  // PlaybackInfo waiting to be written, guarded by lock.
+  private final HashMap<String, PlaybackInfo> pending = new HashMap<>();
+  private boolean flushScheduled; // guarded by lock
+  private boolean loaded; // guarded by lock, true once the file was read, even if it failed.
+  // Callbacks waiting for the loading, guarded by lock.
+  private final ArrayList<Runnable> loadCallbacks = new ArrayList<>();
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+  private Handler handler;  // null = not started
+  private boolean closed;
+
+  // Only accessed from the background thread.
+  private RandomAccessFile randomAccessFile;
+  private FileChannel channel;
+  private MappedByteBuffer buffer;
+  private int writePosition;
+  private int recordCount;
+  private int nextCompaction = COMPACT_MIN_RECORDS;
+
+  public FilePlaybackInfoStore(@NonNull Context context, @NonNull String fileName) {
+    this(new File(context.getFilesDir(), checkNotNull(fileName)));
+  }
+
+  public FilePlaybackInfoStore(@NonNull File file) {
+    this.file = checkNotNull(file);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * Doesn't wait for the file to be loaded, only the {@link PlaybackInfo} put since then are
+   * returned until it is. Returns {@code null} after {@link #close()}.
+   */
+  @Nullable @Override public PlaybackInfo get(@NonNull Object key) {
+    if (ensureStarted() == null) return null;
+    PlaybackInfo info;
+    synchronized (lock) {
+      info = entries.get(String.valueOf(key));
+    }
+    return info != null ? copy(info) : null;
+  }
+
+  @Override public boolean isLoaded() {
+    synchronized (lock) {
+      return loaded;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * Does nothing after {@link #close()}.
+   */
+  @Override public void runWhenLoaded(@NonNull Runnable callback) {
+    checkNotNull(callback);
+    if (ensureStarted() == null) return;
+    synchronized (lock) {
+      if (!loaded) {
+        loadCallbacks.add(callback);
+        return;
+      }
+    }
+    mainHandler.post(callback);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * Does nothing after {@link #close()}.
+   */
+  @Override public void put(@NonNull Object key, @NonNull PlaybackInfo playbackInfo) {
+    Handler handler = ensureStarted();
+    if (handler == null) return;
+    String name = String.valueOf(key);
+    checkNotNull(playbackInfo);
+    synchronized (lock) {
+      // Nothing changed: don't copy it, nor append a duplicate record to the log.
+      if (sameRecord(entries.get(name), playbackInfo)) return;
+      PlaybackInfo info = copy(playbackInfo);
+      entries.put(name, info);
+      pending.put(name, info);
+      if (!flushScheduled) {
+        flushScheduled = true;
+        handler.sendEmptyMessageDelayed(MSG_FLUSH, FLUSH_DELAY);
+      }
+    }
+  }
+
+  /**
+   * Write all pending {@link PlaybackInfo} to the file as soon as possible, for example when the
+   * Activity is stopped. Writing still happens on the background thread.
+   */
+  public synchronized void flush() {
+    if (handler == null) return;
+    handler.removeMessages(MSG_FLUSH);
+    handler.sendEmptyMessage(MSG_FLUSH);
+  }
+
+  /**
+   * Write all pending {@link PlaybackInfo} and release the file and the background thread. This
+   * instance should not be used after this call.
+   */
+  public synchronized void close() {
+    closed = true;
+    if (handler == null) return;
+    handler.removeMessages(MSG_FLUSH);
+    handler.sendEmptyMessage(MSG_CLOSE);
+    handler = null;
+  }
+
+  // Return the Handler of the background thread, or null if this store is closed.
+  @Nullable private synchronized Handler ensureStarted() {
+    if (closed) return null;
+    if (handler == null) {
+      HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+      thread.start();
+      handler = new Handler(thread.getLooper(), this);
+      handler.sendEmptyMessage(MSG_LOAD);
+    }
+    return handler;
+  }
+
+  @Override public boolean handleMessage(Message msg) {
+    try {
+      switch (msg.what) {
+        case MSG_LOAD:
+          try {
+            load();
+          } finally {
+            List<Runnable> callbacks;
+            synchronized (lock) {
+              loaded = true;
+              callbacks = new ArrayList<>(loadCallbacks);
+              loadCallbacks.clear();
+            }
+            for (Runnable callback : callbacks) {
+              mainHandler.post(callback);
+            }
+          }
+          break;
+        case MSG_FLUSH:
+          write();
+          break;
+        case MSG_CLOSE:
+          try {
+            write();
+          } finally {
+            closeFile();
+            //noinspection ConstantConditions
+            Looper.myLooper().quit();
+          }
+          break;
+        default:
+          break;
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "I/O error, PlaybackInfo is not persisted: " + file, e);
+      closeFile();
+    }
+    return true;
+  }
+
+  /// Below methods run on the background thread.
+
+  private void load() throws IOException {
+    // Left by a compaction that didn't finish, the log itself is still complete.
+    //noinspection ResultOfMethodCallIgnored
+    tempFile().delete();
+    openFile(file);
+    HashMap<String, PlaybackInfo> loaded = new HashMap<>();
+    scan(loaded);
+
+    synchronized (lock) {
+      // Values put before loading finishes are newer.
+      for (Map.Entry<String, PlaybackInfo> entry : loaded.entrySet()) {
+        if (!entries.containsKey(entry.getKey())) entries.put(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  // Find the end of the log, and read its records into 'into' if it is not null.
+  private void scan(@Nullable Map<String, PlaybackInfo> into) {
+    recordCount = 0;
+    int position = HEADER_SIZE;
+    int limit = buffer.limit();
+    while (position + RECORD_FIXED_SIZE <= limit) {
+      int keyLength = buffer.getInt(position);
+      // Zero is the unwritten area, other bad values are from an incomplete write.
+      if (keyLength <= 0 || keyLength > MAX_KEY_LENGTH) break;
+      if (position + RECORD_FIXED_SIZE + keyLength > limit) break;
+      if (into != null) {
+        byte[] bytes = new byte[keyLength];
+        buffer.position(position + 4);
+        buffer.get(bytes);
+        int window = buffer.getInt();
+        long resumePosition = buffer.getLong();
+        boolean mute = buffer.get() != 0;
+        float volume = buffer.getFloat();
+        into.put(new String(bytes, UTF_8),
+            new PlaybackInfo(window, resumePosition, new VolumeInfo(mute, volume)));
+      }
+      position += RECORD_FIXED_SIZE + keyLength;
+      recordCount++;
+    }
+    writePosition = position;
+  }
+
+  private void write() throws IOException {
+    List<Map.Entry<String, PlaybackInfo>> batch;
+    int liveCount;
+    synchronized (lock) {
+      flushScheduled = false;
+      if (pending.isEmpty()) return;
+      batch = new ArrayList<>(pending.entrySet());
+      pending.clear();
+      liveCount = entries.size();
+    }
+
+    if (buffer == null) return; // file is not available.
+    for (Map.Entry<String, PlaybackInfo> entry : batch) {
+      append(entry.getKey(), entry.getValue());
+    }
+    buffer.force();
+
+    if (recordCount > nextCompaction && recordCount > 2 * liveCount) compact();
+  }
+
+  private void append(String key, PlaybackInfo info) throws IOException {
+    byte[] bytes = key.getBytes(UTF_8);
+    if (bytes.length == 0 || bytes.length > MAX_KEY_LENGTH) return;
+    int recordSize = RECORD_FIXED_SIZE + bytes.length;
+    ensureCapacity(writePosition + recordSize);
+    buffer.position(writePosition + 4);
+    buffer.put(bytes);
+    buffer.putInt(info.getResumeWindow());
+    buffer.putLong(info.getResumePosition());
+    buffer.put((byte) (info.getVolumeInfo().isMute() ? 1 : 0));
+    buffer.putFloat(info.getVolumeInfo().getVolume());
+    // Key length is written last, so an incomplete record is never read.
+    buffer.putInt(writePosition, bytes.length);
+    writePosition += recordSize;
+    recordCount++;
+  }
+
+  // Write the latest record of each key to a temporary file, then rename it over the current log.
+  // Until the rename, the current log is left untouched, so a failure at any step loses nothing,
+  // and the current log is reopened to be used as before.
+  private void compact() throws IOException {
+    HashMap<String, PlaybackInfo> snapshot;
+    synchronized (lock) {
+      snapshot = new HashMap<>(entries);
+    }
+
+    File temp = tempFile();
+    closeFile();
+    //noinspection ResultOfMethodCallIgnored
+    temp.delete();
+    boolean renamed = false;
+    try {
+      openFile(temp);
+      for (Map.Entry<String, PlaybackInfo> entry : snapshot.entrySet()) {
+        append(entry.getKey(), entry.getValue());
+      }
+      buffer.force();
+      channel.force(true);
+      closeFile();
+      // Atomically replaces the old log, which is then deleted by the file system.
+      renamed = temp.renameTo(file);
+      if (!renamed) Log.w(TAG, "Cannot rename, the log is not compacted: " + temp);
+    } catch (IOException e) {
+      Log.w(TAG, "I/O error, the log is not compacted: " + temp, e);
+    } finally {
+      closeFile();
+      //noinspection ResultOfMethodCallIgnored
+      if (!renamed) temp.delete();
+    }
+
+    openFile(file);
+    scan(null);
+    // Don't retry on every write if it failed, wait for the log to grow again.
+    nextCompaction = renamed ? COMPACT_MIN_RECORDS : recordCount * 2;
+  }
+
+  private File tempFile() {
+    return new File(file.getPath() + ".tmp");
+  }
+
+  private void openFile(File target) throws IOException {
+    File parent = target.getParentFile();
+    //noinspection ResultOfMethodCallIgnored
+    if (parent != null && !parent.exists()) parent.mkdirs();
+    randomAccessFile = new RandomAccessFile(target, "rw");
+    channel = randomAccessFile.getChannel();
+    long length = channel.size();
+    map((int) Math.max(length, MIN_MAPPED_SIZE));
+    if (length < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+      // New or unknown file, start over.
+      for (int i = 0, size = buffer.limit(); i < size; i++) {
+        buffer.put(i, (byte) 0);
+      }
+      buffer.putInt(0, MAGIC);
+      buffer.putInt(4, VERSION);
+    }
+    writePosition = HEADER_SIZE;
+    recordCount = 0;
+  }
+
+  private void ensureCapacity(int required) throws IOException {
+    int capacity = buffer.limit();
+    if (required <= capacity) return;
+    while (capacity < required) capacity *= 2;
+    map(capacity);
+  }
+
+  private void map(int size) throws IOException {
+    buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+  }
+
+  private void closeFile() {
+    buffer = null;
+    channel = null;
+    if (randomAccessFile != null) {
+      try {
+        randomAccessFile.close();
+      } catch (IOException e) {
+        Log.w(TAG, "Error closing: " + file, e);
+      }
+      randomAccessFile = null;
+    }
+  }
+
+  // PlaybackInfo#equals ignores the volume, which is persisted too.
+  private static boolean sameRecord(@Nullable PlaybackInfo stored, @NonNull PlaybackInfo info) {
+    return stored != null && stored.equals(info) && stored.getVolumeInfo()
+        .equals(info.getVolumeInfo());
+  }
+
+  private static PlaybackInfo copy(PlaybackInfo info) {
+    return new PlaybackInfo(info.getResumeWindow(), info.getResumePosition(),
+        new VolumeInfo(info.getVolumeInfo()));
+  }
+}
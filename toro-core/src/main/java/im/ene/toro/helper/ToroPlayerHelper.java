@@ -30,7 +30,7 @@ import im.ene.toro.annotations.RemoveIn;
 import im.ene.toro.media.PlaybackInfo;
 import im.ene.toro.media.VolumeInfo;
 import im.ene.toro.widget.Container;
-import java.util.HashSet;
+import java.util.Arrays;
 
 import static im.ene.toro.ToroUtil.checkNotNull;
 
@@ -92,7 +92,9 @@ public abstract class ToroPlayerHelper {
   // This instance should be setup from #initialize and cleared from #release
   protected Container container;
 
-  final HashSet<EventListener> eventListeners = new HashSet<>();
+  // Copy-on-write: replaced on every change, so dispatching doesn't allocate, and a listener can be
+  // added or removed during a dispatch. Main thread only.
+  EventListener[] eventListeners = new EventListener[0];
   final EventListener internalListener = new EventListener() {
     @Override public void onBuffering() {
       // do nothing
@@ -124,11 +126,26 @@ public abstract class ToroPlayerHelper {
 
   @SuppressWarnings("ConstantConditions")
   public final void addPlayerEventListener(@NonNull EventListener eventListener) {
-    if (eventListener != null) this.eventListeners.add(eventListener);
+    if (eventListener == null || indexOf(eventListener) >= 0) return;
+    EventListener[] listeners = Arrays.copyOf(eventListeners, eventListeners.length + 1);
+    listeners[eventListeners.length] = eventListener;
+    this.eventListeners = listeners;
   }
 
   public final void removePlayerEventListener(EventListener eventListener) {
-    this.eventListeners.remove(eventListener);
+    int index = indexOf(eventListener);
+    if (index < 0) return;
+    EventListener[] listeners = new EventListener[eventListeners.length - 1];
+    System.arraycopy(eventListeners, 0, listeners, 0, index);
+    System.arraycopy(eventListeners, index + 1, listeners, index, listeners.length - index);
+    this.eventListeners = listeners;
+  }
+
+  private int indexOf(EventListener eventListener) {
+    for (int i = 0; i < eventListeners.length; i++) {
+      if (eventListeners[i].equals(eventListener)) return i;
+    }
+    return -1;
   }
 
   /**
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.widget;
+
+import android.support.annotation.NonNull;
+import im.ene.toro.ToroPlayer;
+import im.ene.toro.media.PlaybackInfo;
+
+/**
+ * Statistic of the {@link PlaybackInfo} cache of a {@link Container}. A hit is counted when a
+ * {@link ToroPlayer} finds its previous {@link PlaybackInfo} in the cache.
+ *
+ * @author eneim (2018/06/27).
+ * @since 3.5.3
+ */
+public final class CacheStats extends Stats {
+
+  public final int size;
+  public final int maxSize;
+  public final int hitCount;
+  public final int missCount;
+  public final int evictionCount;
+
+  CacheStats(int size, int maxSize, int hitCount, int missCount, int evictionCount) {
+    this.size = size;
+    this.maxSize = maxSize;
+    this.hitCount = hitCount;
+    this.missCount = missCount;
+    this.evictionCount = evictionCount;
+  }
+
+  @Override protected void describe(@NonNull Description description) {
+    description.add("size", size)
+        .add("maxSize", maxSize)
+        .add("hit", hitCount)
+        .add("miss", missCount)
+        .add("eviction", evictionCount);
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.widget;
+
+import android.support.annotation.Nullable;
+import im.ene.toro.media.PlaybackInfo;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The map between keys obtained from {@link im.ene.toro.CacheManager} and {@link PlaybackInfo},
+ * bounded by a maximum number of entries. When the bound is exceeded, the least recently used entry
+ * is evicted.
+ *
+ * Also count the number of hits, misses and evictions, so Client can tune the bound.
+ *
+ * While there is a {@link im.ene.toro.PlaybackInfoStore}, also track the keys whose
+ * {@link PlaybackInfo} the store has not seen, so that only those are spilled to it.
+ *
+ * @author eneim (2018/06/10).
+ */
+@SuppressWarnings({ "WeakerAccess", "unused" }) //
+final class ColdCache extends LinkedHashMap<Object, PlaybackInfo> {
+
+  int maxSize = Container.CACHE_SIZE_UNBOUNDED;
+
+  int hitCount;
+  int missCount;
+  int evictionCount;
+
+  // Keys put since the store last saw them, only tracked if tracksStore is true.
+  private final HashSet<Object> unstored = new HashSet<>();
+  private boolean tracksStore;
+
+  ColdCache() {
+    // Insertion order: get(Object) and put(Object, PlaybackInfo) move the entry to the end, so that
+    // peek(Object) can read an entry without changing the order.
+    super(16, 0.75f, false);
+  }
+
+  /**
+   * Get the {@link PlaybackInfo} of a key, and make it the most recently used.
+   */
+  @Override public PlaybackInfo get(Object key) {
+    if (!containsKey(key)) return null;
+    PlaybackInfo info = super.remove(key);
+    super.put(key, info);
+    return info;
+  }
+
+  /**
+   * Put the {@link PlaybackInfo} of a key, and make it the most recently used.
+   */
+  @Override public PlaybackInfo put(Object key, PlaybackInfo value) {
+    PlaybackInfo previous = super.remove(key);
+    super.put(key, value);
+    // The same instance again, for example on detach, is still the one the store has seen.
+    if (tracksStore && previous != value && containsKey(key)) unstored.add(key);
+    return previous;
+  }
+
+  /**
+   * Same as {@link #put(Object, PlaybackInfo)}, for a {@link PlaybackInfo} that was just written to
+   * or read from the store.
+   */
+  PlaybackInfo putStored(Object key, PlaybackInfo value) {
+    PlaybackInfo previous = super.remove(key);
+    super.put(key, value);
+    unstored.remove(key);
+    return previous;
+  }
+
+  @Override public PlaybackInfo remove(Object key) {
+    unstored.remove(key);
+    return super.remove(key);
+  }
+
+  @Override public void clear() {
+    unstored.clear();
+    super.clear();
+  }
+
+  /**
+   * Start or stop tracking the keys the store has not seen. A new store has not seen any of them.
+   */
+  void setTracksStore(boolean tracksStore) {
+    this.tracksStore = tracksStore;
+    unstored.clear();
+    if (tracksStore) unstored.addAll(keySet());
+  }
+
+  // True if the store has seen the PlaybackInfo of this key, or if the keys are not tracked.
+  boolean isStored(Object key) {
+    return !unstored.contains(key);
+  }
+
+  boolean hasUnstored() {
+    return !unstored.isEmpty();
+  }
+
+  void markStored(Object key) {
+    unstored.remove(key);
+  }
+
+  /**
+   * Same as {@link #get(Object)}, but doesn't change the eviction order nor count anything. Used by
+   * the read-only paths, like saving the states.
+   */
+  @Nullable PlaybackInfo peek(Object key) {
+    return super.get(key);
+  }
+
+  /**
+   * Same as {@link #get(Object)}, but also count the hit or miss.
+   */
+  @Nullable PlaybackInfo lookup(Object key) {
+    PlaybackInfo info = get(key);
+    if (info != null && info != PlaybackInfo.SCRAP) {
+      hitCount++;
+    } else {
+      missCount++;
+    }
+    return info;
+  }
+
+  void setMaxSize(int maxSize) {
+    this.maxSize = maxSize;
+    if (size() <= maxSize) return;
+    Iterator<Map.Entry<Object, PlaybackInfo>> iterator = entrySet().iterator();
+    while (size() > maxSize && iterator.hasNext()) {
+      unstored.remove(iterator.next().getKey());
+      iterator.remove();
+      evictionCount++;
+    }
+  }
+
+  void resetStats() {
+    hitCount = 0;
+    missCount = 0;
+    evictionCount = 0;
+  }
+
+  @Override protected boolean removeEldestEntry(Map.Entry<Object, PlaybackInfo> eldest) {
+    boolean evict = size() > maxSize;
+    if (evict) {
+      evictionCount++;
+      unstored.remove(eldest.getKey());
+    }
+    return evict;
+  }
+}
@@ -52,11 +52,14 @@ final class Common {
     return Collections.<Long>max(list);
   }
 
-  static Comparator<ToroPlayer> ORDER_COMPARATOR = new Comparator<ToroPlayer>() {
-    @Override public int compare(ToroPlayer o1, ToroPlayer o2) {
-      return Common.compare(o1.getPlayerOrder(), o2.getPlayerOrder());
-    }
-  };
+  static final Selections.OrderProvider<ToroPlayer> PLAYER_ORDER =
+      new Selections.OrderProvider<ToroPlayer>() {
+        @Override public int orderOf(@NonNull ToroPlayer player) {
+          return player.getPlayerOrder();
+        }
+      };
+
+  static Comparator<ToroPlayer> ORDER_COMPARATOR = Selections.orderComparator(PLAYER_ORDER);
 
   static final Comparator<Integer> ORDER_COMPARATOR_INT = new Comparator<Integer>() {
     @Override public int compare(Integer o1, Integer o2) {
@@ -18,6 +18,7 @@ package im.ene.toro.widget;
 
 import android.app.Activity;
 import android.content.Context;
+import android.graphics.Point;
 import android.graphics.Rect;
 import android.os.Handler;
 import android.os.Message;
@@ -27,25 +28,32 @@ import android.os.PowerManager;
 import android.support.annotation.CallSuper;
 import android.support.annotation.ColorInt;
 import android.support.annotation.FloatRange;
+import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.design.widget.AppBarLayout;
 import android.support.design.widget.CollapsingToolbarLayout;
 import android.support.design.widget.CoordinatorLayout;
+import android.support.v4.os.TraceCompat;
 import android.support.v4.view.AbsSavedState;
 import android.support.v4.view.WindowInsetsCompat;
+import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.util.SparseArray;
+import android.view.Choreographer;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewParent;
 import android.view.ViewTreeObserver.OnGlobalLayoutListener;
 import im.ene.toro.CacheManager;
+import im.ene.toro.PlaybackInfoStore;
 import im.ene.toro.PlayerDispatcher;
 import im.ene.toro.PlayerSelector;
 import im.ene.toro.ToroPlayer;
+import im.ene.toro.ToroUtil;
 import im.ene.toro.annotations.RemoveIn;
 import im.ene.toro.media.PlaybackInfo;
 import java.lang.ref.WeakReference;
@@ -53,7 +61,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static android.content.Context.POWER_SERVICE;
@@ -89,13 +96,25 @@ public class Container extends RecyclerView {
 
   static final int SOME_BLINKS = 50;  // 3 frames ...
 
+  /** See {@link #setMaxCacheSize(int)} */
+  public static final int CACHE_SIZE_UNBOUNDED = Integer.MAX_VALUE;
+  // Maximum number of PlaybackInfo written to the saved state, to keep the Bundle small. The rest is
+  // spilled to the PlaybackInfoStore, if any.
+  /* pkg */ static final int MAX_SAVED_STATES = 256;
+
   /* package */ final PlayerManager playerManager;
   /* package */ final ChildLayoutChangeListener childLayoutChangeListener;
+  /* package */ final VisibilityIndex visibilityIndex;
   /* package */ PlayerDispatcher playerDispatcher = PlayerDispatcher.DEFAULT;
   /* package */ RecyclerListenerImpl recyclerListener;  // null = not attached/detached
   /* package */ PlayerSelector playerSelector = PlayerSelector.DEFAULT;   // null = do nothing
   /* package */ Handler animatorFinishHandler;  // null = not attached/detached
   /* package */ BehaviorCallback behaviorCallback;
+  /* package */ ScrollSelector scrollSelector;  // null = only select on idle
+  /* package */ FlingPredictor flingPredictor;  // null = no prediction
+  /* package */ PrefetchCallback prefetchCallback;  // null = no prefetch
+  /* package */ SelectionMetrics selectionMetrics;  // null = no MetricsListener
+  /* package */ boolean decoderBudgetEnabled;  // false = players are not counted in DecoderBudget
 
   public Container(Context context) {
     this(context, null);
@@ -107,8 +126,9 @@ public class Container extends RecyclerView {
 
   public Container(Context context, @Nullable AttributeSet attrs, int defStyle) {
     super(context, attrs, defStyle);
-    playerManager = new PlayerManager();
+    playerManager = new PlayerManager(this);
     childLayoutChangeListener = new ChildLayoutChangeListener(this);
+    visibilityIndex = new VisibilityIndex(this);
     requestDisallowInterceptTouchEvent(true);
   }
 
@@ -171,6 +191,14 @@ public class Container extends RecyclerView {
       animatorFinishHandler = null;
     }
 
+    if (scrollSelector != null) scrollSelector.cancel();
+    if (flingPredictor != null) flingPredictor.onIdle();
+    if (prefetchCallback != null) {
+      prefetchCallback.onPrefetchWindowChanged(this, 0, 0, false); // cancel all.
+      prefetchFrom = prefetchTo = 0;
+      cancelPrediction();
+    }
+
     List<ToroPlayer> players = playerManager.getPlayers();
     if (!players.isEmpty()) {
       for (int size = players.size(), i = size - 1; i >= 0; i--) {
@@ -185,6 +213,7 @@ public class Container extends RecyclerView {
     }
     playerManager.onDetach();
     playbackInfoCache.onDetach();
+    visibilityIndex.clear();
     dataObserver.registerAdapter(null);
     childLayoutChangeListener.containerRef.clear();
   }
@@ -205,6 +234,33 @@ public class Container extends RecyclerView {
     return result;
   }
 
+  // Scratch buffers for visibleAreaOffset(ToroPlayer). Main thread only, per Container.
+  private final Rect drawRect = new Rect();
+  private final Rect visibleRect = new Rect();
+  private final Point visibleOffset = new Point();
+
+  /**
+   * Get the ratio in range of 0.0 ~ 1.0 the visible area of a {@link ToroPlayer}'s playerView. Same
+   * as {@link ToroUtil#visibleAreaOffset(ToroPlayer, ViewParent)}, but reuses this Container's
+   * buffers, so it doesn't allocate. Must be called on the main thread.
+   *
+   * @param player the {@link ToroPlayer} to measure.
+   * @return the value in range of 0.0 ~ 1.0 of the visible area.
+   * @since 3.5.3
+   */
+  @FloatRange(from = 0.0, to = 1.0) //
+  public final float visibleAreaOffset(@NonNull ToroPlayer player) {
+    View playerView = player.getPlayerView();
+    playerView.getDrawingRect(drawRect);
+    int drawArea = drawRect.width() * drawRect.height();
+    if (drawArea <= 0) return 0.f;
+
+    visibleRect.setEmpty();
+    visibleOffset.set(0, 0);
+    if (!playerView.getGlobalVisibleRect(visibleRect, visibleOffset)) return 0.f;
+    return visibleRect.width() * visibleRect.height() / (float) drawArea;
+  }
+
   // This method is called when:
   // [1] A ViewHolder is newly created, bound and then attached to RecyclerView.
   // [2] A ViewHolder is detached before, but still in bound state, not be recycled,
@@ -223,6 +279,8 @@ public class Container extends RecyclerView {
     }
 
     playbackInfoCache.onPlayerAttached(player);
+    visibilityIndex.add(player);
+    if (flingPredictor != null) flingPredictor.onPlayerAttached(player);
     if (playerManager.manages(player)) {
       // I don't expect this to be called. If this happens, make sure to note the scenario.
       Log.w(TAG, "!!Already managed: player = [" + player + "]");
@@ -251,6 +309,8 @@ public class Container extends RecyclerView {
     //noinspection PointlessNullCheck
     if (holder == null || !(holder instanceof ToroPlayer)) return;
     final ToroPlayer player = (ToroPlayer) holder;
+    visibilityIndex.remove(player);
+    if (flingPredictor != null) flingPredictor.onPlayerDetached(player);
 
     boolean playerManaged = playerManager.manages(player);
     if (player.isPlaying()) {
@@ -271,17 +331,238 @@ public class Container extends RecyclerView {
     dispatchUpdateOnAnimationFinished(true);
     // finally release the player
     // if player manager could not manager player, release by itself.
-    if (!playerManager.release(player)) player.release();
+    if (!playerManager.release(player)) {
+      DecoderBudget.release(player);
+      player.release();
+    }
   }
 
+  // Reusable list of candidates for the PlayerSelector.
+  /* pkg */ final ArrayList<ToroPlayer> candidates = new ArrayList<>();
+
   @CallSuper @Override public void onScrollStateChanged(int state) {
     super.onScrollStateChanged(state);
+    TraceCompat.beginSection("ToroLib:onScrollStateChanged");
+    SelectionMetrics metrics = this.selectionMetrics;
+    if (metrics != null) metrics.beginPass();
+    try {
+      dispatchScrollStateChanged(state);
+      if (prefetchCallback != null) updatePrediction();
+    } finally {
+      if (metrics != null) metrics.endPass(this);
+      TraceCompat.endSection();
+    }
+  }
+
+  // The selection pass.
+  private void dispatchScrollStateChanged(int state) {
+    if (state == SCROLL_STATE_IDLE && scrollSelector != null) scrollSelector.cancel();
+    if (state == SCROLL_STATE_DRAGGING && flingPredictor != null) flingPredictor.stopPredicting();
+    // Only re-check the players whose visibility may have changed.
+    visibilityIndex.update();
     // Need to handle the dead playback even when the Container is still scrolling/flinging.
-    List<ToroPlayer> players = playerManager.getPlayers();
     // 1. Find players those are managed but not qualified to play anymore.
-    for (int i = 0, size = players.size(); i < size; i++) {
-      ToroPlayer player = players.get(i);
-      if (Common.allowsToPlay(player)) continue;
+    releaseInvisiblePlayers();
+
+    // 2. Refresh the good players list.
+    LayoutManager layout = super.getLayoutManager();
+    // current number of visible 'Virtual Children', or zero if there is no LayoutManager available.
+    int childCount = layout != null ? layout.getChildCount() : 0;
+    if (childCount <= 0 || state != SCROLL_STATE_IDLE) {
+      if (childCount > 0 && scrollSelector != null) {
+        scrollSelector.schedule();  // Keep selecting while scrolling.
+      } else {
+        playerManager.deferPlaybacks();
+      }
+      if (state == SCROLL_STATE_IDLE && flingPredictor != null) flingPredictor.onIdle();
+      return;
+    }
+
+    attachVisiblePlayers(true);
+    if (playerManager.size() > 0) {
+      collectCandidates(0, Long.MAX_VALUE);
+      Collection<ToroPlayer> toPlay =
+          playerSelector != null ? playerSelector.select(this, candidates)
+              : Collections.<ToroPlayer>emptyList();
+      applySelection(toPlay, false);
+    }
+    // After selection, so that a correct prediction is not released.
+    if (flingPredictor != null) flingPredictor.onIdle();
+  }
+
+  @Override public boolean fling(int velocityX, int velocityY) {
+    boolean fling = super.fling(velocityX, velocityY);
+    if (fling && flingPredictor != null) flingPredictor.onFling(velocityX, velocityY);
+    if (fling && prefetchCallback != null) updatePrediction();
+    return fling;
+  }
+
+  // Prefetch window: the items right after the visible ones, in scroll direction.
+  private int prefetchCount;
+  private int prefetchFrom;
+  private int prefetchTo;
+  private boolean prefetchReverse;
+  // Predicted item: where the current fling lands, or the next item in scroll direction.
+  private int predictedPosition = NO_POSITION;
+  private boolean predictedByFling;
+
+  /**
+   * Set a {@link PrefetchCallback} to be notified of the items those are about to be visible, so
+   * that their media can be prefetched. The window contains up to {@code prefetchCount} items right
+   * after the last visible item, or right before the first visible item when scrolling toward lower
+   * positions. Only {@link LinearLayoutManager} and its subclasses are supported.
+   *
+   * If the callback is a {@link PredictionCallback}, it is also told the item that is predicted to
+   * be played next: where the current fling lands if the fling prediction is enabled (see
+   * {@link #setFlingPredictionEnabled(boolean)}), otherwise the first item of the window.
+   *
+   * @param callback the {@link PrefetchCallback}, or {@code null} to stop prefetching.
+   * @param prefetchCount maximum number of items in the prefetch window.
+   * @since 3.5.3
+   */
+  public final void setPrefetchCallback(@Nullable PrefetchCallback callback,
+      @IntRange(from = 1) int prefetchCount) {
+    if (prefetchCount < 1) throw new IllegalArgumentException("Invalid count: " + prefetchCount);
+    if (this.prefetchCallback != null && this.prefetchCallback != callback) {
+      this.prefetchCallback.onPrefetchWindowChanged(this, 0, 0, false); // cancel all.
+      cancelPrediction();
+    }
+    this.prefetchCallback = callback;
+    this.prefetchCount = prefetchCount;
+    this.prefetchFrom = this.prefetchTo = 0;
+    this.predictedPosition = NO_POSITION;
+    this.predictedByFling = false;
+    if (callback != null) {
+      updatePrefetchWindow(0, 0);
+      updatePrediction();
+    }
+  }
+
+  // Tell the PredictionCallback, if any, when the predicted item changes.
+  private void updatePrediction() {
+    int target = flingPredictor != null ? flingPredictor.getTargetPosition() : NO_POSITION;
+    boolean fling = target != NO_POSITION;
+    int position = fling ? target
+        : prefetchFrom < prefetchTo ? (prefetchReverse ? prefetchTo - 1 : prefetchFrom)
+            : NO_POSITION;
+    if (position == predictedPosition && fling == predictedByFling) return;
+    predictedPosition = position;
+    predictedByFling = fling;
+    if (prefetchCallback instanceof PredictionCallback) {
+      ((PredictionCallback) prefetchCallback).onPredictionChanged(this, position, fling);
+    }
+  }
+
+  private void cancelPrediction() {
+    if (predictedPosition != NO_POSITION && prefetchCallback instanceof PredictionCallback) {
+      ((PredictionCallback) prefetchCallback).onPredictionChanged(this, NO_POSITION, false);
+    }
+    predictedPosition = NO_POSITION;
+    predictedByFling = false;
+  }
+
+  private void updatePrefetchWindow(int dx, int dy) {
+    LayoutManager layout = super.getLayoutManager();
+    if (!(layout instanceof LinearLayoutManager)) return;
+    LinearLayoutManager linear = (LinearLayoutManager) layout;
+    int delta = linear.getOrientation() == LinearLayoutManager.VERTICAL ? dy : dx;
+    // Positive delta moves to higher positions, unless the layout is reversed. Zero keeps the last
+    // direction, as it comes from a layout pass.
+    boolean reverse = delta == 0 ? prefetchReverse : (delta < 0) != linear.getReverseLayout();
+    int itemCount = linear.getItemCount();
+    int from;
+    int to;
+    if (reverse) {
+      to = linear.findFirstVisibleItemPosition();
+      from = Math.max(0, to - prefetchCount);
+    } else {
+      int last = linear.findLastVisibleItemPosition();
+      from = last == NO_POSITION ? NO_POSITION : last + 1;
+      to = Math.min(itemCount, from + prefetchCount);
+    }
+    if (from == NO_POSITION || to == NO_POSITION || from >= to) from = to = 0;
+    if (from == prefetchFrom && to == prefetchTo && reverse == prefetchReverse) return;
+    prefetchFrom = from;
+    prefetchTo = to;
+    prefetchReverse = reverse;
+    prefetchCallback.onPrefetchWindowChanged(this, from, to, reverse);
+  }
+
+  /**
+   * Enable or disable the fling prediction. When enabled, on a fling this {@link Container}
+   * estimates where the scroll lands, and initializes the {@link ToroPlayer} that is likely to be
+   * selected there before the scroll settles, so it starts faster. A wrong prediction is released
+   * when the scroll becomes idle. Only {@link android.support.v7.widget.LinearLayoutManager} and
+   * its subclasses are supported, this has no effect for other {@link LayoutManager}s.
+   *
+   * @param enabled {@code true} to enable the prediction.
+   * @since 3.5.3
+   */
+  public final void setFlingPredictionEnabled(boolean enabled) {
+    if (enabled == (flingPredictor != null)) return;
+    if (flingPredictor != null) flingPredictor.onIdle();
+    this.flingPredictor = enabled ? new FlingPredictor(this) : null;
+  }
+
+  /**
+   * @return {@code true} if fling prediction is enabled, {@code false} otherwise.
+   * @since 3.5.3
+   */
+  public final boolean isFlingPredictionEnabled() {
+    return flingPredictor != null;
+  }
+
+  /**
+   * Enable or disable the decoder budget, shared by all {@link Container}s those enable it. Each
+   * initialized {@link ToroPlayer} is assumed to hold a decoder until it is released, and devices
+   * only support a few at the same time. When enabled, a player is only initialized if the budget
+   * allows it, and a player that is about to start can release another initialized player of this
+   * {@link Container}, or of a {@link Container} that is not shown, to take its decoder. The
+   * released player saves its {@link PlaybackInfo}, and is initialized again when there is room.
+   * The budget is the maximum number of instances of the device's preferred AVC decoder on API 23+,
+   * or 4 before that. Disabled by default.
+   *
+   * @param enabled {@code true} to count the players of this {@link Container} in the budget.
+   * @since 3.5.3
+   */
+  public final void setDecoderBudgetEnabled(boolean enabled) {
+    if (this.decoderBudgetEnabled == enabled) return;
+    this.decoderBudgetEnabled = enabled;
+    if (!enabled) {
+      // Not counted anymore, and the suspended players are free to be initialized again.
+      for (int i = 0, size = playerManager.size(); i < size; i++) {
+        DecoderBudget.release(playerManager.getPlayerAt(i));
+      }
+      dispatchUpdateOnAnimationFinished(true);
+    }
+  }
+
+  /**
+   * @return {@code true} if the decoder budget is enabled, {@code false} otherwise.
+   * @since 3.5.3
+   */
+  public final boolean isDecoderBudgetEnabled() {
+    return decoderBudgetEnabled;
+  }
+
+  @CallSuper @Override public void onScrolled(int dx, int dy) {
+    super.onScrolled(dx, dy);
+    visibilityIndex.onScrolled(dx, dy);
+    if (flingPredictor != null) flingPredictor.onScrolled();
+    if (scrollSelector != null && getScrollState() != SCROLL_STATE_IDLE) scrollSelector.schedule();
+    if (prefetchCallback != null) {
+      updatePrefetchWindow(dx, dy);
+      updatePrediction();
+    }
+  }
+
+  /// Steps of a selection pass, also used by ScrollSelector.
+
+  // Release the managed players those are not qualified to play anymore.
+  void releaseInvisiblePlayers() {
+    for (int i = playerManager.size() - 1; i >= 0; i--) {
+      ToroPlayer player = playerManager.getPlayerAt(i);
+      if (visibilityIndex.allowsToPlay(player)) continue;
       if (player.isPlaying()) {
         this.savePlaybackInfo(player.getPlayerOrder(), player.getCurrentPlaybackInfo());
         playerManager.pause(player);
@@ -289,59 +570,111 @@ public class Container extends RecyclerView {
       if (!playerManager.release(player)) player.release();
       playerManager.detachPlayer(player);
     }
+  }
 
-    // 2. Refresh the good players list.
+  // Manage the visible players. If 'initialize' is false, they are initialized only when selected.
+  void attachVisiblePlayers(boolean initialize) {
     LayoutManager layout = super.getLayoutManager();
-    // current number of visible 'Virtual Children', or zero if there is no LayoutManager available.
     int childCount = layout != null ? layout.getChildCount() : 0;
-    if (childCount <= 0 || state != SCROLL_STATE_IDLE) {
-      playerManager.deferPlaybacks();
-      return;
-    }
-
     for (int i = 0; i < childCount; i++) {
       View child = layout.getChildAt(i);
       ViewHolder holder = super.getChildViewHolder(child);
       if (holder instanceof ToroPlayer) {
         ToroPlayer player = (ToroPlayer) holder;
         // Check candidate's condition
-        if (Common.allowsToPlay(player)) {
+        if (visibilityIndex.allowsToPlay(player)) {
           if (!playerManager.manages(player)) {
             playerManager.attachPlayer(player);
           }
           // Don't check the attach result, because the player may be managed already.
-          if (!player.isPlaying()) {  // not playing or not ready to play.
+          if (initialize && !player.isPlaying()) {  // not playing or not ready to play.
             playerManager.initialize(player, Container.this);
           }
         }
       }
     }
+  }
 
-    final List<ToroPlayer> source = playerManager.getPlayers();
-    int count = source.size();
-    if (count < 1) return;  // No available player, return.
-
-    List<ToroPlayer> candidates = new ArrayList<>();
-    for (int i = 0; i < count; i++) {
-      ToroPlayer player = source.get(i);
-      if (player.wantsToPlay()) candidates.add(player);
+  // Collect the managed players those want to play into 'candidates', in ascending order, starting
+  // from the managed player at 'from' (0 starts over). There are only a few players, so insertion
+  // is cheap. Return the index to continue from if this takes longer than the deadline (in
+  // System#nanoTime), or -1 once all the players are collected.
+  int collectCandidates(int from, long deadlineNanos) {
+    if (from == 0) candidates.clear();
+    int evaluated = 0;
+    int index = from;
+    for (int count = playerManager.size(); index < count; ) {
+      ToroPlayer player = playerManager.getPlayerAt(index++);
+      evaluated++;
+      // The managed players may change between two frames: don't collect one twice.
+      if (player.wantsToPlay() && (from == 0 || !candidates.contains(player))) {
+        Selections.insertByOrder(candidates, player, Common.PLAYER_ORDER);
+      }
+      if (index < count && deadlineNanos != Long.MAX_VALUE && System.nanoTime() > deadlineNanos) {
+        break;
+      }
     }
-    Collections.sort(candidates, Common.ORDER_COMPARATOR);
+    if (selectionMetrics != null) selectionMetrics.onCandidatesEvaluated(evaluated);
+    return index < playerManager.size() ? index : -1;
+  }
 
-    Collection<ToroPlayer> toPlay = playerSelector != null ? playerSelector.select(this, candidates)
-        : Collections.<ToroPlayer>emptyList();
+  // Play the selected players, pause the others.
+  void applySelection(@NonNull Collection<ToroPlayer> toPlay, boolean initialize) {
     for (ToroPlayer player : toPlay) {
-      if (!player.isPlaying()) playerManager.play(player, playerDispatcher.getDelayToPlay(player));
+      playSelected(player, initialize);
     }
+    pauseUnselected(toPlay, 0, Long.MAX_VALUE);
+    candidates.clear();
+  }
 
-    source.removeAll(toPlay);
-    // Now 'source' contains only ones need to be paused.
-    for (ToroPlayer player : source) {
-      if (player.isPlaying()) {
+  // Steps of applySelection, so that ScrollSelector can spread them over frames.
+  void playSelected(@NonNull ToroPlayer player, boolean initialize) {
+    // The player may be released since it was selected, if the selection is applied later.
+    if (player.isPlaying() || !playerManager.manages(player)) return;
+    if (initialize) playerManager.initialize(player, Container.this);
+    playerManager.play(player, playerDispatcher.getDelayToPlay(player));
+  }
+
+  // Same contract as collectCandidates: return the index to continue from, or -1 once done.
+  int pauseUnselected(@NonNull Collection<ToroPlayer> toPlay, int from, long deadlineNanos) {
+    int index = from;
+    for (int count = playerManager.size(); index < count; ) {
+      ToroPlayer player = playerManager.getPlayerAt(index++);
+      if (playerManager.isPlayRequested(player) && !toPlay.contains(player)) {
         this.savePlaybackInfo(player.getPlayerOrder(), player.getCurrentPlaybackInfo());
         playerManager.pause(player);
       }
+      if (index < count && deadlineNanos != Long.MAX_VALUE && System.nanoTime() > deadlineNanos) {
+        break;
+      }
     }
+    return index < playerManager.size() ? index : -1;
+  }
+
+  /**
+   * Enable or disable the selection of players while this {@link Container} is being dragged or
+   * is settling. By default, the selection only happens when the scroll is idle. When enabled,
+   * selection runs at most once per frame, throttled by {@link Choreographer}, and uses the
+   * {@link ScrollSelection} to avoid toggling players on every pixel and to bound its cost.
+   *
+   * @param scrollSelection the {@link ScrollSelection} to use, or {@code null} to disable.
+   * @since 3.5.3
+   */
+  public final void setScrollSelection(@Nullable ScrollSelection scrollSelection) {
+    if (scrollSelector != null) {
+      if (scrollSelection != null && scrollSelector.config == scrollSelection) return;
+      scrollSelector.cancel();
+    }
+    this.scrollSelector =
+        scrollSelection != null ? new ScrollSelector(this, scrollSelection) : null;
+  }
+
+  /**
+   * @return current {@link ScrollSelection}, or {@code null} if it is disabled.
+   * @since 3.5.3
+   */
+  @Nullable public final ScrollSelection getScrollSelection() {
+    return scrollSelector != null ? scrollSelector.config : null;
   }
 
   /**
@@ -388,17 +721,22 @@ public class Container extends RecyclerView {
   void dispatchUpdateOnAnimationFinished(boolean immediate) {
     if (getScrollState() != SCROLL_STATE_IDLE) return;
     if (animatorFinishHandler == null) return;
-    final long duration = immediate ? SOME_BLINKS : getMaxAnimationDuration();
-    if (getItemAnimator() != null) {
-      getItemAnimator().isRunning(new ItemAnimator.ItemAnimatorFinishedListener() {
-        @Override public void onAnimationsFinished() {
-          animatorFinishHandler.removeCallbacksAndMessages(null);
-          animatorFinishHandler.sendEmptyMessageDelayed(-1, duration);
-        }
-      });
-    } else {
-      animatorFinishHandler.removeCallbacksAndMessages(null);
-      animatorFinishHandler.sendEmptyMessageDelayed(-1, duration);
+    TraceCompat.beginSection("ToroLib:dispatchUpdateOnAnimationFinished");
+    try {
+      final long duration = immediate ? SOME_BLINKS : getMaxAnimationDuration();
+      if (getItemAnimator() != null) {
+        getItemAnimator().isRunning(new ItemAnimator.ItemAnimatorFinishedListener() {
+          @Override public void onAnimationsFinished() {
+            animatorFinishHandler.removeCallbacksAndMessages(null);
+            animatorFinishHandler.sendEmptyMessageDelayed(-1, duration);
+          }
+        });
+      } else {
+        animatorFinishHandler.removeCallbacksAndMessages(null);
+        animatorFinishHandler.sendEmptyMessageDelayed(-1, duration);
+      }
+    } finally {
+      TraceCompat.endSection();
     }
   }
 
@@ -431,6 +769,7 @@ public class Container extends RecyclerView {
   /* pkg */ final PlaybackInfoCache playbackInfoCache = new PlaybackInfoCache(this);
   /* pkg */ Initializer playerInitializer = Initializer.DEFAULT;
   private CacheManager cacheManager = null; // null by default
+  private PlaybackInfoStore playbackInfoStore = null; // null by default
 
   public final void setPlayerInitializer(@NonNull Initializer playerInitializer) {
     this.playerInitializer = playerInitializer;
@@ -446,6 +785,16 @@ public class Container extends RecyclerView {
     playbackInfoCache.savePlaybackInfo(order, playbackInfo);
   }
 
+  // The cached PlaybackInfo of this player was just loaded from the PlaybackInfoStore. A player
+  // that is not playing reads it when initialized again on next selection, a playing one is
+  // restarted from it here.
+  void reapplyPlaybackInfo(@NonNull ToroPlayer player) {
+    if (!playerManager.manages(player) || !player.isPlaying()) return;
+    playerManager.pause(player);
+    playerManager.initialize(player, this);
+    playerManager.play(player, PlayerDispatcher.DELAY_NONE);
+  }
+
   /**
    * Get the cached {@link PlaybackInfo} at a specific order.
    *
@@ -465,7 +814,12 @@ public class Container extends RecyclerView {
    */
   @RemoveIn(version = "3.6.0") @Deprecated  //
   @NonNull public List<Integer> getSavedPlayerOrders() {
-    return new ArrayList<>(playbackInfoCache.coldKeyToOrderMap.keySet());
+    SortedIntMap<Object> orderMap = playbackInfoCache.coldKeyToOrderMap;
+    List<Integer> orders = new ArrayList<>(orderMap.size());
+    for (int i = 0, size = orderMap.size(); i < size; i++) {
+      orders.add(orderMap.keyAt(i));
+    }
+    return orders;
   }
 
   /**
@@ -483,14 +837,17 @@ public class Container extends RecyclerView {
     }
 
     if (cacheManager == null) {
-      if (playbackInfoCache.hotCache != null) {
-        for (Map.Entry<Integer, PlaybackInfo> entry : playbackInfoCache.hotCache.entrySet()) {
-          cache.put(entry.getKey(), entry.getValue());
+      SortedIntMap<PlaybackInfo> hotCache = playbackInfoCache.hotCache;
+      if (hotCache != null) {
+        for (int i = 0, size = hotCache.size(); i < size; i++) {
+          cache.put(hotCache.keyAt(i), hotCache.valueAt(i));
         }
       }
     } else {
-      for (Map.Entry<Integer, Object> entry : playbackInfoCache.coldKeyToOrderMap.entrySet()) {
-        cache.put(entry.getKey(), playbackInfoCache.coldCache.get(entry.getValue()));
+      SortedIntMap<Object> orderMap = playbackInfoCache.coldKeyToOrderMap;
+      for (int i = 0, size = orderMap.size(); i < size; i++) {
+        PlaybackInfo info = playbackInfoCache.coldCache.peek(orderMap.valueAt(i));
+        if (info != null) cache.put(orderMap.keyAt(i), info);
       }
     }
 
@@ -523,6 +880,100 @@ public class Container extends RecyclerView {
     return cacheManager;
   }
 
+  /**
+   * Set a {@link PlaybackInfoStore} to this {@link Container}, so that {@link PlaybackInfo} is
+   * persisted beyond the in-memory cache, and beyond the process. The store is only used when there
+   * is a non-null {@link CacheManager}, and its keys are the ones from the {@link CacheManager}.
+   *
+   * The same {@link PlaybackInfoStore} can be shared by many {@link Container}s, as long as their
+   * {@link CacheManager}s don't produce the same keys for different items.
+   *
+   * @param playbackInfoStore the {@link PlaybackInfoStore} to use, or {@code null} to not persist.
+   * @since 3.5.3
+   */
+  public final void setPlaybackInfoStore(@Nullable PlaybackInfoStore playbackInfoStore) {
+    if (this.playbackInfoStore == playbackInfoStore) return;
+    this.playbackInfoStore = playbackInfoStore;
+    this.playbackInfoCache.onStoreChanged();
+  }
+
+  /**
+   * @return current {@link PlaybackInfoStore} of the {@link Container}. Can be {@code null}.
+   * @since 3.5.3
+   */
+  @Nullable public final PlaybackInfoStore getPlaybackInfoStore() {
+    return playbackInfoStore;
+  }
+
+  /**
+   * Set the maximum number of {@link PlaybackInfo} this {@link Container} keeps in its cache when
+   * there is a non-null {@link CacheManager}. When the cache grows over this number, the least
+   * recently used {@link PlaybackInfo} is dropped. By default the cache is not bounded
+   * ({@link #CACHE_SIZE_UNBOUNDED}), which may not be good for a long, infinite-scroll list.
+   *
+   * @param maxCacheSize maximum number of cached {@link PlaybackInfo}, must not be negative.
+   * @since 3.5.3
+   */
+  public final void setMaxCacheSize(@IntRange(from = 0) int maxCacheSize) {
+    if (maxCacheSize < 0) throw new IllegalArgumentException("Negative size: " + maxCacheSize);
+    this.playbackInfoCache.setMaxCacheSize(maxCacheSize);
+  }
+
+  /**
+   * @return current maximum number of cached {@link PlaybackInfo}.
+   * @since 3.5.3
+   */
+  public final int getMaxCacheSize() {
+    return this.playbackInfoCache.coldCache.maxSize;
+  }
+
+  /**
+   * Get a snapshot of the {@link PlaybackInfo} cache statistic, since this {@link Container} is
+   * created or since the last call to {@link #resetCacheStats()}.
+   *
+   * @since 3.5.3
+   */
+  @NonNull public final CacheStats getCacheStats() {
+    ColdCache coldCache = this.playbackInfoCache.coldCache;
+    return new CacheStats(coldCache.size(), coldCache.maxSize, coldCache.hitCount,
+        coldCache.missCount, coldCache.evictionCount);
+  }
+
+  /** @since 3.5.3 */
+  public final void resetCacheStats() {
+    this.playbackInfoCache.coldCache.resetStats();
+  }
+
+  /**
+   * Set a {@link MetricsListener} to be notified after each selection pass of this
+   * {@link Container}, and start collecting the {@link SelectionStats}. Without it, nothing is
+   * measured. Setting a listener resets the {@link SelectionStats}.
+   *
+   * The passes, {@link PlayerManager} operations and {@link PlaybackInfo} cache updates are also
+   * traced with {@link android.os.Trace} sections named "ToroLib:...", whether a listener is set or
+   * not, so that they show up in systrace.
+   *
+   * @param listener the {@link MetricsListener}, or {@code null} to stop measuring.
+   * @since 3.5.3
+   */
+  public final void setMetricsListener(@Nullable MetricsListener listener) {
+    this.selectionMetrics = listener != null ? new SelectionMetrics(listener) : null;
+  }
+
+  /**
+   * Get a snapshot of the selection statistic, since the current {@link MetricsListener} is set.
+   *
+   * @return the {@link SelectionStats}, or {@code null} if there is no {@link MetricsListener}.
+   * @since 3.5.3
+   */
+  @Nullable public final SelectionStats getSelectionStats() {
+    SelectionMetrics metrics = this.selectionMetrics;
+    if (metrics == null) return null;
+    return new SelectionStats(metrics.passCount, metrics.histogram.clone(),
+        metrics.candidatesEvaluated, metrics.playCount, metrics.pauseCount, metrics.releaseCount,
+        metrics.cacheOperations);
+  }
+
   /**
    * Temporary save current playback infos when the App is stopped but not re-created. (For example:
    * User press App Stack). If not {@code empty} then user is back from a living-but-stopped state.
@@ -547,6 +998,7 @@ public class Container extends RecyclerView {
         }
       }
     } else if (visibility == View.VISIBLE) {
+      visibilityIndex.invalidateAll();
       if (tmpStates.size() > 0) {
         for (int i = 0; i < tmpStates.size(); i++) {
           int order = tmpStates.keyAt(i);
@@ -635,7 +1087,7 @@ public class Container extends RecyclerView {
       }
     }
 
-    final SparseArray<PlaybackInfo> states = playbackInfoCache.saveStates();
+    final SparseArray<PlaybackInfo> states = playbackInfoCache.saveStates(MAX_SAVED_STATES);
 
     boolean recreating =
         getContext() instanceof Activity && ((Activity) getContext()).isChangingConfigurations();
@@ -704,17 +1156,18 @@ public class Container extends RecyclerView {
      */
     PlayerViewState(Parcel in, ClassLoader loader) {
       super(in, loader);
-      statesCache = in.readSparseArray(loader);
+      statesCache = PackedStates.unpack(in.createByteArray());
     }
 
     PlayerViewState(Parcel in) {
       super(in);
+      statesCache = PackedStates.unpack(in.createByteArray());
     }
 
+    // States are written in a packed format, see PackedStates.
     @Override public void writeToParcel(Parcel dest, int flags) {
       super.writeToParcel(dest, flags);
-      //noinspection unchecked
-      dest.writeSparseArray((SparseArray<Object>) statesCache);
+      dest.writeByteArray(statesCache != null ? PackedStates.pack(statesCache) : null);
     }
 
     public static final Creator<PlayerViewState> CREATOR =
@@ -1117,6 +1570,10 @@ public class Container extends RecyclerView {
       Container container = containerRef.get();
       if (container == null) return;
       if (layoutDidChange(left, top, right, bottom, oldLeft, oldTop, oldRight, oldBottom)) {
+        if (v.getParent() == container) {
+          ViewHolder holder = container.getChildViewHolder(v);
+          if (holder instanceof ToroPlayer) container.visibilityIndex.markDirty((ToroPlayer) holder);
+        }
         container.dispatchUpdateOnAnimationFinished(false);
       }
     }
@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.widget;
+
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.os.Build;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.RestrictTo;
+import android.util.Log;
+import im.ene.toro.ToroPlayer;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+
+import static im.ene.toro.ToroUtil.checkNotNull;
+
+/**
+ * Process-wide budget of the players initialized by the {@link Container}s those use it, see
+ * {@link Container#setDecoderBudgetEnabled(boolean)}. Each initialized
+ * player is assumed to hold one decoder, as it is prepared, until it is released, even when it is
+ * paused. Devices only support a few concurrent hardware decoders, so preparing one more player
+ * than the budget allows, for example in a nested {@link Container}, would fail.
+ *
+ * Before a player is initialized, {@link PlayerManager} asks for a slot, and {@link Reservation}s
+ * are revoked if needed. If there is still none, the player is not initialized: it waits, and
+ * doesn't take the slot of another player. Once a waiting player is selected to start, the player
+ * with the lowest priority is suspended instead: its playback info is saved and it is released, so
+ * its decoder is freed. Priority is, from low to high: players in a {@link Container} that is not
+ * shown, then the players of the same {@link Container} those are not playing, then its earliest
+ * initialized players. The players of another {@link Container} that is shown are never suspended:
+ * if only those are left, the waiting player doesn't start. A suspended player is neither
+ * initialized nor started again until a slot is freed, at which time its {@link Container} is
+ * asked to update its playback.
+ *
+ * Players and their {@link Container}s are only weakly referenced, so a {@link Container} that is
+ * gone without releasing its players is not leaked. Main thread only.
+ *
+ * @author eneim (2018/06/20).
+ * @since 3.5.3
+ */
+@SuppressWarnings({ "WeakerAccess", "unused" }) //
+@RestrictTo(RestrictTo.Scope.LIBRARY_GROUP) //
+public final class DecoderBudget {
+
+  private static final String TAG = "ToroLib:Budget";
+  // Used when the device doesn't tell, or before API 23.
+  static final int DEFAULT_MAX_INSTANCES = 4;
+  static final int UNSET = -1;
+
+  private static final ArrayList<Entry> active = new ArrayList<>();  // Ordered by start time.
+  private static final ArrayList<Entry> suspended = new ArrayList<>();
+  private static final ArrayList<Reservation> reservations = new ArrayList<>();
+  private static int maxInstances = UNSET;
+
+  private DecoderBudget() {
+    throw new RuntimeException("Meh!");
+  }
+
+  /**
+   * Set the maximum number of players that can be initialized at the same time, by all
+   * {@link Container}s of the process, plus the {@link Reservation}s. An initialized player is
+   * assumed to hold a decoder until it is released, and devices only support a few hardware
+   * decoders at the same time. When there is no room, a player is only initialized once it is
+   * about to start: a {@link Reservation} is revoked, or the player with the lowest priority is
+   * released first. It will be initialized and started again when there is room.
+   *
+   * By default, the budget is the maximum number of instances of the device's preferred AVC
+   * decoder on API 23+, or 4 before that.
+   *
+   * @param maxPlayers maximum number of initialized players, must be positive. Use
+   * {@link Integer#MAX_VALUE} to disable the budget.
+   */
+  public static void setMaxPlayers(@IntRange(from = 1) int maxPlayers) {
+    if (maxPlayers < 1) throw new IllegalArgumentException("Invalid budget: " + maxPlayers);
+    maxInstances = maxPlayers;
+    // Apply the new budget on next start, and let the suspended players try again if it grows.
+    if (used() < maxPlayers) onSlotFreed();
+  }
+
+  /**
+   * @return current maximum number of initialized players, by all {@link Container}s of the
+   * process.
+   */
+  public static int getMaxPlayers() {
+    if (maxInstances == UNSET) maxInstances = queryMaxInstances();
+    return maxInstances;
+  }
+
+  /**
+   * Count a decoder held outside of the {@link Container}s, for example by a player prepared ahead
+   * of time, if there is a free slot for it. The {@link Reservation} is kept until
+   * {@link #cancel(Reservation)} is called, or until a {@link Container} needs its slot, in which
+   * case {@link Reservation#onRevoked()} is called and the decoder must be released.
+   *
+   * @param reservation the {@link Reservation} to count.
+   * @return {@code true} if the {@link Reservation} is counted, {@code false} if the budget is full
+   * and the decoder should not be acquired.
+   */
+  public static boolean reserve(@NonNull Reservation reservation) {
+    checkNotNull(reservation);
+    if (reservations.contains(reservation)) return true;
+    prune();
+    if (used() >= getMaxPlayers()) return false;
+    reservations.add(reservation);
+    return true;
+  }
+
+  /**
+   * Stop counting a {@link Reservation}, once its decoder is released or handed to a player of a
+   * {@link Container}. No-op if it is not counted.
+   *
+   * @param reservation the {@link Reservation} to stop counting.
+   */
+  public static void cancel(@NonNull Reservation reservation) {
+    if (reservations.remove(reservation)) onSlotFreed();
+  }
+
+  static boolean isSuspended(@NonNull ToroPlayer player) {
+    return indexOf(suspended, player) >= 0;
+  }
+
+  // True if the player holds a slot, which means it was initialized and not released since then.
+  static boolean isActive(@NonNull ToroPlayer player) {
+    return indexOf(active, player) >= 0;
+  }
+
+  /**
+   * Called right before the player is initialized, or is started without being initialized.
+   * Revoke the reservations if needed. If {@code evict} is {@code true}, also suspend the players
+   * with a lower priority if needed.
+   *
+   * @return {@code true} if the player holds a slot, and can be initialized.
+   */
+  static boolean acquire(@NonNull ToroPlayer player, @NonNull PlayerManager manager,
+      boolean evict) {
+    if (indexOf(active, player) >= 0) return true;
+    if (!evict && isSuspended(player)) return false;  // Wait for a free slot.
+    prune();
+    int max = getMaxPlayers();
+    while (!reservations.isEmpty() && used() >= max) {
+      reservations.remove(reservations.size() - 1).onRevoked();
+    }
+    if (evict) {
+      while (active.size() >= max) {
+        int index = lowestPriority(manager);
+        if (index < 0) break;  // Only the players of other shown Containers are left.
+        Entry victim = active.remove(index);
+        PlayerManager victimManager = victim.manager.get();
+        ToroPlayer victimPlayer = victim.player.get();
+        if (victimManager == null || victimPlayer == null) continue;  // Gone meanwhile.
+        suspended.add(victim);
+        victimManager.suspend(victimPlayer);
+      }
+    }
+    if (used() >= max) return false;
+    int index = indexOf(suspended, player);
+    if (index >= 0) suspended.remove(index);
+    active.add(new Entry(player, manager));
+    return true;
+  }
+
+  /**
+   * Called when the player is released or not managed anymore.
+   */
+  static void release(@NonNull ToroPlayer player) {
+    int index = indexOf(suspended, player);
+    if (index >= 0) suspended.remove(index);
+    index = indexOf(active, player);
+    if (index >= 0) {
+      active.remove(index);
+      onSlotFreed();
+    }
+  }
+
+  private static int used() {
+    return active.size() + reservations.size();
+  }
+
+  // Let the latest suspended players try again, as many as there are free slots.
+  private static void onSlotFreed() {
+    prune();
+    int free = getMaxPlayers() - used();
+    while (free > 0 && !suspended.isEmpty()) {
+      Entry entry = suspended.remove(suspended.size() - 1);
+      PlayerManager manager = entry.manager.get();
+      if (manager == null) continue;
+      manager.container.dispatchUpdateOnAnimationFinished(true);
+      free--;
+    }
+  }
+
+  // Drop the entries whose player or Container is gone.
+  private static void prune() {
+    prune(active);
+    prune(suspended);
+  }
+
+  private static void prune(ArrayList<Entry> entries) {
+    for (int i = entries.size() - 1; i >= 0; i--) {
+      if (entries.get(i).isCleared()) entries.remove(i);
+    }
+  }
+
+  // Index of the player to suspend for a player of the requester, or -1 if none can be.
+  private static int lowestPriority(PlayerManager requester) {
+    for (int i = 0, size = active.size(); i < size; i++) {
+      PlayerManager manager = active.get(i).manager.get();
+      if (manager == null || !manager.container.isShown()) return i;
+    }
+    for (int i = 0, size = active.size(); i < size; i++) {
+      if (active.get(i).manager.get() != requester) continue;
+      ToroPlayer player = active.get(i).player.get();
+      if (player == null || !player.isPlaying()) return i;
+    }
+    for (int i = 0, size = active.size(); i < size; i++) {
+      if (active.get(i).manager.get() == requester) return i;
+    }
+    return -1;
+  }
+
+  private static int indexOf(ArrayList<Entry> entries, ToroPlayer player) {
+    for (int i = 0, size = entries.size(); i < size; i++) {
+      if (entries.get(i).player.get() == player) return i;
+    }
+    return -1;
+  }
+
+  // The max number of instances of the preferred AVC decoder. Most of the time, it is a hardware
+  // one that also limits other hardware video decoders.
+  private static int queryMaxInstances() {
+    if (Build.VERSION.SDK_INT < 23) return DEFAULT_MAX_INSTANCES;
+    try {
+      MediaCodecInfo[] infos = new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos();
+      for (MediaCodecInfo info : infos) {
+        if (info.isEncoder()) continue;
+        for (String type : info.getSupportedTypes()) {
+          if (!"video/avc".equalsIgnoreCase(type)) continue;
+          int max = info.getCapabilitiesForType(type).getMaxSupportedInstances();
+          if (max > 0) return max;
+        }
+      }
+    } catch (RuntimeException error) {
+      Log.w(TAG, "Failed to query the decoders: " + error);
+    }
+    return DEFAULT_MAX_INSTANCES;
+  }
+
+  /**
+   * A decoder counted in the budget, but not held by a player of a {@link Container}. See
+   * {@link #reserve(Reservation)}.
+   */
+  public interface Reservation {
+
+    /**
+     * Called when a {@link Container} needs the slot of this {@link Reservation}, which is not
+     * counted anymore. Implementation must release its decoder.
+     */
+    void onRevoked();
+  }
+
+  static final class Entry {
+
+    // Weak, so that this process-wide budget doesn't hold the players and their Containers.
+    @NonNull final WeakReference<ToroPlayer> player;
+    @NonNull final WeakReference<PlayerManager> manager;
+
+    Entry(@NonNull ToroPlayer player, @NonNull PlayerManager manager) {
+      this.player = new WeakReference<>(player);
+      this.manager = new WeakReference<>(manager);
+    }
+
+    boolean isCleared() {
+      return player.get() == null || manager.get() == null;
+    }
+  }
+}
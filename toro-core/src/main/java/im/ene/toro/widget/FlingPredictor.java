@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.widget;
+
+import android.hardware.SensorManager;
+import android.support.annotation.NonNull;
+import android.support.v7.widget.GridLayoutManager;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+import android.view.ViewConfiguration;
+import im.ene.toro.ToroPlayer;
+
+import static android.support.v7.widget.RecyclerView.NO_POSITION;
+
+/**
+ * Predict where a fling of {@link Container} lands, and initialize the {@link ToroPlayer} that is
+ * likely to be selected there before the scroll settles, to hide its start-up delay.
+ *
+ * Landing distance is computed the same way {@link android.widget.OverScroller} does for a fling.
+ * The landing position is estimated using the average item size of the current children, so only
+ * {@link LinearLayoutManager} (and {@link GridLayoutManager}) is supported. The predicted player is
+ * the one with the smallest order that is equal or larger than the landing position, which is what
+ * {@link im.ene.toro.PlayerSelector#DEFAULT} selects in most cases.
+ *
+ * The players attached while flinging are only remembered. The best one is initialized once it
+ * can't be beaten anymore: when it is at the landing position, or when the landing position is
+ * visible, that is near the end of the fling. So a fling initializes one player at most, whatever
+ * its direction and the number of items it passes by.
+ *
+ * A prediction is cancelled when the scroll becomes idle: if the predicted player is not managed
+ * by the {@link Container} at that time, it is released. If it is detached from the
+ * {@link Container} before that, the {@link Container} releases it as usual.
+ *
+ * @author eneim (2018/06/16).
+ */
+final class FlingPredictor {
+
+  // Constants from android.widget.OverScroller.SplineOverScroller.
+  private static final float INFLEXION = 0.35f;
+  private static final float DECELERATION_RATE = (float) (Math.log(0.78) / Math.log(0.9));
+
+  @NonNull private final Container container;
+  private final float flingFriction = ViewConfiguration.getScrollFriction();
+  private final float physicalCoeff;
+
+  private int targetPosition = NO_POSITION;
+  private ToroPlayer candidate;  // the best player for the current fling, not initialized yet.
+  private boolean picked;  // the candidate of the current fling is initialized.
+  private ToroPlayer player;  // the pre-initialized player, if any.
+
+  FlingPredictor(@NonNull Container container) {
+    this.container = container;
+    float ppi = container.getResources().getDisplayMetrics().density * 160.0f;
+    this.physicalCoeff = SensorManager.GRAVITY_EARTH // g (m/s^2)
+        * 39.37f // inch/meter
+        * ppi * 0.84f; // look and feel tuning
+  }
+
+  void onFling(int velocityX, int velocityY) {
+    RecyclerView.LayoutManager layoutManager = container.getLayoutManager();
+    if (!(layoutManager instanceof LinearLayoutManager)) return;
+    LinearLayoutManager layout = (LinearLayoutManager) layoutManager;
+    int childCount = layout.getChildCount();
+    int itemCount = layout.getItemCount();
+    if (childCount <= 0 || itemCount <= 0) return;
+
+    boolean vertical = layout.getOrientation() == LinearLayoutManager.VERTICAL;
+    int maxVelocity = container.getMaxFlingVelocity();
+    int velocity = Math.max(-maxVelocity, Math.min(vertical ? velocityY : velocityX, maxVelocity));
+    if (velocity == 0) return;
+    int first = layout.findFirstVisibleItemPosition();
+    if (first == NO_POSITION) return;
+
+    long totalExtent = 0;
+    for (int i = 0; i < childCount; i++) {
+      View child = layout.getChildAt(i);
+      totalExtent += vertical ? layout.getDecoratedMeasuredHeight(child)
+          : layout.getDecoratedMeasuredWidth(child);
+    }
+    int spanCount =
+        layout instanceof GridLayoutManager ? ((GridLayoutManager) layout).getSpanCount() : 1;
+    // Average extent of a row, assuming full rows.
+    double rowExtent = totalExtent * spanCount / (double) childCount;
+    if (rowExtent <= 0) return;
+
+    int rows = (int) Math.round(splineFlingDistance(velocity) / rowExtent);
+    // Positive velocity moves to higher positions, unless the layout is reversed.
+    int direction = (velocity > 0) != layout.getReverseLayout() ? 1 : -1;
+    int target = first + direction * rows * spanCount;
+    targetPosition = Math.max(0, Math.min(target, itemCount - 1));
+    candidate = null;
+    picked = false;
+
+    // The target may be attached already, for a short fling.
+    for (int i = 0; i < childCount; i++) {
+      RecyclerView.ViewHolder holder = container.getChildViewHolder(layout.getChildAt(i));
+      if (holder instanceof ToroPlayer) consider((ToroPlayer) holder);
+    }
+    onScrolled();
+  }
+
+  // Adapter position where the current fling is predicted to land, or NO_POSITION.
+  int getTargetPosition() {
+    return targetPosition;
+  }
+
+  // A player is attached while flinging. Pick it at once only if nothing can be closer.
+  void onPlayerAttached(@NonNull ToroPlayer attached) {
+    if (targetPosition == NO_POSITION || picked) return;
+    consider(attached);
+    if (candidate == attached && attached.getPlayerOrder() == targetPosition) pick();
+  }
+
+  // Once the target is visible, the players around it are attached: the candidate is the best one.
+  void onScrolled() {
+    if (targetPosition == NO_POSITION || picked || candidate == null) return;
+    RecyclerView.LayoutManager layoutManager = container.getLayoutManager();
+    if (!(layoutManager instanceof LinearLayoutManager)) return;
+    LinearLayoutManager layout = (LinearLayoutManager) layoutManager;
+    int first = layout.findFirstVisibleItemPosition();
+    int last = layout.findLastVisibleItemPosition();
+    if (first != NO_POSITION && first <= targetPosition && targetPosition <= last) pick();
+  }
+
+  // Remember the player if it is closer to the target than the current candidate.
+  private void consider(@NonNull ToroPlayer attached) {
+    int order = attached.getPlayerOrder();
+    if (order < targetPosition) return;
+    if (candidate != null && candidate.getPlayerOrder() <= order) return;
+    candidate = attached;
+  }
+
+  private void pick() {
+    picked = true;
+    if (candidate == player) return;  // predicted by the previous fling already.
+    releaseUnmanaged();
+    player = candidate;
+    if (!player.isPlaying()) container.playerManager.initialize(player, container);
+  }
+
+  void onPlayerDetached(@NonNull ToroPlayer detached) {
+    if (detached == candidate) candidate = null;
+    // Container releases it.
+    if (detached == player) player = null;
+  }
+
+  // The fling is interrupted, stop predicting but keep the player until scroll is idle.
+  void stopPredicting() {
+    targetPosition = NO_POSITION;
+    candidate = null;
+  }
+
+  // Must be called after the selection on idle, so that a correct prediction is managed already.
+  void onIdle() {
+    targetPosition = NO_POSITION;
+    candidate = null;
+    releaseUnmanaged();
+    player = null;
+  }
+
+  private void releaseUnmanaged() {
+    if (player != null && !container.playerManager.manages(player)) {
+      DecoderBudget.release(player);
+      player.release();
+    }
+  }
+
+  // Same as OverScroller.SplineOverScroller#getSplineFlingDistance(int).
+  private double splineFlingDistance(int velocity) {
+    double l = Math.log(INFLEXION * Math.abs(velocity) / (flingFriction * physicalCoeff));
+    double decelMinusOne = DECELERATION_RATE - 1.0;
+    return flingFriction * physicalCoeff * Math.exp(DECELERATION_RATE / decelMinusOne * l);
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.widget;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Listener of the selection passes of a {@link Container}, see
+ * {@link Container#setMetricsListener(MetricsListener)}. Called on the main thread, it should be
+ * cheap.
+ *
+ * @author eneim (2018/06/27).
+ * @since 3.5.3
+ */
+public interface MetricsListener {
+
+  /**
+   * Called after a selection pass, when the scroll state changes or while scrolling if
+   * {@link Container#setScrollSelection(ScrollSelection)} is used.
+   *
+   * @param container the {@link Container}.
+   * @param durationNanos duration of the pass.
+   * @param candidatesEvaluated number of managed players those were checked for the selection.
+   * @param playersToggled number of players those were started, paused or released.
+   */
+  void onSelectionPass(@NonNull Container container, long durationNanos,
+      int candidatesEvaluated, int playersToggled);
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.widget;
+
+import android.support.annotation.NonNull;
+
+/**
+ * @author eneim (2018/06/10).
+ *
+ *         Walks the indexes of a {@link SortedIntMap} outward from an anchor key: the closest key
+ *         first, the lower one on ties. Used to pick the entries to save around the current
+ *         position. Reusable, so a walk does not allocate.
+ *
+ *         This class must not use the Android framework: toro-benchmark compiles it for the JVM.
+ */
+final class NearestCursor {
+
+  private SortedIntMap<?> map;
+  private int anchor;
+  private int left;
+  private int right;
+
+  void reset(@NonNull SortedIntMap<?> map, int anchor) {
+    this.map = map;
+    this.anchor = anchor;
+    this.right = map.ceilingIndex(anchor);
+    this.left = right - 1;
+  }
+
+  boolean hasNext() {
+    return map != null && (left >= 0 || right < map.size());
+  }
+
+  /** Returns the next index of the map. Only valid if {@link #hasNext()} returns true. */
+  int next() {
+    if (left < 0) return right++;
+    if (right >= map.size()) return left--;
+    return anchor - map.keyAt(left) <= map.keyAt(right) - anchor ? left-- : right++;
+  }
+
+  void clear() {
+    this.map = null;
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.widget;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.SparseArray;
+import im.ene.toro.media.PlaybackInfo;
+import im.ene.toro.media.VolumeInfo;
+
+/**
+ * Compact binary format of the saved {@link PlaybackInfo}s, used by
+ * {@link Container.PlayerViewState}. Writing the {@link SparseArray} of Parcelables directly costs
+ * a class name String per entry, for both {@link PlaybackInfo} and {@link VolumeInfo}.
+ *
+ * Entries are packed column by column, like parallel arrays: orders, windows, resume positions,
+ * volumes, then mute flags. Orders are sorted so they are delta-encoded. Integers are written as
+ * variable-length (zig-zag) values, so small values like window index take 1 byte. An entry often
+ * takes less than 16 bytes.
+ *
+ * @author eneim (2018/06/13).
+ */
+final class PackedStates {
+
+  private static final byte VERSION = 1;
+
+  private PackedStates() {
+    throw new RuntimeException("Meh!");
+  }
+
+  @NonNull static byte[] pack(@NonNull SparseArray<?> states) {
+    int count = 0;
+    for (int i = 0, size = states.size(); i < size; i++) {
+      if (states.valueAt(i) instanceof PlaybackInfo) count++;
+    }
+
+    Writer writer = new Writer(8 + count * 16);
+    writer.writeByte(VERSION);
+    writer.writeVarLong(count);
+    int previous = 0;
+    for (int i = 0, size = states.size(); i < size; i++) {
+      if (!(states.valueAt(i) instanceof PlaybackInfo)) continue;
+      int order = states.keyAt(i);  // SparseArray keys are sorted ascending.
+      writer.writeVarLong(zigZag((long) order - previous));
+      previous = order;
+    }
+    for (int i = 0, size = states.size(); i < size; i++) {
+      Object value = states.valueAt(i);
+      if (value instanceof PlaybackInfo) {
+        writer.writeVarLong(zigZag(((PlaybackInfo) value).getResumeWindow()));
+      }
+    }
+    for (int i = 0, size = states.size(); i < size; i++) {
+      Object value = states.valueAt(i);
+      if (value instanceof PlaybackInfo) {
+        writer.writeVarLong(zigZag(((PlaybackInfo) value).getResumePosition()));
+      }
+    }
+    for (int i = 0, size = states.size(); i < size; i++) {
+      Object value = states.valueAt(i);
+      if (value instanceof PlaybackInfo) {
+        writer.writeInt(Float.floatToIntBits(((PlaybackInfo) value).getVolumeInfo().getVolume()));
+      }
+    }
+    int bits = 0;
+    int index = 0;
+    for (int i = 0, size = states.size(); i < size; i++) {
+      Object value = states.valueAt(i);
+      if (!(value instanceof PlaybackInfo)) continue;
+      if (((PlaybackInfo) value).getVolumeInfo().isMute()) bits |= 1 << (index & 7);
+      if ((++index & 7) == 0) {
+        writer.writeByte(bits);
+        bits = 0;
+      }
+    }
+    if ((index & 7) != 0) writer.writeByte(bits);
+    return writer.toByteArray();
+  }
+
+  /**
+   * @return the unpacked {@link PlaybackInfo}s, or {@code null} if the data is not recognized.
+   */
+  @Nullable static SparseArray<PlaybackInfo> unpack(@Nullable byte[] data) {
+    if (data == null || data.length == 0 || data[0] != VERSION) return null;
+    Reader reader = new Reader(data, 1);
+    int count = (int) reader.readVarLong();
+    if (count < 0) return null;
+    int[] orders = new int[count];
+    int[] windows = new int[count];
+    long[] positions = new long[count];
+    float[] volumes = new float[count];
+
+    int order = 0;
+    for (int i = 0; i < count; i++) {
+      order += (int) unZigZag(reader.readVarLong());
+      orders[i] = order;
+    }
+    for (int i = 0; i < count; i++) {
+      windows[i] = (int) unZigZag(reader.readVarLong());
+    }
+    for (int i = 0; i < count; i++) {
+      positions[i] = unZigZag(reader.readVarLong());
+    }
+    for (int i = 0; i < count; i++) {
+      volumes[i] = Float.intBitsToFloat(reader.readInt());
+    }
+
+    SparseArray<PlaybackInfo> states = new SparseArray<>(count);
+    int bits = 0;
+    for (int i = 0; i < count; i++) {
+      if ((i & 7) == 0) bits = reader.readByte();
+      boolean mute = (bits & (1 << (i & 7))) != 0;
+      // Orders are ascending, so append() doesn't need a binary search.
+      states.append(orders[i],
+          new PlaybackInfo(windows[i], positions[i], new VolumeInfo(mute, volumes[i])));
+    }
+    return states;
+  }
+
+  private static long zigZag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private static long unZigZag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static final class Writer {
+
+    private byte[] buffer;
+    private int position;
+
+    Writer(int initialCapacity) {
+      buffer = new byte[initialCapacity];
+    }
+
+    void writeByte(int value) {
+      if (position == buffer.length) {
+        byte[] newBuffer = new byte[buffer.length * 2];
+        System.arraycopy(buffer, 0, newBuffer, 0, position);
+        buffer = newBuffer;
+      }
+      buffer[position++] = (byte) value;
+    }
+
+    void writeInt(int value) {
+      writeByte(value >>> 24);
+      writeByte(value >>> 16);
+      writeByte(value >>> 8);
+      writeByte(value);
+    }
+
+    // Unsigned LEB128.
+    void writeVarLong(long value) {
+      while ((value & ~0x7FL) != 0) {
+        writeByte((int) ((value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+      writeByte((int) value);
+    }
+
+    byte[] toByteArray() {
+      byte[] result = new byte[position];
+      System.arraycopy(buffer, 0, result, 0, position);
+      return result;
+    }
+  }
+
+  private static final class Reader {
+
+    private final byte[] buffer;
+    private int position;
+
+    Reader(byte[] buffer, int position) {
+      this.buffer = buffer;
+      this.position = position;
+    }
+
+    // ArrayIndexOutOfBoundsException on malformed data is intended, as it should never happen.
+    int readByte() {
+      return buffer[position++] & 0xFF;
+    }
+
+    int readInt() {
+      return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+    }
+
+    long readVarLong() {
+      long result = 0;
+      int shift = 0;
+      int b;
+      do {
+        b = readByte();
+        result |= (long) (b & 0x7F) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0 && shift < 64);
+      return result;
+    }
+  }
+}
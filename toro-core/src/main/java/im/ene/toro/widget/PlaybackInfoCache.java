@@ -19,21 +19,18 @@ package im.ene.toro.widget;
 import android.annotation.SuppressLint;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.v4.os.TraceCompat;
+import android.support.v4.util.ArraySet;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.RecyclerView.AdapterDataObserver;
 import android.util.SparseArray;
 import im.ene.toro.CacheManager;
+import im.ene.toro.PlaybackInfoStore;
 import im.ene.toro.ToroPlayer;
 import im.ene.toro.ToroUtil;
 import im.ene.toro.media.PlaybackInfo;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
-import java.util.TreeMap;
-import java.util.TreeSet;
 
 import static im.ene.toro.media.PlaybackInfo.SCRAP;
-import static im.ene.toro.widget.Common.ORDER_COMPARATOR_INT;
 
 /**
  * @author eneim (2018/04/24).
@@ -46,29 +43,84 @@ import static im.ene.toro.widget.Common.ORDER_COMPARATOR_INT;
  * [2] If a non-null {@link CacheManager} provided to the {@link Container}, this class must
  * properly manage the {@link PlaybackInfo} of detached {@link ToroPlayer} and restore it to
  * previous state after being re-attached.
+ *
+ * [3] If a {@link PlaybackInfoStore} is also provided, read through it on cold cache miss, and write
+ * every saved {@link PlaybackInfo} to it. If it is a {@link PlaybackInfoStore.Async} that is still
+ * loading, remember the players those missed it, and re-apply their persisted {@link PlaybackInfo}
+ * once it is loaded.
  */
 @SuppressWarnings({ "WeakerAccess", "unused" }) @SuppressLint("UseSparseArrays")
 final class PlaybackInfoCache extends AdapterDataObserver {
 
   @NonNull private final Container container;
   // Cold cache represents the map between key obtain from CacheManager and PlaybackInfo. If the
-  // CacheManager is null, this cache will hold nothing.
-  /* pkg */ HashMap<Object, PlaybackInfo> coldCache = new HashMap<>();
+  // CacheManager is null, this cache will hold nothing. Bounded by Container#setMaxCacheSize(int).
+  /* pkg */ final ColdCache coldCache = new ColdCache();
 
   // Hot cache represents the map between Player's order and its PlaybackInfo. A key-value map only
   // lives between a Player's attached state.
-  // Being a TreeMap because we need to traversal through it in order sometime.
-  /* pkg */ TreeMap<Integer, PlaybackInfo> hotCache; // only cache attached Views.
+  // Being a SortedIntMap because we need to traversal through it in order sometime, and it doesn't
+  // box the order on every access.
+  /* pkg */ SortedIntMap<PlaybackInfo> hotCache; // only cache attached Views.
+
+  // Holds the map between Player's order and the key of its PlaybackInfo in the cold cache, see
+  // coldKey(int, boolean). On Adapter's data change events, only the orders are shifted (lazily in
+  // O(log n), but removing entries is O(n)): the keys follow their items, so the cold cache doesn't
+  // change.
+  /* pkg */ final SortedIntMap<Object> coldKeyToOrderMap = new SortedIntMap<>();
+
+  // For saveStates and restoreStates.
+  private final SavedStates savedStates = new SavedStates();
+  private final SparseStates sparseStates = new SparseStates();
+  private final SavedStates.Values<PlaybackInfo> coldValues =
+      new SavedStates.Values<PlaybackInfo>() {
+        @Override public PlaybackInfo peek(Object key) {
+          return coldCache.peek(key);
+        }
+
+        @Override public boolean isStored(Object key) {
+          return coldCache.isStored(key);
+        }
+
+        @Override public boolean hasUnstored() {
+          return coldCache.hasUnstored();
+        }
+
+        @Override public void spill(int order, Object coldKey, @NonNull PlaybackInfo info) {
+          PlaybackInfoStore store = container.getPlaybackInfoStore();
+          Object key = getKey(order);  // the store uses the CacheManager's keys.
+          if (store != null && key != null && info != SCRAP) store.put(key, info);
+          coldCache.markStored(coldKey);
+        }
+      };
+  private final SavedStates.Restorer<PlaybackInfo> restorer =
+      new SavedStates.Restorer<PlaybackInfo>() {
+        @Override public Object keyOf(int order) {
+          return coldKey(order, true);
+        }
 
-  // Holds the map between Player's order and its key obtain from CacheManager.
-  /* pkg */ TreeMap<Integer, Object> coldKeyToOrderMap = new TreeMap<>(ORDER_COMPARATOR_INT);
+        @Override public void restore(int order, @NonNull PlaybackInfo info) {
+          savePlaybackInfo(order, info);
+        }
+      };
+
+  // Attached players those were initialized before the PlaybackInfoStore is loaded, and have not
+  // saved any PlaybackInfo since then.
+  private final ArraySet<ToroPlayer> awaitingStore = new ArraySet<>();
+  private boolean storeCallbackPending;
+  private final Runnable onStoreLoaded = new Runnable() {
+    @Override public void run() {
+      storeCallbackPending = false;
+      applyStore();
+    }
+  };
 
   PlaybackInfoCache(@NonNull Container container) {
     this.container = container;
   }
 
   final void onAttach() {
-    hotCache = new TreeMap<>(ORDER_COMPARATOR_INT);
+    hotCache = new SortedIntMap<>();
   }
 
   final void onDetach() {
@@ -76,24 +128,39 @@ final class PlaybackInfoCache extends AdapterDataObserver {
       hotCache.clear();
       hotCache = null;
     }
-    coldKeyToOrderMap.clear();
+    // Not the coldKeyToOrderMap: it is the only way to the cold cache of a positional CacheManager,
+    // and it still follows the Adapter while detached.
+    awaitingStore.clear();
   }
 
   final void onPlayerAttached(ToroPlayer player) {
     int playerOrder = player.getPlayerOrder();
     // [1] Check if there is cold cache for this player
     Object key = getKey(playerOrder);
-    if (key != null) coldKeyToOrderMap.put(playerOrder, key);
+    Object coldKey = key != null ? coldKey(playerOrder, true) : null;
+
+    PlaybackInfo cache = coldKey == null ? null : coldCache.lookup(coldKey);
+    if (cache == null && key != null) {
+      // [2] Read through the persistent store, if any.
+      cache = readStore(key);
+      if (cache != null) {
+        coldCache.putStored(coldKey, cache);
+      } else {
+        awaitStore(player);
+      }
+    }
 
-    PlaybackInfo cache = key == null ? null : coldCache.get(key);
     if (cache == null || cache == SCRAP) {
       // We init this even if there is no CacheManager available, because this is what User expects.
       cache = container.playerInitializer.initPlaybackInfo(playerOrder);
-      // Only save to cold cache when there is a valid CacheManager (key is not null).
-      if (key != null) coldCache.put(key, cache);
+      // Only save to cold cache when there is a valid CacheManager (key is not null). Not when
+      // there is a PlaybackInfoStore either: it may still be loading, and the initial value would
+      // hide the persisted one for the rest of the session.
+      if (key != null && container.getPlaybackInfoStore() == null) coldCache.put(coldKey, cache);
     }
 
     if (hotCache != null) hotCache.put(playerOrder, cache);
+    if (key != null) trimOrderMap();
   }
 
   // Will be called from Container#onChildViewDetachedFromWindow(View)
@@ -104,11 +171,12 @@ final class PlaybackInfoCache extends AdapterDataObserver {
   // [1] Take current hot cache entry of the player, and put back to cold cache.
   // [2] Remove the hot cache entry of the player.
   final void onPlayerDetached(ToroPlayer player) {
+    awaitingStore.remove(player);
     int playerOrder = player.getPlayerOrder();
     if (hotCache != null && hotCache.containsKey(playerOrder)) {
       PlaybackInfo cache = hotCache.remove(playerOrder);
-      Object key = getKey(playerOrder);
-      if (key != null) coldCache.put(key, cache);
+      Object coldKey = coldKey(playerOrder, true);
+      if (coldKey != null) coldCache.put(coldKey, cache);
     }
   }
 
@@ -119,207 +187,151 @@ final class PlaybackInfoCache extends AdapterDataObserver {
   /// Adapter change events handling
 
   @Override public void onChanged() {
-    if (container.getCacheManager() != null) {
-      for (Integer key : coldKeyToOrderMap.keySet()) {
-        Object cacheKey = getKey(key);
-        coldCache.put(cacheKey, SCRAP);
-        coldKeyToOrderMap.put(key, cacheKey);
+    beginOperation("ToroLib:onChanged");
+    try {
+      if (container.getCacheManager() != null) {
+        boolean positional = hasPositionalKeys();
+        for (int i = 0, size = coldKeyToOrderMap.size(); i < size; i++) {
+          Object cacheKey =
+              positional ? coldKeyToOrderMap.valueAt(i) : getKey(coldKeyToOrderMap.keyAt(i));
+          coldCache.put(cacheKey, SCRAP);
+          coldKeyToOrderMap.setValueAt(i, cacheKey);
+        }
       }
-    }
 
-    if (hotCache != null) {
-      for (Integer key : hotCache.keySet()) {
-        hotCache.put(key, SCRAP);
+      if (hotCache != null) {
+        for (int i = 0, size = hotCache.size(); i < size; i++) {
+          hotCache.setValueAt(i, SCRAP);
+        }
       }
+    } finally {
+      TraceCompat.endSection();
     }
   }
 
   @Override public void onItemRangeChanged(final int positionStart, final int itemCount) {
     if (itemCount == 0) return;
-    if (container.getCacheManager() != null) {
-      Set<Integer> changedColdKeys = new TreeSet<>(ORDER_COMPARATOR_INT);
-      for (Integer key : coldKeyToOrderMap.keySet()) {
-        if (key >= positionStart && key < positionStart + itemCount) {
-          changedColdKeys.add(key);
+    final int positionEnd = positionStart + itemCount;
+    beginOperation("ToroLib:onItemRangeChanged");
+    try {
+      if (container.getCacheManager() != null) {
+        boolean positional = hasPositionalKeys();
+        for (int i = coldKeyToOrderMap.ceilingIndex(positionStart), size = coldKeyToOrderMap.size();
+            i < size; i++) {
+          int order = coldKeyToOrderMap.keyAt(i);
+          if (order >= positionEnd) break;
+          Object cacheKey = positional ? coldKeyToOrderMap.valueAt(i) : getKey(order);
+          coldCache.put(cacheKey, SCRAP);
+          coldKeyToOrderMap.setValueAt(i, cacheKey);
         }
       }
 
-      for (Integer key : changedColdKeys) {
-        Object cacheKey = getKey(key);
-        coldCache.put(cacheKey, SCRAP);
-        coldKeyToOrderMap.put(key, cacheKey);
-      }
-    }
-
-    if (hotCache != null) {
-      Set<Integer> changedHotKeys = new TreeSet<>(ORDER_COMPARATOR_INT);
-      for (Integer key : hotCache.keySet()) {
-        if (key >= positionStart && key < positionStart + itemCount) {
-          changedHotKeys.add(key);
+      if (hotCache != null) {
+        for (int i = hotCache.ceilingIndex(positionStart), size = hotCache.size(); i < size; i++) {
+          if (hotCache.keyAt(i) >= positionEnd) break;
+          hotCache.setValueAt(i, SCRAP);
         }
       }
-
-      for (Integer key : changedHotKeys) {
-        hotCache.put(key, SCRAP);
-      }
+    } finally {
+      TraceCompat.endSection();
     }
   }
 
   @Override public void onItemRangeInserted(final int positionStart, final int itemCount) {
     if (itemCount == 0) return;
-    // Cold cache update
-    if (container.getCacheManager() != null) {
-      // [1] Take keys of old one.
-      // 1.1 Extract subset of keys only:
-      Set<Integer> changedColdKeys = new TreeSet<>(ORDER_COMPARATOR_INT);
-      for (Integer key : coldKeyToOrderMap.keySet()) {
-        if (key >= positionStart) {
-          changedColdKeys.add(key);
-        }
+    beginOperation("ToroLib:onItemRangeInserted");
+    try {
+      // [1] Cold cache update: shift the orders.
+      if (container.getCacheManager() != null) {
+        coldKeyToOrderMap.shift(positionStart, itemCount);
       }
 
-      // 1.2 Extract entries from cold cache to a temp cache.
-      final Map<Object, PlaybackInfo> changeColdEntriesCache = new HashMap<>();
-      for (Integer key : changedColdKeys) {
-        changeColdEntriesCache.put(key, coldCache.remove(coldKeyToOrderMap.get(key)));
-      }
-
-      // 1.2 Update cold Cache with new keys
-      for (Integer key : changedColdKeys) {
-        coldCache.put(getKey(key + itemCount), changeColdEntriesCache.get(key));
-      }
-
-      // 1.3 Update coldKeyToOrderMap;
-      for (Integer key : changedColdKeys) {
-        coldKeyToOrderMap.put(key, getKey(key));
-      }
-    }
-
-    // [1] Remove cache if there is any appearance
-    if (hotCache != null) {
-      // [2] Shift cache by specific number
-      Map<Integer, PlaybackInfo> changedHotEntriesCache = new HashMap<>();
-      Set<Integer> changedHotKeys = new TreeSet<>(ORDER_COMPARATOR_INT);
-      for (Integer key : hotCache.keySet()) {
-        if (key >= positionStart) {
-          changedHotKeys.add(key);
-        }
-      }
-
-      for (Integer key : changedHotKeys) {
-        changedHotEntriesCache.put(key, hotCache.remove(key));
-      }
-
-      for (Integer key : changedHotKeys) {
-        hotCache.put(key + itemCount, changedHotEntriesCache.get(key));
-      }
+      // [2] Shift hot cache by specific number
+      if (hotCache != null) hotCache.shift(positionStart, itemCount);
+    } finally {
+      TraceCompat.endSection();
     }
   }
 
   @Override public void onItemRangeRemoved(final int positionStart, final int itemCount) {
     if (itemCount == 0) return;
-    // Cold cache update
-    if (container.getCacheManager() != null) {
-      // [1] Take keys of old one.
-      // 1.1 Extract subset of keys only:
-      Set<Integer> changedColdKeys = new TreeSet<>(ORDER_COMPARATOR_INT);
-      for (Integer key : coldKeyToOrderMap.keySet()) {
-        if (key >= positionStart + itemCount) changedColdKeys.add(key);
-      }
-      // 1.2 Extract entries from cold cache to a temp cache.
-      final Map<Object, PlaybackInfo> changeColdEntriesCache = new HashMap<>();
-      for (Integer key : changedColdKeys) {
-        changeColdEntriesCache.put(key, coldCache.remove(coldKeyToOrderMap.get(key)));
-      }
-
-      // 1.2 Update cold Cache with new keys
-      for (Integer key : changedColdKeys) {
-        coldCache.put(getKey(key - itemCount), changeColdEntriesCache.get(key));
+    final int positionEnd = positionStart + itemCount;
+    beginOperation("ToroLib:onItemRangeRemoved");
+    try {
+      // [1] Cold cache update: drop removed orders, shift the rest.
+      if (container.getCacheManager() != null) {
+        // Slots of removed items can't be reached anymore.
+        if (hasPositionalKeys()) removeColdRange(positionStart, positionEnd);
+        coldKeyToOrderMap.removeRange(positionStart, positionEnd);
+        coldKeyToOrderMap.shift(positionEnd, -itemCount);
       }
 
-      // 1.3 Update coldKeyToOrderMap;
-      for (Integer key : changedColdKeys) {
-        coldKeyToOrderMap.put(key, getKey(key));
-      }
-    }
-
-    // [1] Remove cache if there is any appearance
-    if (hotCache != null) {
-      for (int i = 0; i < itemCount; i++) {
-        hotCache.remove(positionStart + i);
-      }
-
-      // [2] Shift cache by specific number
-      Map<Integer, PlaybackInfo> changedHotEntriesCache = new HashMap<>();
-      Set<Integer> changedHotKeys = new TreeSet<>(ORDER_COMPARATOR_INT);
-      for (Integer key : hotCache.keySet()) {
-        if (key >= positionStart + itemCount) changedHotKeys.add(key);
-      }
-
-      for (Integer key : changedHotKeys) {
-        changedHotEntriesCache.put(key, hotCache.remove(key));
-      }
-
-      for (Integer key : changedHotKeys) {
-        hotCache.put(key - itemCount, changedHotEntriesCache.get(key));
+      // [2] Remove cache if there is any appearance, then shift the rest by specific number.
+      if (hotCache != null) {
+        hotCache.removeRange(positionStart, positionEnd);
+        hotCache.shift(positionEnd, -itemCount);
       }
+    } finally {
+      TraceCompat.endSection();
     }
   }
 
-  // Dude I wanna test this thing >.<
+  // RecyclerView only dispatches this with itemCount of 1.
   @Override public void onItemRangeMoved(final int fromPos, final int toPos, int itemCount) {
     if (fromPos == toPos) return;
     final int low = fromPos < toPos ? fromPos : toPos;
     final int high = fromPos + toPos - low;
-    final int shift = fromPos < toPos ? -1 : 1;  // how item will be shifted due to the move
-
-    // [1] Migrate cold cache.
-    if (container.getCacheManager() != null) {
-      // 1.1 Extract subset of keys only:
-      Set<Integer> changedColdKeys = new TreeSet<>(ORDER_COMPARATOR_INT);
-      for (Integer key : coldKeyToOrderMap.keySet()) {
-        if (key >= low && key <= high) changedColdKeys.add(key);
-      }
-      // 1.2 Extract entries from cold cache to a temp cache.
-      final Map<Object, PlaybackInfo> changeColdEntries = new HashMap<>();
-      for (Integer key : changedColdKeys) {
-        changeColdEntries.put(key, coldCache.remove(coldKeyToOrderMap.get(key)));
-      }
-
-      // 1.2 Update cold Cache with new keys
-      for (Integer key : changedColdKeys) {
-        if (key == low) {
-          coldCache.put(getKey(high), changeColdEntries.get(key));
-        } else {
-          coldCache.put(getKey(key + shift), changeColdEntries.get(key));
-        }
+    beginOperation("ToroLib:onItemRangeMoved");
+    try {
+      // [1] Migrate cold cache.
+      if (container.getCacheManager() != null) {
+        coldKeyToOrderMap.move(fromPos, toPos);
       }
 
-      // 1.3 Update coldKeyToOrderMap;
-      for (Integer key : changedColdKeys) {
-        coldKeyToOrderMap.put(key, getKey(key));
-      }
+      // [2] Migrate hot cache.
+      if (hotCache != null) hotCache.move(fromPos, toPos);
+    } finally {
+      TraceCompat.endSection();
     }
+  }
 
-    // [2] Migrate hot cache.
-    if (hotCache != null) {
-      Set<Integer> changedHotKeys = new TreeSet<>(ORDER_COMPARATOR_INT);
-      for (Integer key : hotCache.keySet()) {
-        if (key >= low && key <= high) changedHotKeys.add(key);
-      }
+  // Trace the operation, and count it if the Container has a MetricsListener.
+  private void beginOperation(String sectionName) {
+    TraceCompat.beginSection(sectionName);
+    SelectionMetrics metrics = container.selectionMetrics;
+    if (metrics != null) metrics.onCacheOperation();
+  }
 
-      Map<Integer, PlaybackInfo> changedHotEntriesCache = new HashMap<>();
-      for (Integer key : changedHotKeys) {
-        changedHotEntriesCache.put(key, hotCache.remove(key));
-      }
+  // Keys may be derived from the order (like CacheManager.DEFAULT), which doesn't follow the data,
+  // unless the CacheManager says otherwise.
+  private boolean hasPositionalKeys() {
+    return !(container.getCacheManager() instanceof CacheManager.StableKeys);
+  }
 
-      for (Integer key : changedHotKeys) {
-        if (key == low) {
-          hotCache.put(high, changedHotEntriesCache.get(key));
-        } else {
-          hotCache.put(key + shift, changedHotEntriesCache.get(key));
-        }
-      }
+  // Key of the PlaybackInfo of an order in the cold cache, or null if the CacheManager has no key
+  // for it. For CacheManager.StableKeys, the CacheManager's key. Otherwise, a private slot kept in
+  // coldKeyToOrderMap: it moves with the order on data change events, so the cold cache never needs
+  // to be re-keyed. If 'create' is true, the order is added to coldKeyToOrderMap if missing.
+  @Nullable private Object coldKey(int order, boolean create) {
+    Object key = getKey(order);
+    if (key == null) return null;
+    if (!hasPositionalKeys()) {
+      if (create) coldKeyToOrderMap.put(order, key);
+      return key;
+    }
+    Object slot = coldKeyToOrderMap.get(order);
+    if (slot == null && create) {
+      slot = new Object();
+      coldKeyToOrderMap.put(order, slot);
+    }
+    return slot;
+  }
+
+  // Drop the cold cache of the orders in range of [fromOrder, toOrder). O(k) of the range.
+  private void removeColdRange(int fromOrder, int toOrder) {
+    for (int i = coldKeyToOrderMap.ceilingIndex(fromOrder), size = coldKeyToOrderMap.size();
+        i < size && coldKeyToOrderMap.keyAt(i) < toOrder; i++) {
+      coldCache.remove(coldKeyToOrderMap.valueAt(i));
     }
   }
 
@@ -339,48 +351,157 @@ final class PlaybackInfoCache extends AdapterDataObserver {
       info = container.playerInitializer.initPlaybackInfo(position);
     }
 
+    if (info != null) return info;
     Object key = getKey(position);
-    return info != null ? info :  //
-        key != null ? coldCache.get(key) : container.playerInitializer.initPlaybackInfo(position);
+    Object coldKey = key != null ? coldKey(position, false) : null;
+    info = coldKey != null ? coldCache.lookup(coldKey) : null;
+    // Cold cache may have no entry for the key, or have evicted it.
+    if (info == null && key != null) info = readStore(key);
+    return info != null ? info : container.playerInitializer.initPlaybackInfo(position);
   }
 
   // Call by Container#savePlaybackInfo and that method is called right before any pausing.
   final void savePlaybackInfo(int position, @NonNull PlaybackInfo playbackInfo) {
     ToroUtil.checkNotNull(playbackInfo);
+    // A player that saved its PlaybackInfo has a newer one than the store.
+    for (int i = awaitingStore.size() - 1; i >= 0; i--) {
+      if (awaitingStore.valueAt(i).getPlayerOrder() == position) awaitingStore.removeAt(i);
+    }
     if (hotCache != null) hotCache.put(position, playbackInfo);
     Object key = getKey(position);
-    if (key != null) coldCache.put(key, playbackInfo);
+    if (key != null) {
+      // Write behind: the store copies the PlaybackInfo and writes it out of the main thread.
+      PlaybackInfoStore store = container.getPlaybackInfoStore();
+      Object coldKey = coldKey(position, true);
+      if (store != null && playbackInfo != SCRAP) {
+        coldCache.putStored(coldKey, playbackInfo);
+        store.put(key, playbackInfo);
+      } else {
+        coldCache.put(coldKey, playbackInfo);
+      }
+    }
+  }
+
+  @Nullable private PlaybackInfo readStore(@NonNull Object key) {
+    PlaybackInfoStore store = container.getPlaybackInfoStore();
+    return store != null ? store.get(key) : null;
   }
 
-  @NonNull SparseArray<PlaybackInfo> saveStates() {
+  // The store missed this player only because it is still loading, so ask it for a callback.
+  private void awaitStore(@NonNull ToroPlayer player) {
+    PlaybackInfoStore store = container.getPlaybackInfoStore();
+    if (!(store instanceof PlaybackInfoStore.Async)) return;
+    PlaybackInfoStore.Async async = (PlaybackInfoStore.Async) store;
+    if (async.isLoaded()) return;
+    awaitingStore.add(player);
+    if (!storeCallbackPending) {
+      storeCallbackPending = true;
+      async.runWhenLoaded(onStoreLoaded);
+    }
+  }
+
+  // Called on the main thread once the store is loaded: apply the persisted PlaybackInfo to the
+  // players those missed it, if they are still attached.
+  private void applyStore() {
+    if (awaitingStore.isEmpty()) return;
+    if (hotCache == null) {  // Container is detached.
+      awaitingStore.clear();
+      return;
+    }
+    PlaybackInfoStore store = container.getPlaybackInfoStore();
+    if (store instanceof PlaybackInfoStore.Async && !((PlaybackInfoStore.Async) store).isLoaded()) {
+      // Another store was set meanwhile, wait for it instead.
+      storeCallbackPending = true;
+      ((PlaybackInfoStore.Async) store).runWhenLoaded(onStoreLoaded);
+      return;
+    }
+    ToroPlayer[] players = awaitingStore.toArray(new ToroPlayer[awaitingStore.size()]);
+    awaitingStore.clear();
+    if (store == null) return;
+    for (ToroPlayer player : players) {
+      int order = player.getPlayerOrder();
+      Object key = getKey(order);
+      PlaybackInfo info = key != null ? store.get(key) : null;
+      if (info == null) continue;
+      coldCache.putStored(coldKey(order, true), info);
+      hotCache.put(order, info);
+      container.reapplyPlaybackInfo(player);
+    }
+  }
+
+  // Called when the Container's PlaybackInfoStore changes: it has seen none of the cold cache.
+  final void onStoreChanged() {
+    coldCache.setTracksStore(container.getPlaybackInfoStore() != null);
+  }
+
+  // Save at most maxCount entries, the ones closest to the attached players. When there is a
+  // PlaybackInfoStore, the others are spilled to it so they can still be restored from there. Only
+  // the ones it has not seen are spilled: the others were written behind, or read from it.
+  @NonNull SparseArray<PlaybackInfo> saveStates(int maxCount) {
     SparseArray<PlaybackInfo> states = new SparseArray<>();
     if (container.getCacheManager() != null) {
-      for (Map.Entry<Integer, Object> entry : coldKeyToOrderMap.entrySet()) {
-        states.put(entry.getKey(), coldCache.get(entry.getValue()));
-      }
+      final int anchor = hotCache != null && !hotCache.isEmpty() ? hotCache.keyAt(0) : 0;
+      sparseStates.array = states;
+      savedStates.save(coldKeyToOrderMap, anchor, coldValues,
+          container.getPlaybackInfoStore() != null, sparseStates, maxCount);
+      sparseStates.array = null;
     } else if (hotCache != null) {
-      for (Map.Entry<Integer, PlaybackInfo> entry : hotCache.entrySet()) {
-        states.put(entry.getKey(), entry.getValue());
+      for (int i = 0, size = Math.min(hotCache.size(), maxCount); i < size; i++) {
+        states.append(hotCache.keyAt(i), hotCache.valueAt(i));
       }
     }
     return states;
   }
 
   void restoreStates(@Nullable SparseArray<?> savedStates) {
-    int cacheSize;
-    if (savedStates != null && (cacheSize = savedStates.size()) > 0) {
-      for (int i = 0; i < cacheSize; i++) {
-        int order = savedStates.keyAt(i);
-        Object key = getKey(order);
-        coldKeyToOrderMap.put(order, key);
-        PlaybackInfo playbackInfo = (PlaybackInfo) savedStates.get(order);
-        this.savePlaybackInfo(order, playbackInfo);
-      }
+    if (savedStates != null && savedStates.size() > 0) {
+      sparseStates.array = savedStates;
+      SavedStates.restore(sparseStates, coldKeyToOrderMap, restorer);
+      sparseStates.array = null;
+      trimOrderMap();
+    }
+  }
+
+  final void setMaxCacheSize(int maxSize) {
+    coldCache.setMaxSize(maxSize);
+    trimOrderMap();
+  }
+
+  // Orders whose keys were evicted from the cold cache are useless. Drop them once the map grows
+  // to twice the cache bound, so the sweep is amortized O(1) per attached player.
+  private void trimOrderMap() {
+    if (coldCache.maxSize < Container.CACHE_SIZE_UNBOUNDED / 2
+        && coldKeyToOrderMap.size() > coldCache.maxSize * 2) {
+      coldKeyToOrderMap.retainAll(coldCache.keySet());
     }
   }
 
   final void clearCache() {
     coldCache.clear();
+    coldKeyToOrderMap.clear();  // its keys are from the previous CacheManager.
     if (hotCache != null) hotCache.clear();
   }
+
+  // A SparseArray as SavedStates.States, reused for each save and restore.
+  @SuppressWarnings("unchecked") //
+  private static final class SparseStates implements SavedStates.States<PlaybackInfo> {
+
+    SparseArray<?> array;
+
+    @Override public int size() {
+      return array.size();
+    }
+
+    @Override public int keyAt(int index) {
+      return array.keyAt(index);
+    }
+
+    @Override public PlaybackInfo valueAt(int index) {
+      return (PlaybackInfo) array.valueAt(index);
+    }
+
+    @Override public void put(int order, @NonNull PlaybackInfo value) {
+      ((SparseArray<PlaybackInfo>) array).put(order, value);
+    }
+  }
 }
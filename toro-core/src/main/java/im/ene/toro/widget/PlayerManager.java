@@ -20,12 +20,12 @@ import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 import android.support.annotation.NonNull;
+import android.support.v4.os.TraceCompat;
 import android.support.v4.util.ArraySet;
 import im.ene.toro.PlayerDispatcher;
 import im.ene.toro.ToroPlayer;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
 
 /**
  * Manage the collection of {@link ToroPlayer}s for a specific {@link Container}.
@@ -41,8 +41,17 @@ final class PlayerManager implements Handler.Callback {
   private static final String TAG = "ToroLib:Manager";
   private Handler handler;
 
+  @NonNull final Container container;
+
   // Make sure each ToroPlayer will present only once in this Manager.
-  private final Set<ToroPlayer> players = new ArraySet<>();
+  private final ArraySet<ToroPlayer> players = new ArraySet<>();
+  // Players asked to play and not paused since. They may not be playing yet: the play is delayed,
+  // or the player is still loading its media. They must be paused once not selected anymore.
+  private final ArraySet<ToroPlayer> playRequested = new ArraySet<>();
+
+  PlayerManager(@NonNull Container container) {
+    this.container = container;
+  }
 
   boolean attachPlayer(@NonNull ToroPlayer player) {
     return players.add(player);
@@ -50,6 +59,8 @@ final class PlayerManager implements Handler.Callback {
 
   boolean detachPlayer(@NonNull ToroPlayer player) {
     handler.removeCallbacksAndMessages(player);
+    playRequested.remove(player);
+    DecoderBudget.release(player);
     return players.remove(player);
   }
 
@@ -57,6 +68,11 @@ final class PlayerManager implements Handler.Callback {
     return players.contains(player);
   }
 
+  // True if the player is playing, or will play unless it is paused.
+  boolean isPlayRequested(@NonNull ToroPlayer player) {
+    return player.isPlaying() || playRequested.contains(player);
+  }
+
   /**
    * Return a "Copy" of the collection of players this manager is managing.
    *
@@ -66,7 +82,20 @@ final class PlayerManager implements Handler.Callback {
     return new ArrayList<>(this.players);
   }
 
+  // Index based access, for the callers those must not allocate.
+  int size() {
+    return players.size();
+  }
+
+  @NonNull ToroPlayer getPlayerAt(int index) {
+    return players.valueAt(index);
+  }
+
+  // The decoder is allocated when the player is prepared, so only initialize it with a slot of the
+  // DecoderBudget, if used. Without one, it is initialized when it is about to start, see
+  // start(ToroPlayer).
   void initialize(@NonNull ToroPlayer player, Container container) {
+    if (container.decoderBudgetEnabled && !DecoderBudget.acquire(player, this, false)) return;
     player.initialize(container, container.getPlaybackInfo(player.getPlayerOrder()));
   }
 
@@ -75,17 +104,25 @@ final class PlayerManager implements Handler.Callback {
     if (handler == null) return;
     handler.removeMessages(MSG_PLAY, player); // remove undone msg for this player
     if (delay == PlayerDispatcher.DELAY_INFINITE) {
-      // do nothing
+      playRequested.remove(player); // will not play.
     } else if (delay == PlayerDispatcher.DELAY_NONE) {
-      player.play();
+      start(player);
     } else {
+      playRequested.add(player);
       handler.sendMessageDelayed(handler.obtainMessage(MSG_PLAY, player), delay);
     }
   }
 
   void pause(@NonNull ToroPlayer player) {
     handler.removeCallbacksAndMessages(player); // remove all msg sent for the player
-    player.pause();
+    playRequested.remove(player);
+    TraceCompat.beginSection("ToroLib:pause");
+    try {
+      if (container.selectionMetrics != null) container.selectionMetrics.onPause();
+      player.pause();
+    } finally {
+      TraceCompat.endSection();
+    }
   }
 
   // return false if this manager could not release the player.
@@ -93,7 +130,15 @@ final class PlayerManager implements Handler.Callback {
   boolean release(@NonNull ToroPlayer player) {
     if (handler != null) handler.removeCallbacksAndMessages(null);
     if (manages(player)) {
-      player.release();
+      playRequested.remove(player);
+      TraceCompat.beginSection("ToroLib:release");
+      try {
+        if (container.selectionMetrics != null) container.selectionMetrics.onRelease();
+        DecoderBudget.release(player);
+        player.release();
+      } finally {
+        TraceCompat.endSection();
+      }
       return true;
     } else {
       return false;
@@ -107,7 +152,23 @@ final class PlayerManager implements Handler.Callback {
 
   void clear() {
     if (handler != null) handler.removeCallbacksAndMessages(null);
+    for (int i = 0, size = players.size(); i < size; i++) {
+      DecoderBudget.release(players.valueAt(i));
+    }
     this.players.clear();
+    this.playRequested.clear();
+  }
+
+  // Called by DecoderBudget to free the decoder of this player for another one. The player stays
+  // managed, but is not started again until DecoderBudget allows it. It is initialized, so its
+  // position is saved even if it is paused, to be resumed from there.
+  void suspend(@NonNull ToroPlayer player) {
+    if (handler != null) handler.removeCallbacksAndMessages(player);
+    playRequested.remove(player);
+    container.savePlaybackInfo(player.getPlayerOrder(), player.getCurrentPlaybackInfo());
+    if (player.isPlaying()) pause(player);
+    if (container.selectionMetrics != null) container.selectionMetrics.onRelease();
+    player.release();
   }
 
   void deferPlaybacks() {
@@ -131,8 +192,26 @@ final class PlayerManager implements Handler.Callback {
   @Override public boolean handleMessage(Message msg) {
     if (msg.what == MSG_PLAY && msg.obj instanceof ToroPlayer) {
       ToroPlayer player = (ToroPlayer) msg.obj;
-      player.play();
+      start(player);
     }
     return true;
   }
+
+  // Start the player if the DecoderBudget, if used, allows it.
+  private void start(@NonNull ToroPlayer player) {
+    TraceCompat.beginSection("ToroLib:play");
+    try {
+      if (container.decoderBudgetEnabled && !DecoderBudget.isActive(player)) {
+        // Not initialized yet because there was no free slot: take the one of another player.
+        if (DecoderBudget.isSuspended(player)) return;
+        if (!DecoderBudget.acquire(player, this, true)) return;  // Waits for a free slot.
+        player.initialize(container, container.getPlaybackInfo(player.getPlayerOrder()));
+      }
+      if (container.selectionMetrics != null) container.selectionMetrics.onPlay();
+      playRequested.add(player);
+      player.play();
+    } finally {
+      TraceCompat.endSection();
+    }
+  }
 }
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.widget;
+
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
+
+/**
+ * A {@link PrefetchCallback} that is also told which item is predicted to be played next, for
+ * example to prepare a player for it. See
+ * {@link Container#setPrefetchCallback(PrefetchCallback, int)}.
+ *
+ * @author eneim (2018/06/27).
+ * @since 3.5.3
+ */
+public interface PredictionCallback extends PrefetchCallback {
+
+  /**
+   * Called on the main thread when the predicted item changes. Anything prepared for the
+   * previous prediction should be released, unless its item is about to be played.
+   *
+   * @param container the {@link Container} whose prediction changes.
+   * @param position adapter position of the predicted item, or {@link RecyclerView#NO_POSITION}
+   * if there is no prediction anymore.
+   * @param fling {@code true} if the item is where the current fling is predicted to land,
+   * {@code false} if it is the next item in scroll direction.
+   */
+  void onPredictionChanged(@NonNull Container container, int position, boolean fling);
+}
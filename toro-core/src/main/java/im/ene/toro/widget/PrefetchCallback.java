@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.widget;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Callback to prefetch the media of the items those are about to be visible, for example to warm
+ * a media cache. See {@link Container#setPrefetchCallback(PrefetchCallback, int)}.
+ *
+ * @author eneim (2018/06/27).
+ * @since 3.5.3
+ */
+public interface PrefetchCallback {
+
+  /**
+   * Called on the main thread when the prefetch window changes. Items those are not in the new
+   * window anymore should not be prefetched, and their on-going prefetch should be cancelled.
+   *
+   * @param container the {@link Container} whose window changes.
+   * @param fromPosition first adapter position of the window, inclusive.
+   * @param toPosition last adapter position of the window, exclusive. If it is equal to
+   * {@code fromPosition}, the window is empty.
+   * @param reverse {@code true} if scrolling toward lower positions, so items near
+   * {@code toPosition} will be visible first. {@code false} otherwise.
+   */
+  void onPrefetchWindowChanged(@NonNull Container container, int fromPosition, int toPosition,
+      boolean reverse);
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.widget;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * @author eneim (2018/06/10).
+ *
+ *         The save walk and the restore loop of {@link PlaybackInfoCache}, written against
+ *         {@link Values}, {@link States} and {@link Restorer} instead of the cold cache, the
+ *         {@link im.ene.toro.PlaybackInfoStore} and SparseArray. Reusable, so a walk does not
+ *         allocate.
+ *
+ *         This class must not use the Android framework: toro-benchmark compiles it for the JVM.
+ */
+final class SavedStates {
+
+  /** The cached values by key, and which of them the store has seen. */
+  interface Values<V> {
+
+    /** Returns the value of a key without changing the eviction order, or null if evicted. */
+    @Nullable V peek(Object key);
+
+    boolean isStored(Object key);
+
+    boolean hasUnstored();
+
+    /** Writes the value of an order to the store, and remembers that the store has seen it. */
+    void spill(int order, Object key, @NonNull V value);
+  }
+
+  /** Saved values by order, as a SparseArray. */
+  interface States<V> {
+
+    int size();
+
+    int keyAt(int index);
+
+    V valueAt(int index);
+
+    void put(int order, @NonNull V value);
+  }
+
+  /** Receives the restored values. */
+  interface Restorer<V> {
+
+    @Nullable Object keyOf(int order);
+
+    void restore(int order, @NonNull V value);
+  }
+
+  private final NearestCursor cursor = new NearestCursor();
+
+  /**
+   * Saves at most maxCount values, walking outward from the anchor order so the values around the
+   * position are kept. If spill is true, the values over maxCount the store has not seen are
+   * spilled to it.
+   */
+  <V> void save(@NonNull SortedIntMap<Object> orderToKey, int anchor, @NonNull Values<V> values,
+      boolean spill, @NonNull States<V> states, int maxCount) {
+    cursor.reset(orderToKey, anchor);
+    while (cursor.hasNext()) {
+      if (states.size() >= maxCount && (!spill || !values.hasUnstored())) break;
+      int index = cursor.next();
+      Object key = orderToKey.valueAt(index);
+      V value = values.peek(key);
+      if (value == null) continue;  // evicted.
+      if (states.size() < maxCount) {
+        states.put(orderToKey.keyAt(index), value);
+      } else if (!values.isStored(key)) {
+        values.spill(orderToKey.keyAt(index), key, value);
+      }
+    }
+    cursor.clear();
+  }
+
+  /** Restores the saved values, and maps their orders to the current keys. */
+  static <V> void restore(@NonNull States<? extends V> saved,
+      @NonNull SortedIntMap<Object> orderToKey, @NonNull Restorer<V> restorer) {
+    for (int i = 0, count = saved.size(); i < count; i++) {
+      int order = saved.keyAt(i);
+      orderToKey.put(order, restorer.keyOf(order));
+      restorer.restore(order, saved.valueAt(i));
+    }
+  }
+}
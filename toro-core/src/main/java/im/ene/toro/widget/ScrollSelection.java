@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.widget;
+
+import android.support.annotation.IntRange;
+import im.ene.toro.PlayerSelector;
+import java.util.List;
+
+/**
+ * Configuration for selecting players during scroll. See
+ * {@link Container#setScrollSelection(ScrollSelection)}.
+ *
+ * @author eneim (2018/06/27).
+ * @since 3.5.3
+ */
+public final class ScrollSelection {
+
+  /** Run the selection every frame. */
+  public static final int DEFAULT_FRAME_INTERVAL = 1;
+  /** A new selection must stay the same for this long before it is applied. */
+  public static final long DEFAULT_HYSTERESIS_MS = 250;
+  /** Selection yields and continues on next frame once it takes this long in a frame. */
+  public static final long DEFAULT_FRAME_BUDGET_US = 2000;
+
+  /** Default configuration. */
+  public static final ScrollSelection DEFAULT = new Builder().build();
+
+  final int frameInterval;
+  final long hysteresisMs;
+  final long frameBudgetUs;
+
+  ScrollSelection(int frameInterval, long hysteresisMs, long frameBudgetUs) {
+    this.frameInterval = frameInterval;
+    this.hysteresisMs = hysteresisMs;
+    this.frameBudgetUs = frameBudgetUs;
+  }
+
+  public final class Builder {
+
+    private int frameInterval = DEFAULT_FRAME_INTERVAL;
+    private long hysteresisMs = DEFAULT_HYSTERESIS_MS;
+    private long frameBudgetUs = DEFAULT_FRAME_BUDGET_US;
+
+    /**
+     * @param frameInterval run the selection once every this number of frames, at least 1.
+     */
+    public Builder setFrameInterval(@IntRange(from = 1) int frameInterval) {
+      if (frameInterval < 1) throw new IllegalArgumentException("Invalid: " + frameInterval);
+      this.frameInterval = frameInterval;
+      return this;
+    }
+
+    /**
+     * @param hysteresisMs time in milliseconds a changed selection must stay the same before
+     * players are actually started or paused. Zero applies the change immediately.
+     */
+    public Builder setHysteresisMs(@IntRange(from = 0) long hysteresisMs) {
+      if (hysteresisMs < 0) throw new IllegalArgumentException("Invalid: " + hysteresisMs);
+      this.hysteresisMs = hysteresisMs;
+      return this;
+    }
+
+    /**
+     * @param frameBudgetUs target time in microseconds the selection may take in a frame. It is
+     * checked between the units of work of a pass: once it is used up, the rest of the pass is
+     * carried over to the next frames, where it continues from where it stopped. A unit already
+     * started is not interrupted, so a frame may go over by one unit: one call to
+     * {@link PlayerSelector#select(Container, List)}, or starting one player. At least one unit
+     * runs per frame, so that a pass always completes.
+     */
+    public Builder setFrameBudgetUs(@IntRange(from = 1) long frameBudgetUs) {
+      if (frameBudgetUs < 1) throw new IllegalArgumentException("Invalid: " + frameBudgetUs);
+      this.frameBudgetUs = frameBudgetUs;
+      return this;
+    }
+
+    public ScrollSelection build() {
+      return new ScrollSelection(frameInterval, hysteresisMs, frameBudgetUs);
+    }
+  }
+
+  @Override public String toString() {
+    return "ScrollSelection{"
+        + "frameInterval="
+        + frameInterval
+        + ", hysteresisMs="
+        + hysteresisMs
+        + ", frameBudgetUs="
+        + frameBudgetUs
+        + '}';
+  }
+}
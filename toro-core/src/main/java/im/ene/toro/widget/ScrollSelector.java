@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.widget;
+
+import android.support.annotation.NonNull;
+import android.support.v4.os.TraceCompat;
+import android.view.Choreographer;
+import im.ene.toro.PlayerSelector;
+import im.ene.toro.ToroPlayer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+
+import static android.support.v7.widget.RecyclerView.SCROLL_STATE_IDLE;
+
+/**
+ * Run the selection pass of a {@link Container} while it is scrolling, at most once per frame.
+ * See {@link Container#setScrollSelection(ScrollSelection)}.
+ *
+ * A pass is scheduled by a scroll event, and re-scheduled as long as there is a pending change of
+ * selection, so that the hysteresis can complete even if the scroll pauses. Once the scroll is
+ * idle, the usual selection of {@link Container} takes over.
+ *
+ * A pass is split into small units of work: refreshing the visibility, releasing and attaching
+ * the players, collecting each candidate, the {@link PlayerSelector}, then starting or pausing
+ * each player. The frame budget is checked between the units, and once it is used up the pass
+ * continues from the same unit on next frame. A unit is never interrupted, and at least one runs
+ * per frame: the budget is a target that a frame may exceed by one unit.
+ *
+ * As a pass may span many frames, the candidates and the selection may be from a frame before the
+ * current one, when the players were elsewhere. So a selected player is checked again right before
+ * it is started, and skipped if it is not on screen or doesn't want to play anymore.
+ *
+ * @author eneim (2018/06/15).
+ */
+final class ScrollSelector implements Choreographer.FrameCallback {
+
+  private static final int STEP_UPDATE = 0;
+  private static final int STEP_RELEASE = 1;
+  private static final int STEP_ATTACH = 2;
+  private static final int STEP_COLLECT = 3;
+  private static final int STEP_SELECT = 4;
+  private static final int STEP_PLAY = 5;
+  private static final int STEP_PAUSE = 6;
+
+  @NonNull final Container container;
+  @NonNull final ScrollSelection config;
+
+  private boolean scheduled;
+  private int skippedFrames;
+
+  // The unit of work to continue from, and its progress.
+  private int step = STEP_UPDATE;
+  private int stepIndex;
+  // The selection being applied, kept across frames.
+  private final ArrayList<ToroPlayer> toPlay = new ArrayList<>();
+
+  // Hysteresis: the selection being waited for, and since when (frame time), -1 if none.
+  private int pendingSignature;
+  private long pendingSince = -1;
+
+  ScrollSelector(@NonNull Container container, @NonNull ScrollSelection config) {
+    this.container = container;
+    this.config = config;
+  }
+
+  void schedule() {
+    if (scheduled) return;
+    scheduled = true;
+    Choreographer.getInstance().postFrameCallback(this);
+  }
+
+  void cancel() {
+    if (scheduled) Choreographer.getInstance().removeFrameCallback(this);
+    scheduled = false;
+    skippedFrames = 0;
+    pendingSince = -1;
+    reset();
+  }
+
+  @Override public void doFrame(long frameTimeNanos) {
+    scheduled = false;
+    if (container.getScrollState() == SCROLL_STATE_IDLE) {
+      reset();
+      return;  // Idle pass will do the job.
+    }
+    // A pass carried over from previous frame continues right away.
+    if (step == STEP_UPDATE && ++skippedFrames < config.frameInterval) {
+      schedule();
+      return;
+    }
+    skippedFrames = 0;
+    TraceCompat.beginSection("ToroLib:scrollSelection");
+    SelectionMetrics metrics = container.selectionMetrics;
+    if (metrics != null) metrics.beginPass();
+    boolean settled;
+    try {
+      settled = select(frameTimeNanos);
+    } finally {
+      if (metrics != null) metrics.endPass(container);
+      TraceCompat.endSection();
+    }
+    if (!settled) schedule();
+  }
+
+  // Run the units of the pass until it completes or the budget is used up. Return true if the
+  // selection is settled, false if it needs another frame.
+  private boolean select(long frameTimeNanos) {
+    long deadline = System.nanoTime() + config.frameBudgetUs * 1000L;
+    while (true) {
+      switch (step) {
+        case STEP_UPDATE:
+          container.visibilityIndex.update();
+          step = STEP_RELEASE;
+          break;
+        case STEP_RELEASE:
+          container.releaseInvisiblePlayers();
+          step = STEP_ATTACH;
+          break;
+        case STEP_ATTACH:
+          container.attachVisiblePlayers(false);
+          step = STEP_COLLECT;
+          stepIndex = 0;
+          break;
+        case STEP_COLLECT:
+          stepIndex = container.collectCandidates(stepIndex, deadline);
+          if (stepIndex < 0) step = STEP_SELECT;
+          break;
+        case STEP_SELECT:
+          if (!selectPlayers(frameTimeNanos)) {
+            boolean settled = pendingSince < 0;
+            reset();
+            return settled;
+          }
+          step = STEP_PLAY;
+          stepIndex = 0;
+          break;
+        case STEP_PLAY:
+          // One player at a time, initializing a player may be costly.
+          if (stepIndex < toPlay.size()) {
+            ToroPlayer player = toPlay.get(stepIndex++);
+            if (Common.allowsToPlay(player) && player.wantsToPlay()) {
+              container.playSelected(player, true);
+            }
+          }
+          if (stepIndex >= toPlay.size()) {
+            step = STEP_PAUSE;
+            stepIndex = 0;
+          }
+          break;
+        case STEP_PAUSE:
+          stepIndex = container.pauseUnselected(toPlay, stepIndex, deadline);
+          if (stepIndex < 0) {
+            reset();
+            return true;
+          }
+          break;
+        default:
+          throw new IllegalStateException("Unknown step: " + step);
+      }
+      if (System.nanoTime() > deadline) return false;  // Continue on next frame.
+    }
+  }
+
+  // Run the PlayerSelector over the candidates. Return true if the selection should be applied,
+  // false otherwise: either nothing changes (pendingSince is -1 then), or the change is not stable
+  // long enough yet.
+  private boolean selectPlayers(long frameTimeNanos) {
+    PlayerSelector selector = container.playerSelector;
+    Collection<ToroPlayer> selected =
+        selector != null ? selector.select(container, container.candidates)
+            : Collections.<ToroPlayer>emptyList();
+    toPlay.clear();
+    toPlay.addAll(selected);
+
+    int signature = 1;
+    boolean changed = false;
+    for (int i = 0, size = toPlay.size(); i < size; i++) {
+      ToroPlayer player = toPlay.get(i);
+      signature = 31 * signature + System.identityHashCode(player);
+      if (!container.playerManager.isPlayRequested(player)) changed = true;
+    }
+    for (int i = 0, size = container.playerManager.size(); !changed && i < size; i++) {
+      ToroPlayer player = container.playerManager.getPlayerAt(i);
+      if (container.playerManager.isPlayRequested(player) && !toPlay.contains(player)) {
+        changed = true;
+      }
+    }
+
+    if (!changed) {
+      pendingSince = -1;
+      return false;
+    }
+
+    if (pendingSince < 0 || signature != pendingSignature) {
+      pendingSignature = signature;
+      pendingSince = frameTimeNanos;
+    }
+
+    if (frameTimeNanos - pendingSince < config.hysteresisMs * 1000000L) {
+      return false;  // Not stable long enough.
+    }
+
+    pendingSince = -1;
+    return true;
+  }
+
+  // Drop the pass in progress, if any. The next pass starts from the beginning.
+  private void reset() {
+    step = STEP_UPDATE;
+    stepIndex = 0;
+    toPlay.clear();
+    container.candidates.clear();
+  }
+}
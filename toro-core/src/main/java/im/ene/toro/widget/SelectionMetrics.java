@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.widget;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Counters of the selection passes of a {@link Container}, only created when a
+ * {@link MetricsListener} is set, so that a {@link Container} without it doesn't pay
+ * anything. Main thread only.
+ *
+ * @author eneim (2018/06/27).
+ */
+final class SelectionMetrics {
+
+  // Upper bounds of the pass duration histogram buckets, the last bucket has no upper bound.
+  static final long[] BUCKET_BOUNDS_NANOS = {
+      250 * 1000L, 500 * 1000L, 1000 * 1000L, 2000 * 1000L, 4000 * 1000L, 8000 * 1000L,
+      16000 * 1000L
+  };
+
+  @NonNull final MetricsListener listener;
+
+  int passCount;
+  final int[] histogram = new int[BUCKET_BOUNDS_NANOS.length + 1];
+  long candidatesEvaluated;
+  long playCount;
+  long pauseCount;
+  long releaseCount;
+  long cacheOperations;
+
+  // Current pass, if any. Passes are not nested, but a pass may start inside another one (for
+  // example, a selection triggered by a player callback): only the outer one is measured.
+  private int depth;
+  private long passStartNanos;
+  private int passCandidates;
+  private int passToggled;
+
+  SelectionMetrics(@NonNull MetricsListener listener) {
+    this.listener = listener;
+  }
+
+  void beginPass() {
+    if (depth++ > 0) return;
+    passStartNanos = System.nanoTime();
+    passCandidates = 0;
+    passToggled = 0;
+  }
+
+  void onCandidatesEvaluated(int count) {
+    passCandidates += count;
+    candidatesEvaluated += count;
+  }
+
+  void onPlay() {
+    passToggled++;
+    playCount++;
+  }
+
+  void onPause() {
+    passToggled++;
+    pauseCount++;
+  }
+
+  void onRelease() {
+    passToggled++;
+    releaseCount++;
+  }
+
+  void onCacheOperation() {
+    cacheOperations++;
+  }
+
+  void endPass(@NonNull Container container) {
+    if (--depth > 0) return;
+    long duration = System.nanoTime() - passStartNanos;
+    passCount++;
+    int bucket = 0;
+    while (bucket < BUCKET_BOUNDS_NANOS.length && duration >= BUCKET_BOUNDS_NANOS[bucket]) {
+      bucket++;
+    }
+    histogram[bucket]++;
+    listener.onSelectionPass(container, duration, passCandidates, passToggled);
+  }
+}
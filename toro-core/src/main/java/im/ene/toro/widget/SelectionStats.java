@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.widget;
+
+import android.support.annotation.NonNull;
+import java.util.Arrays;
+
+/**
+ * Statistic of the selection passes of a {@link Container}, see
+ * {@link Container#setMetricsListener(MetricsListener)}.
+ *
+ * @author eneim (2018/06/27).
+ * @since 3.5.3
+ */
+public final class SelectionStats extends Stats {
+
+  public final int passCount;
+  // Number of passes by duration. Bucket i counts the passes shorter than
+  // getBucketUpperBoundNanos(i), the last bucket counts the longer ones.
+  @NonNull public final int[] durationHistogram;
+  public final long candidatesEvaluated;
+  // Calls to ToroPlayer#play(), #pause() and #release() made by the Container.
+  public final long playCount;
+  public final long pauseCount;
+  public final long releaseCount;
+  public final long playersToggled;  // sum of the 3 above.
+  public final long cacheOperations;
+
+  SelectionStats(int passCount, @NonNull int[] durationHistogram, long candidatesEvaluated,
+      long playCount, long pauseCount, long releaseCount, long cacheOperations) {
+    this.passCount = passCount;
+    this.durationHistogram = durationHistogram;
+    this.candidatesEvaluated = candidatesEvaluated;
+    this.playCount = playCount;
+    this.pauseCount = pauseCount;
+    this.releaseCount = releaseCount;
+    this.playersToggled = playCount + pauseCount + releaseCount;
+    this.cacheOperations = cacheOperations;
+  }
+
+  /**
+   * @return the exclusive upper bound of a bucket of {@link #durationHistogram}, or
+   * {@link Long#MAX_VALUE} for the last one.
+   */
+  public static long getBucketUpperBoundNanos(int bucket) {
+    long[] bounds = SelectionMetrics.BUCKET_BOUNDS_NANOS;
+    return bucket < bounds.length ? bounds[bucket] : Long.MAX_VALUE;
+  }
+
+  @Override protected void describe(@NonNull Description description) {
+    description.add("pass", passCount)
+        .add("histogram", Arrays.toString(durationHistogram))
+        .add("candidates", candidatesEvaluated)
+        .add("play", playCount)
+        .add("pause", pauseCount)
+        .add("release", releaseCount)
+        .add("cacheOps", cacheOperations);
+  }
+}
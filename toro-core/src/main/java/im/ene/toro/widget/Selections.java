@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.widget;
+
+import android.support.annotation.NonNull;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * @author eneim (2018/06/10).
+ *
+ *         The selection steps of {@link Container}, written against {@link OrderProvider} instead
+ *         of {@link im.ene.toro.ToroPlayer}. This class must not use the Android framework:
+ *         toro-benchmark compiles it for the JVM.
+ */
+final class Selections {
+
+  private Selections() {
+    throw new RuntimeException("Meh!");
+  }
+
+  /** Provides the order of an item, as {@link im.ene.toro.ToroPlayer#getPlayerOrder()}. */
+  interface OrderProvider<T> {
+
+    int orderOf(@NonNull T item);
+  }
+
+  /** Returns a {@link Comparator} of items by their orders, ascending. */
+  @NonNull static <T> Comparator<T> orderComparator(
+      @NonNull final OrderProvider<? super T> orders) {
+    return new Comparator<T>() {
+      @Override public int compare(T o1, T o2) {
+        int x = orders.orderOf(o1);
+        int y = orders.orderOf(o2);
+        //noinspection UseCompareMethod
+        return (x < y) ? -1 : ((x == y) ? 0 : 1);
+      }
+    };
+  }
+
+  /**
+   * Inserts an item into a list sorted by order, after the items of the same order. Candidates
+   * are collected in layout order, so this is close to O(1) per item.
+   */
+  static <T> void insertByOrder(@NonNull List<T> sorted, @NonNull T item,
+      @NonNull OrderProvider<? super T> orders) {
+    int order = orders.orderOf(item);
+    int index = sorted.size();
+    while (index > 0 && orders.orderOf(sorted.get(index - 1)) > order) index--;
+    sorted.add(index, item);
+  }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.widget;
+
+import android.support.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A map of primitive int keys to Objects, whose entries are always sorted by key in ascending
+ * order. Keys and values are kept in 2 parallel arrays, so adding, removing or shifting entries
+ * doesn't box any {@link Integer} nor allocate any node object. Lookup is a binary search.
+ *
+ * Beside the usual map operations, this class supports shifting a range of keys by a delta, which
+ * is what {@link PlaybackInfoCache} needs on Adapter's data change events. Caller is responsible
+ * for the shifted keys to not collide with other keys, for example by removing the entries in the
+ * destination range first.
+ *
+ * Shifting is lazy: the delta is recorded in a Fenwick tree indexed by entry position, so shifting
+ * costs O(log n) regardless of how many entries are shifted, and the actual key of an entry is its
+ * stored key plus the prefix sum of deltas at its position. Lookups cost O(log^2 n) while there are
+ * pending deltas, O(log n) otherwise.
+ *
+ * Adding a new key or removing entries costs O(n): the arrays are shifted by
+ * {@link System#arraycopy(Object, int, Object, int, int)}, and the pending deltas are folded into
+ * the keys first (allocation-free), as this changes the positions. So does {@link #move(int, int)}
+ * of an existing entry and {@link #retainAll(Collection)}. Updating the value of an existing key is
+ * O(log n).
+ *
+ * Not thread-safe, all calls are expected to happen on the main thread.
+ *
+ * @author eneim (2018/06/08).
+ */
+@SuppressWarnings({ "unchecked", "WeakerAccess", "unused" }) //
+final class SortedIntMap<V> {
+
+  private static final int[] EMPTY_KEYS = new int[0];
+  private static final Object[] EMPTY_VALUES = new Object[0];
+
+  private int[] keys;
+  private Object[] values;
+  private int size;
+
+  // Fenwick tree of key deltas, 1-based. Only meaningful when 'shifted' is true.
+  private int[] deltas;
+  private boolean shifted;
+
+  SortedIntMap() {
+    this(0);
+  }
+
+  SortedIntMap(int initialCapacity) {
+    if (initialCapacity <= 0) {
+      keys = EMPTY_KEYS;
+      values = EMPTY_VALUES;
+    } else {
+      keys = new int[initialCapacity];
+      values = new Object[initialCapacity];
+    }
+    deltas = new int[keys.length + 1];
+    size = 0;
+    shifted = false;
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  int keyAt(int index) {
+    return shifted ? keys[index] + deltaAt(index) : keys[index];
+  }
+
+  V valueAt(int index) {
+    return (V) values[index];
+  }
+
+  void setValueAt(int index, V value) {
+    values[index] = value;
+  }
+
+  /**
+   * @return index of the key if it is available, or {@code ~insertionPoint} (a negative value)
+   * otherwise. Same contract as {@link Arrays#binarySearch(int[], int)}.
+   */
+  int indexOfKey(int key) {
+    if (!shifted) return Arrays.binarySearch(keys, 0, size, key);
+    int low = 0;
+    int high = size - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int midKey = keys[mid] + deltaAt(mid);
+      if (midKey < key) {
+        low = mid + 1;
+      } else if (midKey > key) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return ~low;
+  }
+
+  /**
+   * @return index of the first entry whose key is equal or larger than {@code key}, or
+   * {@link #size()} if there is no such entry.
+   */
+  int ceilingIndex(int key) {
+    int index = indexOfKey(key);
+    return index >= 0 ? index : ~index;
+  }
+
+  boolean containsKey(int key) {
+    return indexOfKey(key) >= 0;
+  }
+
+  @Nullable V get(int key) {
+    int index = indexOfKey(key);
+    return index >= 0 ? (V) values[index] : null;
+  }
+
+  /**
+   * @return previous value for the key, or {@code null} if there was none.
+   */
+  @Nullable V put(int key, V value) {
+    int index = indexOfKey(key);
+    if (index >= 0) {
+      V old = (V) values[index];
+      values[index] = value;
+      return old;
+    }
+
+    index = ~index;
+    flushDeltas();
+    if (size == keys.length) {
+      int capacity = size < 4 ? 8 : size + (size >> 1);
+      keys = Arrays.copyOf(keys, capacity);
+      values = Arrays.copyOf(values, capacity);
+      deltas = new int[capacity + 1];
+    }
+
+    if (index < size) {
+      System.arraycopy(keys, index, keys, index + 1, size - index);
+      System.arraycopy(values, index, values, index + 1, size - index);
+    }
+    keys[index] = key;
+    values[index] = value;
+    size++;
+    return null;
+  }
+
+  @Nullable V remove(int key) {
+    int index = indexOfKey(key);
+    if (index < 0) return null;
+    V old = (V) values[index];
+    removeAt(index, index + 1);
+    return old;
+  }
+
+  /**
+   * Remove all entries whose keys are in range of [fromKey, toKey).
+   */
+  void removeRange(int fromKey, int toKey) {
+    if (fromKey >= toKey) return;
+    removeAt(ceilingIndex(fromKey), ceilingIndex(toKey));
+  }
+
+  /**
+   * Add {@code delta} to all keys in range of [fromKey, toKey). Sorting order is not checked.
+   */
+  void shiftRange(int fromKey, int toKey, int delta) {
+    if (delta == 0 || fromKey >= toKey) return;
+    int start = ceilingIndex(fromKey);
+    int end = ceilingIndex(toKey);
+    if (start >= end) return;
+    addDelta(start, delta);
+    if (end < size) addDelta(end, -delta);
+  }
+
+  /**
+   * Add {@code delta} to all keys those are equal or larger than {@code fromKey}.
+   */
+  void shift(int fromKey, int delta) {
+    if (delta == 0) return;
+    int start = ceilingIndex(fromKey);
+    if (start < size) addDelta(start, delta);
+  }
+
+  /**
+   * Move the entry at {@code fromKey} (if any) to {@code toKey}, and shift entries in between by
+   * one to fill the gap. Same as how an item is moved in a List.
+   */
+  void move(int fromKey, int toKey) {
+    if (fromKey == toKey) return;
+    int index = indexOfKey(fromKey);
+    V value = null;
+    if (index >= 0) {
+      value = (V) values[index];
+      removeAt(index, index + 1);
+    }
+
+    if (fromKey < toKey) {
+      shiftRange(fromKey + 1, toKey + 1, -1);
+    } else {
+      shiftRange(toKey, fromKey, 1);
+    }
+
+    if (index >= 0) put(toKey, value);
+  }
+
+  /**
+   * Remove all entries whose values are not contained in {@code values}.
+   */
+  void retainAll(Collection<?> values) {
+    flushDeltas();
+    int newSize = 0;
+    for (int i = 0; i < size; i++) {
+      if (values.contains(this.values[i])) {
+        keys[newSize] = keys[i];
+        this.values[newSize] = this.values[i];
+        newSize++;
+      }
+    }
+    Arrays.fill(this.values, newSize, size, null);
+    size = newSize;
+  }
+
+  void clear() {
+    Arrays.fill(values, 0, size, null);
+    if (shifted) Arrays.fill(deltas, 0, size + 1, 0);
+    shifted = false;
+    size = 0;
+  }
+
+  private void removeAt(int from, int to) {
+    if (from >= to) return;
+    flushDeltas();
+    System.arraycopy(keys, to, keys, from, size - to);
+    System.arraycopy(values, to, values, from, size - to);
+    int newSize = size - (to - from);
+    Arrays.fill(values, newSize, size, null);
+    size = newSize;
+  }
+
+  /// Fenwick tree helpers. A delta added at index i applies to all entries from i to the end.
+
+  private void addDelta(int index, int delta) {
+    for (int i = index + 1; i <= size; i += i & -i) {
+      deltas[i] += delta;
+    }
+    shifted = true;
+  }
+
+  private int deltaAt(int index) {
+    int sum = 0;
+    for (int i = index + 1; i > 0; i -= i & -i) {
+      sum += deltas[i];
+    }
+    return sum;
+  }
+
+  // Apply all pending deltas to the keys, then reset the tree. Must be called before any change
+  // in entry positions.
+  private void flushDeltas() {
+    if (!shifted) return;
+    // Turn the tree back into plain per-index deltas, in place.
+    for (int i = size; i > 0; i--) {
+      int parent = i + (i & -i);
+      if (parent <= size) deltas[parent] -= deltas[i];
+    }
+
+    int sum = 0;
+    for (int i = 0; i < size; i++) {
+      sum += deltas[i + 1];
+      keys[i] += sum;
+    }
+    Arrays.fill(deltas, 0, size + 1, 0);
+    shifted = false;
+  }
+
+  @Override public String toString() {
+    if (size == 0) return "{}";
+    StringBuilder builder = new StringBuilder(size * 16);
+    builder.append('{');
+    for (int i = 0; i < size; i++) {
+      if (i > 0) builder.append(", ");
+      builder.append(keyAt(i)).append('=').append(values[i]);
+    }
+    return builder.append('}').toString();
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.widget;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Base of the statistics exposed by Toro: an immutable snapshot of counters in public final
+ * fields, whose {@link #toString()} lists them as {@code Name{label=value, ...}}. Subclasses only
+ * tell the values to list, see {@link #describe(Description)}.
+ *
+ * @author eneim (2018/06/27).
+ * @since 3.5.3
+ */
+public abstract class Stats {
+
+  /**
+   * Add the values to list in {@link #toString()}, in order.
+   *
+   * @param description the {@link Description} to add the values to.
+   */
+  protected abstract void describe(@NonNull Description description);
+
+  @Override public final String toString() {
+    Description description = new Description(getClass().getSimpleName());
+    describe(description);
+    return description.builder.append('}').toString();
+  }
+
+  /**
+   * The values listed by {@link Stats#toString()}.
+   */
+  protected static final class Description {
+
+    final StringBuilder builder;
+    private boolean empty = true;
+
+    Description(@NonNull String name) {
+      this.builder = new StringBuilder(name).append('{');
+    }
+
+    @NonNull public Description add(@NonNull String label, long value) {
+      return add(label, String.valueOf(value));
+    }
+
+    @NonNull public Description add(@NonNull String label, @NonNull Object value) {
+      if (!empty) builder.append(", ");
+      builder.append(label).append('=').append(value);
+      empty = false;
+      return this;
+    }
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.widget;
+
+import android.graphics.Rect;
+import android.support.annotation.NonNull;
+import android.support.v4.util.Pools;
+import android.support.v4.util.SimpleArrayMap;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+import im.ene.toro.ToroPlayer;
+
+/**
+ * Cache of {@link Common#allowsToPlay(ToroPlayer)} for all {@link ToroPlayer}s attached to a
+ * {@link Container}, so that a selection pass doesn't need to call
+ * {@link View#getGlobalVisibleRect(Rect)} on every player.
+ *
+ * Each entry also remembers the rect of its player View, in {@link Container}'s coordinates. An
+ * entry is marked dirty, and will be checked again on next {@link #update()}, when:
+ * - The player is newly attached, or its item View is laid out again.
+ * - A scroll moves its rect across the visible bounds of the {@link Container}, or leaves it across
+ * an edge of them. There, the clipping by the parents inside the item View decides whether it is
+ * visible, so only {@link View#getGlobalVisibleRect(Rect)} can tell.
+ * - The {@link Container} itself moves in its Window, or its visible bounds change (for example by
+ * an {@link android.support.design.widget.AppBarLayout}). In this case, all entries are dirty.
+ *
+ * A rect fully inside or fully outside the visible bounds keeps the result of its last exact check,
+ * until its item View is laid out again: a player View that moves inside its item without a layout
+ * is not seen, see {@link ToroPlayer#wantsToPlay()}.
+ *
+ * Entries are pooled, so this class doesn't allocate in steady state. Main thread only.
+ *
+ * @author eneim (2018/06/14).
+ */
+@SuppressWarnings({ "WeakerAccess", "unused" }) //
+final class VisibilityIndex {
+
+  private static final int POOL_SIZE = 8;
+
+  @NonNull private final Container container;
+  private final SimpleArrayMap<ToroPlayer, Entry> entries = new SimpleArrayMap<>();
+  private final Pools.Pool<Entry> entryPool = new Pools.SimplePool<>(POOL_SIZE);
+
+  // Visible bounds of the Container, in its own coordinates, and its location in Window.
+  private final Rect bounds = new Rect();
+  private final Rect tmpBounds = new Rect();
+  private final int[] location = new int[2];
+  private final int[] tmpLocation = new int[2];
+  private boolean boundsValid;
+
+  VisibilityIndex(@NonNull Container container) {
+    this.container = container;
+  }
+
+  void add(@NonNull ToroPlayer player) {
+    Entry entry = entries.get(player);
+    if (entry == null) {
+      entry = entryPool.acquire();
+      if (entry == null) entry = new Entry();
+      entries.put(player, entry);
+    }
+    entry.dirty = true;
+  }
+
+  void remove(@NonNull ToroPlayer player) {
+    Entry entry = entries.remove(player);
+    if (entry != null) entryPool.release(entry);
+  }
+
+  void markDirty(@NonNull ToroPlayer player) {
+    Entry entry = entries.get(player);
+    if (entry != null) entry.dirty = true;
+  }
+
+  void invalidateAll() {
+    for (int i = 0, size = entries.size(); i < size; i++) {
+      entries.valueAt(i).dirty = true;
+    }
+    boundsValid = false;
+  }
+
+  void clear() {
+    for (int i = entries.size() - 1; i >= 0; i--) {
+      entryPool.release(entries.valueAt(i));
+    }
+    entries.clear();
+    boundsValid = false;
+  }
+
+  // Called from Container#onScrolled. Children are offset by (-dx, -dy).
+  void onScrolled(int dx, int dy) {
+    if (!boundsValid) return; // All will be checked anyway.
+    for (int i = 0, size = entries.size(); i < size; i++) {
+      Entry entry = entries.valueAt(i);
+      if (entry.dirty) continue;
+      boolean wasInBounds = Rect.intersects(bounds, entry.rect);
+      entry.rect.offset(-dx, -dy);
+      boolean inBounds = Rect.intersects(bounds, entry.rect);
+      if (wasInBounds != inBounds || (inBounds && !bounds.contains(entry.rect))) {
+        entry.dirty = true;
+      }
+    }
+  }
+
+  /**
+   * Bring the index up to date, by checking the dirty entries only.
+   */
+  void update() {
+    tmpBounds.setEmpty();
+    if (!container.getLocalVisibleRect(tmpBounds)) tmpBounds.setEmpty();
+    container.getLocationInWindow(tmpLocation);
+    if (!boundsValid || !tmpBounds.equals(bounds) || tmpLocation[0] != location[0]
+        || tmpLocation[1] != location[1]) {
+      invalidateAll();
+      bounds.set(tmpBounds);
+      location[0] = tmpLocation[0];
+      location[1] = tmpLocation[1];
+      boundsValid = true;
+    }
+
+    for (int i = 0, size = entries.size(); i < size; i++) {
+      Entry entry = entries.valueAt(i);
+      if (entry.dirty) check(entries.keyAt(i), entry);
+    }
+  }
+
+  /**
+   * Same as {@link Common#allowsToPlay(ToroPlayer)}, using the cached value if possible. Must be
+   * called after {@link #update()}.
+   */
+  boolean allowsToPlay(@NonNull ToroPlayer player) {
+    Entry entry = entries.get(player);
+    if (entry == null || entry.dirty) return Common.allowsToPlay(player);
+    return entry.visible;
+  }
+
+  private void check(ToroPlayer player, Entry entry) {
+    entry.visible = Common.allowsToPlay(player);
+    View itemView = ((RecyclerView.ViewHolder) player).itemView;
+    // Only trust the rect when the item is at rest. Animated items are checked again next time.
+    entry.dirty = itemView.getParent() != container
+        || itemView.getTranslationX() != 0
+        || itemView.getTranslationY() != 0;
+    if (entry.dirty) return;
+    View playerView = player.getPlayerView();
+    playerView.getDrawingRect(entry.rect);
+    try {
+      container.offsetDescendantRectToMyCoords(playerView, entry.rect);
+    } catch (IllegalArgumentException er) {
+      // Player View is not a descendant of the Container. Don't trust it.
+      entry.dirty = true;
+    }
+  }
+
+  static final class Entry {
+
+    final Rect rect = new Rect();
+    boolean visible;
+    boolean dirty = true;
+  }
+}
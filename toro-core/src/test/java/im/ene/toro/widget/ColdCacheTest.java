@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.widget;
+
+import im.ene.toro.media.PlaybackInfo;
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the LRU eviction order of {@link ColdCache}, and its hit/miss/eviction counters.
+ *
+ * @author eneim (2018/06/30).
+ */
+public class ColdCacheTest {
+
+  private ColdCache cache;
+
+  @Before public void setUp() {
+    cache = new ColdCache();
+  }
+
+  @Test public void unbounded_byDefault() {
+    for (int i = 0; i < 1000; i++) cache.put(i, info(i));
+    assertEquals(1000, cache.size());
+    assertEquals(0, cache.evictionCount);
+  }
+
+  @Test public void put_evictsTheEldest() {
+    cache.setMaxSize(3);
+    cache.put("a", info(1));
+    cache.put("b", info(2));
+    cache.put("c", info(3));
+    cache.put("d", info(4));
+    assertKeys("b", "c", "d");
+    assertEquals(1, cache.evictionCount);
+  }
+
+  @Test public void get_makesTheEntryMostRecentlyUsed() {
+    cache.setMaxSize(3);
+    cache.put("a", info(1));
+    cache.put("b", info(2));
+    cache.put("c", info(3));
+    cache.get("a");
+    cache.put("d", info(4));
+    assertKeys("c", "a", "d");
+  }
+
+  @Test public void put_existingKey_makesItMostRecentlyUsed() {
+    cache.setMaxSize(3);
+    cache.put("a", info(1));
+    cache.put("b", info(2));
+    cache.put("c", info(3));
+    PlaybackInfo previous = cache.put("a", info(10));
+    assertEquals(info(1), previous);
+    cache.put("d", info(4));
+    assertKeys("c", "a", "d");
+    assertEquals(info(10), cache.peek("a"));
+  }
+
+  @Test public void lookup_makesTheEntryMostRecentlyUsed_andCounts() {
+    cache.setMaxSize(2);
+    cache.put("a", info(1));
+    cache.put("b", info(2));
+    assertEquals(info(1), cache.lookup("a"));
+    assertNull(cache.lookup("x"));
+    cache.put("c", info(3));
+    assertKeys("a", "c");
+    assertEquals(1, cache.hitCount);
+    assertEquals(1, cache.missCount);
+  }
+
+  @Test public void lookup_scrap_isAMiss() {
+    cache.put("a", PlaybackInfo.SCRAP);
+    assertSame(PlaybackInfo.SCRAP, cache.lookup("a"));
+    assertEquals(0, cache.hitCount);
+    assertEquals(1, cache.missCount);
+  }
+
+  @Test public void peek_doesNotChangeTheOrder() {
+    cache.setMaxSize(3);
+    cache.put("a", info(1));
+    cache.put("b", info(2));
+    cache.put("c", info(3));
+    assertEquals(info(1), cache.peek("a"));
+    assertNull(cache.peek("x"));
+    cache.put("d", info(4));
+    assertKeys("b", "c", "d");
+    assertEquals(0, cache.hitCount);
+    assertEquals(0, cache.missCount);
+  }
+
+  @Test public void get_missingKey_doesNotAddIt() {
+    assertNull(cache.get("x"));
+    assertFalse(cache.containsKey("x"));
+  }
+
+  @Test public void setMaxSize_evictsTheLeastRecentlyUsed() {
+    for (int i = 0; i < 10; i++) cache.put(i, info(i));
+    cache.get(0);
+    cache.get(1);
+    cache.setMaxSize(4);
+    assertKeys(8, 9, 0, 1);
+    assertEquals(6, cache.evictionCount);
+  }
+
+  @Test public void remove_thenPut_keepsTheBound() {
+    cache.setMaxSize(2);
+    cache.put("a", info(1));
+    cache.put("b", info(2));
+    assertEquals(info(1), cache.remove("a"));
+    cache.put("c", info(3));
+    assertKeys("b", "c");
+    assertEquals(0, cache.evictionCount);
+  }
+
+  @Test public void resetStats() {
+    cache.setMaxSize(1);
+    cache.put("a", info(1));
+    cache.put("b", info(2));
+    cache.lookup("b");
+    cache.lookup("a");
+    cache.resetStats();
+    assertEquals(0, cache.hitCount);
+    assertEquals(0, cache.missCount);
+    assertEquals(0, cache.evictionCount);
+    assertTrue(cache.containsKey("b"));
+  }
+
+  @Test public void notTrackingStore_everyKeyIsStored() {
+    cache.put("a", info(1));
+    assertTrue(cache.isStored("a"));
+    assertFalse(cache.hasUnstored());
+  }
+
+  @Test public void setTracksStore_newStoreHasSeenNothing() {
+    cache.put("a", info(1));
+    cache.setTracksStore(true);
+    assertFalse(cache.isStored("a"));
+    cache.markStored("a");
+    assertTrue(cache.isStored("a"));
+    assertFalse(cache.hasUnstored());
+  }
+
+  @Test public void tracksStore_putAndPutStored() {
+    cache.setTracksStore(true);
+    PlaybackInfo stored = info(1);
+    cache.putStored("a", stored);
+    assertTrue(cache.isStored("a"));
+    cache.put("a", stored);  // same instance, as on detach.
+    assertTrue(cache.isStored("a"));
+    cache.put("a", info(2));
+    assertFalse(cache.isStored("a"));
+  }
+
+  @Test public void tracksStore_removedAndEvictedKeysAreForgotten() {
+    cache.setTracksStore(true);
+    cache.setMaxSize(2);
+    cache.put("a", info(1));
+    cache.put("b", info(2));
+    cache.put("c", info(3));  // evicts "a".
+    cache.remove("b");
+    cache.setMaxSize(0);  // evicts "c".
+    assertFalse(cache.hasUnstored());
+  }
+
+  private static PlaybackInfo info(int position) {
+    return new PlaybackInfo(0, position);
+  }
+
+  // Keys from the least to the most recently used.
+  private void assertKeys(Object... keys) {
+    assertEquals(Arrays.asList(keys), new ArrayList<>(cache.keySet()));
+  }
+}
@@ -0,0 +1,575 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.widget;
+
+import android.app.Activity;
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.widget.FrameLayout;
+import im.ene.toro.ToroPlayer;
+import im.ene.toro.media.PlaybackInfo;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.android.controller.ActivityController;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowChoreographer;
+import org.robolectric.shadows.ShadowLooper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives a real {@link Container}, attached to an Activity window, through scripted scroll, fling
+ * and data change runs over an Adapter of thousands of fake {@link ToroPlayer}s. After each step,
+ * it checks that:
+ * - At most one player is playing (the default {@link im.ene.toro.PlayerSelector}), and it is
+ * attached to the {@link Container}.
+ * - After a scroll settles, a player plays if any attached player wants to.
+ * - No player is started before it is initialized.
+ * - The play/pause/release counts of {@link Container#getSelectionStats()} match what the players
+ * received.
+ *
+ * At the end of each run, it checks that a player is not paused more often than it is played.
+ *
+ * Each run writes a report of the selection pass latency, the allocated bytes per pass and the
+ * play/pause/release counts to build/reports/scroll-harness/. The counts and bytes are reported,
+ * not checked: there is no baseline run to take limits from yet. The numbers are from Robolectric,
+ * so they are only useful to compare two versions of the library on the same machine, not as
+ * absolute values.
+ *
+ * @author eneim (2018/06/30).
+ */
+@RunWith(RobolectricTestRunner.class) @Config(sdk = 27)
+public class ContainerScrollHarnessTest {
+
+  private static final int ITEM_COUNT = 5000;
+  private static final int ITEM_HEIGHT = 120;  // px, a few items per screen.
+  private static final int FRAME_MS = 16;
+  private static final long SETTLE_MS = 500;
+  private static final long FLING_SETTLE_MS = 5000;
+  // Selection passes on a settled Container, to measure the bytes allocated by one pass.
+  private static final int IDLE_PASSES = 100;
+  private static final File REPORT_DIR = new File("build", "reports/scroll-harness");
+
+  private ActivityController<Activity> controller;
+  private Container container;
+  private LinearLayoutManager layoutManager;
+  private FakeAdapter adapter;
+  private PassRecorder recorder;
+  private Random random;
+
+  @Before public void setUp() {
+    // Robolectric runs the frame callbacks without delay by default, so the clock never moves
+    // during a fling. Give each frame some time instead.
+    ShadowChoreographer.setPostCallbackDelay(FRAME_MS);
+    ShadowChoreographer.setPostFrameCallbackDelay(FRAME_MS);
+
+    random = new Random(42);  // same script for every run.
+    controller = Robolectric.buildActivity(Activity.class).create();
+    Activity activity = controller.get();
+    container = new Container(activity);
+    layoutManager = new LinearLayoutManager(activity);
+    container.setLayoutManager(layoutManager);
+    // Data changes are applied at once, so that each step settles in a known time.
+    container.setItemAnimator(null);
+    adapter = new FakeAdapter(ITEM_COUNT);
+    container.setAdapter(adapter);
+    recorder = new PassRecorder();
+    container.setMetricsListener(recorder);
+    activity.setContentView(container, new ViewGroup.LayoutParams(
+        ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+    controller.start().resume().visible();
+    settle(SETTLE_MS);
+
+    assertTrue("Container is not laid out", container.getChildCount() > 0);
+    assertEquals(ITEM_COUNT, adapter.getItemCount());
+  }
+
+  @After public void tearDown() {
+    if (controller != null) controller.pause().stop().destroy();
+    ShadowChoreographer.setPostCallbackDelay(0);
+    ShadowChoreographer.setPostFrameCallbackDelay(0);
+  }
+
+  @Test public void scroll() throws IOException {
+    // A step scrolls up to 5.5 items: a few players leave, one is selected once it settles.
+    Run run = begin("scroll", 200);
+    for (int i = 0; i < run.steps; i++) {
+      int distance = (ITEM_HEIGHT / 2 + random.nextInt(ITEM_HEIGHT * 5)) * direction();
+      container.smoothScrollBy(0, distance);
+      settle(SETTLE_MS);
+      checkIdle();
+    }
+    run.end();
+  }
+
+  @Test public void scroll_withScrollSelection() throws IOException {
+    container.setScrollSelection(new ScrollSelection.Builder().setFrameInterval(2)
+        .setHysteresisMs(100)
+        .build());
+    // Players may be selected while the scroll passes by them, once per hysteresis at most.
+    Run run = begin("scroll + ScrollSelection", 200);
+    for (int i = 0; i < run.steps; i++) {
+      int distance = (ITEM_HEIGHT / 2 + random.nextInt(ITEM_HEIGHT * 5)) * direction();
+      container.smoothScrollBy(0, distance);
+      // Check in the middle of the scroll too, when the selection runs per frame.
+      settle(FRAME_MS * 4);
+      check();
+      settle(SETTLE_MS);
+      checkIdle();
+    }
+    run.end();
+  }
+
+  @Test public void fling() throws IOException {
+    container.setFlingPredictionEnabled(true);
+    // A fling releases the players initialized before it, and the prediction if it is wrong. The
+    // players it passes by are not initialized.
+    Run run = begin("fling", 40);
+    for (int i = 0; i < run.steps; i++) {
+      int velocity = (2000 + random.nextInt(10000)) * direction();
+      int initialized = adapter.counters.initializeWhileScrolling;
+      container.fling(0, velocity);
+      settle(FLING_SETTLE_MS);
+      checkIdle();
+      assertTrue("More than one player initialized by a fling",
+          adapter.counters.initializeWhileScrolling - initialized <= 1);
+    }
+    run.end();
+  }
+
+  @Test public void fling_upward() throws IOException {
+    container.setFlingPredictionEnabled(true);
+    container.scrollToPosition(ITEM_COUNT / 2);
+    settle(SETTLE_MS);
+    container.smoothScrollBy(0, ITEM_HEIGHT);  // so that a selection pass runs.
+    settle(SETTLE_MS);
+    checkIdle();
+    // Players are attached in decreasing order, each one closer to the target than the previous.
+    Run run = begin("fling upward", 40);
+    for (int i = 0; i < run.steps; i++) {
+      int velocity = -(2000 + random.nextInt(10000));
+      int initialized = adapter.counters.initializeWhileScrolling;
+      container.fling(0, velocity);
+      settle(FLING_SETTLE_MS);
+      checkIdle();
+      assertTrue("More than one player initialized by an upward fling",
+          adapter.counters.initializeWhileScrolling - initialized <= 1);
+    }
+    run.end();
+  }
+
+  @Test public void dataChanges() throws IOException {
+    // A data set change rebinds, thus releases, all attached players.
+    Run run = begin("data changes", 300);
+    for (int i = 0; i < run.steps; i++) {
+      // Change the data around the visible items, so that the attached players are affected.
+      int first = Math.max(0, layoutManager.findFirstVisibleItemPosition());
+      int position = Math.min(adapter.getItemCount() - 1, Math.max(0, first - 3
+          + random.nextInt(10)));
+      switch (random.nextInt(10)) {
+        case 0:
+        case 1:
+        case 2:
+          adapter.insert(position, 1 + random.nextInt(3));
+          break;
+        case 3:
+        case 4:
+        case 5:
+          adapter.remove(position, Math.min(1 + random.nextInt(3), adapter.getItemCount()
+              - position));
+          break;
+        case 6:
+        case 7:
+          int to = Math.max(0, position - 5 + random.nextInt(10));
+          adapter.move(position, Math.min(adapter.getItemCount() - 1, to));
+          break;
+        case 8:
+          adapter.notifyItemChanged(position);
+          break;
+        default:
+          adapter.notifyDataSetChanged();
+          break;
+      }
+      settle(SETTLE_MS);
+      check();
+      if (i % 10 == 0) {
+        container.smoothScrollBy(0, ITEM_HEIGHT * direction());
+        settle(SETTLE_MS);
+        checkIdle();
+      }
+    }
+    run.end();
+  }
+
+  @Test public void detach_releasesAllPlayers() {
+    container.smoothScrollBy(0, ITEM_HEIGHT * 3);
+    settle(SETTLE_MS);
+    checkIdle();
+    assertTrue(adapter.counters.play > 0);
+
+    ((ViewGroup) container.getParent()).removeView(container);
+    settle(SETTLE_MS);
+    for (FakePlayer player : adapter.players) {
+      assertFalse("Playing after detach: " + player, player.playing);
+      assertFalse("Not released after detach: " + player, player.initialized);
+    }
+  }
+
+  /// Steps and checks
+
+  private int direction() {
+    // Mostly forward, as a user reading a feed.
+    return random.nextInt(4) == 0 ? -1 : 1;
+  }
+
+  private void settle(long durationMs) {
+    ShadowLooper.idleMainLooper(durationMs, TimeUnit.MILLISECONDS);
+  }
+
+  private void check() {
+    FakePlayer playing = null;
+    for (FakePlayer player : adapter.players) {
+      if (!player.playing) continue;
+      assertTrue("More than one player is playing: " + playing + ", " + player, playing == null);
+      assertSame("Playing while detached: " + player, container, player.itemView.getParent());
+      playing = player;
+    }
+    assertEquals("Player started before initialized", 0, adapter.counters.playWithoutInit);
+
+    SelectionStats stats = container.getSelectionStats();
+    assertNotNull(stats);
+    // All plays go through the PlayerManager. Some pauses and releases don't, for example when the
+    // player is not managed anymore, so the players may receive more of them.
+    assertEquals(adapter.counters.play, stats.playCount);
+    assertTrue(stats.pauseCount <= adapter.counters.pause);
+    assertTrue(stats.releaseCount <= adapter.counters.release);
+  }
+
+  // After a scroll settles, a selection pass must have run.
+  private void checkIdle() {
+    assertEquals(RecyclerView.SCROLL_STATE_IDLE, container.getScrollState());
+    check();
+    boolean wanted = false;
+    boolean playing = false;
+    for (int i = 0; i < container.getChildCount(); i++) {
+      RecyclerView.ViewHolder holder = container.getChildViewHolder(container.getChildAt(i));
+      if (!(holder instanceof FakePlayer)) continue;
+      FakePlayer player = (FakePlayer) holder;
+      wanted |= player.wantsToPlay();
+      playing |= player.playing;
+    }
+    assertEquals("Selection after the scroll settled", wanted, playing);
+  }
+
+  private Run begin(String name, int steps) {
+    return new Run(name, steps);
+  }
+
+  // Measures a scripted run and writes its report.
+  private final class Run {
+
+    final String name;
+    final int steps;
+    final long startBytes;
+    final int startPasses;
+    final Counters startCounters;
+
+    Run(String name, int steps) {
+      this.name = name;
+      this.steps = steps;
+      this.startBytes = allocatedBytes();
+      this.startPasses = recorder.count;
+      this.startCounters = adapter.counters.copy();
+    }
+
+    void end() throws IOException {
+      long bytes = allocatedBytes() - startBytes;
+      int passes = recorder.count - startPasses;
+      assertTrue("No selection pass in: " + name, passes > 0);
+      long[] durations = recorder.durations(startPasses);
+      Arrays.sort(durations);
+      Counters counters = adapter.counters.copy();
+      int plays = counters.play - startCounters.play;
+      int pauses = counters.pause - startCounters.pause;
+      int releases = counters.releaseInitialized - startCounters.releaseInitialized;
+      String report = String.format(Locale.US,
+          "[%s] passes=%d, p50=%.1fus, p90=%.1fus, p99=%.1fus, max=%.1fus, "
+              + "candidates/pass=%.1f, bytes/pass=%s, initialize=%d, initialize/scroll=%d, "
+              + "play=%d, pause=%d, release=%d, release/initialized=%d, bound=%d, stats=%s", name,
+          passes, percentileUs(durations, 50), percentileUs(durations, 90),
+          percentileUs(durations, 99), percentileUs(durations, 100),
+          recorder.candidates(startPasses) / (float) passes,
+          startBytes < 0 ? "n/a" : String.valueOf(bytes / passes),
+          counters.initialize - startCounters.initialize,
+          counters.initializeWhileScrolling - startCounters.initializeWhileScrolling, plays, pauses,
+          counters.release - startCounters.release, releases,
+          adapter.players.size(), container.getSelectionStats());
+      // After the counters are read, as the idle passes initialize the attached players.
+      long idlePassBytes = idlePassBytes();
+      writeReport(name, report + ", bytes/idle pass="
+          + (idlePassBytes < 0 ? "n/a" : String.valueOf(idlePassBytes)));
+
+      // Only a playing player is paused, and at most one plays at a time.
+      assertTrue("More pauses than plays in " + name + ": " + pauses + " > " + plays,
+          pauses <= plays + 1);
+    }
+  }
+
+  // Bytes allocated by a selection pass of the settled Container, or -1 if the JVM can't tell.
+  private long idlePassBytes() {
+    container.onScrollStateChanged(RecyclerView.SCROLL_STATE_IDLE);  // warm up.
+    long start = allocatedBytes();
+    if (start < 0) return -1;
+    for (int i = 0; i < IDLE_PASSES; i++) {
+      container.onScrollStateChanged(RecyclerView.SCROLL_STATE_IDLE);
+    }
+    return (allocatedBytes() - start) / IDLE_PASSES;
+  }
+
+  // One file per run, so that the report is kept with the build outputs.
+  private static void writeReport(String name, String report) throws IOException {
+    if (!REPORT_DIR.isDirectory() && !REPORT_DIR.mkdirs()) {
+      throw new IOException("Cannot create " + REPORT_DIR.getAbsolutePath());
+    }
+    File file = new File(REPORT_DIR, name.replaceAll("[^A-Za-z0-9]+", "-") + ".txt");
+    Writer writer = null;
+    try {
+      writer = new FileWriter(file);
+      writer.write(report);
+      writer.write('\n');
+    } finally {
+      if (writer != null) {
+        try {
+          writer.close();
+        } catch (IOException ignored) {
+        }
+      }
+    }
+  }
+
+  private static float percentileUs(long[] sorted, int percentile) {
+    if (sorted.length == 0) return 0;
+    int index = Math.min(sorted.length - 1, (sorted.length * percentile) / 100);
+    return sorted[index] / 1000.f;
+  }
+
+  // Bytes allocated by the main (test) thread so far, or -1 if the JVM can't tell.
+  private static long allocatedBytes() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (!(bean instanceof com.sun.management.ThreadMXBean)) return -1;
+    com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+    if (!sunBean.isThreadAllocatedMemorySupported()) return -1;
+    return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /// Fakes
+
+  static final class PassRecorder implements MetricsListener {
+
+    long[] durationNanos = new long[1024];
+    int[] candidates = new int[1024];
+    int count;
+
+    @Override public void onSelectionPass(@NonNull Container container, long durationNanos,
+        int candidatesEvaluated, int playersToggled) {
+      if (count == this.durationNanos.length) {
+        this.durationNanos = Arrays.copyOf(this.durationNanos, count * 2);
+        this.candidates = Arrays.copyOf(this.candidates, count * 2);
+      }
+      this.durationNanos[count] = durationNanos;
+      this.candidates[count] = candidatesEvaluated;
+      count++;
+    }
+
+    long[] durations(int from) {
+      return Arrays.copyOfRange(durationNanos, from, count);
+    }
+
+    long candidates(int from) {
+      long sum = 0;
+      for (int i = from; i < count; i++) sum += candidates[i];
+      return sum;
+    }
+  }
+
+  static final class Counters {
+
+    int initialize;
+    int initializeWhileScrolling;  // not by a selection on idle, so by the fling prediction.
+    int play;
+    int pause;
+    int release;
+    int releaseInitialized;
+    int playWithoutInit;
+
+    Counters copy() {
+      Counters copy = new Counters();
+      copy.initialize = initialize;
+      copy.initializeWhileScrolling = initializeWhileScrolling;
+      copy.play = play;
+      copy.pause = pause;
+      copy.release = release;
+      copy.releaseInitialized = releaseInitialized;
+      copy.playWithoutInit = playWithoutInit;
+      return copy;
+    }
+  }
+
+  static final class FakePlayer extends RecyclerView.ViewHolder implements ToroPlayer {
+
+    final View playerView;
+    final Counters counters;
+    long id;
+    boolean initialized;
+    boolean playing;
+    long position;
+
+    FakePlayer(View itemView, View playerView, Counters counters) {
+      super(itemView);
+      this.playerView = playerView;
+      this.counters = counters;
+    }
+
+    @NonNull @Override public View getPlayerView() {
+      return playerView;
+    }
+
+    @NonNull @Override public PlaybackInfo getCurrentPlaybackInfo() {
+      return new PlaybackInfo(0, position);
+    }
+
+    @Override
+    public void initialize(@NonNull Container container, @NonNull PlaybackInfo playbackInfo) {
+      counters.initialize++;
+      if (container.getScrollState() != RecyclerView.SCROLL_STATE_IDLE) {
+        counters.initializeWhileScrolling++;
+      }
+      initialized = true;
+      position = playbackInfo.getResumePosition();
+    }
+
+    @Override public void play() {
+      counters.play++;
+      if (!initialized) counters.playWithoutInit++;
+      playing = true;
+      position += 1000;  // pretend some progress between play and pause.
+    }
+
+    @Override public void pause() {
+      counters.pause++;
+      playing = false;
+    }
+
+    @Override public boolean isPlaying() {
+      return playing;
+    }
+
+    @Override public void release() {
+      counters.release++;
+      if (initialized) counters.releaseInitialized++;
+      initialized = false;
+      playing = false;
+    }
+
+    @Override public boolean wantsToPlay() {
+      ViewParent parent = itemView.getParent();
+      return parent instanceof Container && ((Container) parent).visibleAreaOffset(this) >= 0.65f;
+    }
+
+    @Override public int getPlayerOrder() {
+      return getAdapterPosition();
+    }
+
+    @Override public String toString() {
+      return "FakePlayer{id=" + id + ", order=" + getPlayerOrder() + "}";
+    }
+  }
+
+  static final class FakeAdapter extends RecyclerView.Adapter<FakePlayer> {
+
+    final Counters counters = new Counters();
+    final List<FakePlayer> players = new ArrayList<>();  // all created players.
+    private final List<Long> ids = new ArrayList<>();
+    private long nextId;
+
+    FakeAdapter(int count) {
+      for (int i = 0; i < count; i++) ids.add(nextId++);
+    }
+
+    @NonNull @Override public FakePlayer onCreateViewHolder(@NonNull ViewGroup parent, int type) {
+      Context context = parent.getContext();
+      FrameLayout itemView = new FrameLayout(context);
+      itemView.setLayoutParams(
+          new RecyclerView.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ITEM_HEIGHT));
+      View playerView = new View(context);
+      itemView.addView(playerView, new FrameLayout.LayoutParams(
+          ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+      FakePlayer player = new FakePlayer(itemView, playerView, counters);
+      players.add(player);
+      return player;
+    }
+
+    @Override public void onBindViewHolder(@NonNull FakePlayer holder, int position) {
+      holder.id = ids.get(position);
+    }
+
+    @Override public int getItemCount() {
+      return ids.size();
+    }
+
+    void insert(int position, int count) {
+      for (int i = 0; i < count; i++) ids.add(position, nextId++);
+      notifyItemRangeInserted(position, count);
+    }
+
+    void remove(int position, int count) {
+      if (count <= 0) return;
+      ids.subList(position, position + count).clear();
+      notifyItemRangeRemoved(position, count);
+    }
+
+    void move(int from, int to) {
+      if (from == to) return;
+      ids.add(to, ids.remove(from));
+      notifyItemMoved(from, to);
+    }
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.widget;
+
+import android.app.Activity;
+import android.view.View;
+import android.widget.LinearLayout;
+import im.ene.toro.PlayerDispatcher;
+import im.ene.toro.ToroPlayer;
+import im.ene.toro.media.PlaybackInfo;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.android.controller.ActivityController;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks how {@link DecoderBudget} suspends players for a player that is about to start, and lets
+ * the suspended players be initialized again once a slot is freed.
+ *
+ * @author eneim (2018/06/30).
+ */
+@RunWith(RobolectricTestRunner.class) @Config(sdk = 27)
+public class DecoderBudgetTest {
+
+  private final List<ToroPlayer> players = new ArrayList<>();
+  private ActivityController<Activity> controller;
+  private Container container;
+  private Container other;
+
+  @Before public void setUp() {
+    controller = Robolectric.buildActivity(Activity.class).create();
+    Activity activity = controller.get();
+    container = new Container(activity);
+    other = new Container(activity);
+    LinearLayout root = new LinearLayout(activity);
+    root.addView(container, new LinearLayout.LayoutParams(100, 100));
+    root.addView(other, new LinearLayout.LayoutParams(100, 100));
+    activity.setContentView(root);
+    controller.start().resume().visible();
+    container.setDecoderBudgetEnabled(true);
+    other.setDecoderBudgetEnabled(true);
+  }
+
+  @After public void tearDown() {
+    for (ToroPlayer player : players) DecoderBudget.release(player);
+    DecoderBudget.setMaxPlayers(DecoderBudget.DEFAULT_MAX_INSTANCES);
+    if (controller != null) controller.pause().stop().destroy();
+  }
+
+  @Test public void disabled_byDefault() {
+    Container plain = new Container(controller.get());
+    assertFalse(plain.isDecoderBudgetEnabled());
+  }
+
+  @Test public void initialize_waitsForASlot() {
+    DecoderBudget.setMaxPlayers(2);
+    ToroPlayer first = attach(container, 0);
+    ToroPlayer second = attach(container, 1);
+    ToroPlayer third = attach(container, 2);
+
+    container.playerManager.initialize(first, container);
+    container.playerManager.initialize(second, container);
+    container.playerManager.initialize(third, container);
+
+    verify(first).initialize(same(container), any(PlaybackInfo.class));
+    verify(second).initialize(same(container), any(PlaybackInfo.class));
+    verify(third, never()).initialize(any(Container.class), any(PlaybackInfo.class));
+    verify(first, never()).release();
+    verify(second, never()).release();
+  }
+
+  @Test public void start_suspendsThenReacquires() {
+    DecoderBudget.setMaxPlayers(2);
+    PlayerManager manager = container.playerManager;
+    ToroPlayer first = attach(container, 0);
+    ToroPlayer second = attach(container, 1);
+    ToroPlayer third = attach(container, 2);
+    manager.initialize(first, container);
+    manager.initialize(second, container);
+    manager.initialize(third, container);  // no slot, waits.
+
+    // About to start: the earliest player that is not playing gives its decoder.
+    manager.play(third, PlayerDispatcher.DELAY_NONE);
+    verify(first).getCurrentPlaybackInfo();
+    verify(first).release();
+    verify(second, never()).release();
+    verify(third).initialize(same(container), any(PlaybackInfo.class));
+    verify(third).play();
+    assertTrue(DecoderBudget.isSuspended(first));
+    // Paused players save their position too.
+    assertEquals(info(0), container.getPlaybackInfo(0));
+
+    // Suspended: neither initialized nor started until a slot is freed.
+    manager.initialize(first, container);
+    manager.play(first, PlayerDispatcher.DELAY_NONE);
+    verify(first, times(1)).initialize(any(Container.class), any(PlaybackInfo.class));
+    verify(first, never()).play();
+
+    manager.release(second);
+    assertFalse(DecoderBudget.isSuspended(first));
+    manager.initialize(first, container);
+    verify(first, times(2)).initialize(same(container), any(PlaybackInfo.class));
+    verify(first, times(1)).initialize(same(container), eq(info(0)));
+  }
+
+  @Test public void start_keepsThePlayersOfAnotherShownContainer() {
+    DecoderBudget.setMaxPlayers(1);
+    ToroPlayer shown = attach(other, 0);
+    ToroPlayer waiting = attach(container, 0);
+    other.playerManager.initialize(shown, other);
+
+    container.playerManager.play(waiting, PlayerDispatcher.DELAY_NONE);
+    verify(shown, never()).release();
+    verify(waiting, never()).initialize(any(Container.class), any(PlaybackInfo.class));
+    verify(waiting, never()).play();
+
+    other.setVisibility(View.GONE);
+    container.playerManager.play(waiting, PlayerDispatcher.DELAY_NONE);
+    verify(shown).release();
+    verify(waiting).initialize(same(container), any(PlaybackInfo.class));
+    verify(waiting).play();
+  }
+
+  @Test public void disable_freesTheSuspendedPlayers() {
+    DecoderBudget.setMaxPlayers(1);
+    PlayerManager manager = container.playerManager;
+    ToroPlayer first = attach(container, 0);
+    ToroPlayer second = attach(container, 1);
+    manager.initialize(first, container);
+    manager.play(second, PlayerDispatcher.DELAY_NONE);
+    assertTrue(DecoderBudget.isSuspended(first));
+
+    container.setDecoderBudgetEnabled(false);
+    assertFalse(DecoderBudget.isSuspended(first));
+    assertFalse(DecoderBudget.isActive(second));
+    manager.initialize(first, container);
+    verify(first, times(2)).initialize(same(container), any(PlaybackInfo.class));
+  }
+
+  private ToroPlayer attach(Container container, int order) {
+    ToroPlayer player = mock(ToroPlayer.class);
+    when(player.getPlayerOrder()).thenReturn(order);
+    when(player.getCurrentPlaybackInfo()).thenReturn(info(order));
+    container.playerManager.attachPlayer(player);
+    players.add(player);
+    return player;
+  }
+
+  private static PlaybackInfo info(int order) {
+    return new PlaybackInfo(0, 1000L + order);
+  }
+}
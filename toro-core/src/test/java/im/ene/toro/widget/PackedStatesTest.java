@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.widget;
+
+import android.util.SparseArray;
+import im.ene.toro.media.PlaybackInfo;
+import im.ene.toro.media.VolumeInfo;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round trips of {@link PackedStates}. Robolectric is only used for {@link SparseArray}.
+ *
+ * @author eneim (2018/06/30).
+ */
+@RunWith(RobolectricTestRunner.class) @Config(sdk = 27)
+public class PackedStatesTest {
+
+  @Test public void empty() {
+    byte[] packed = PackedStates.pack(new SparseArray<PlaybackInfo>());
+    SparseArray<PlaybackInfo> unpacked = PackedStates.unpack(packed);
+    assertNotNull(unpacked);
+    assertEquals(0, unpacked.size());
+  }
+
+  @Test public void extremeValues() {
+    SparseArray<PlaybackInfo> states = new SparseArray<>();
+    states.put(Integer.MIN_VALUE, info(Integer.MIN_VALUE, Long.MIN_VALUE, true, 0f));
+    states.put(-1, info(-1, -1L, false, 1f));
+    states.put(0, info(0, 0L, true, 0.5f));
+    states.put(1, info(Integer.MAX_VALUE, Long.MAX_VALUE, false, Float.MIN_VALUE));
+    states.put(Integer.MAX_VALUE, info(7, Long.MIN_VALUE + 1, true, Float.NaN));
+    assertRoundTrip(states);
+  }
+
+  @Test public void randomStates() {
+    Random random = new Random(42);  // same states for every run.
+    for (int run = 0; run < 20; run++) {
+      SparseArray<PlaybackInfo> states = new SparseArray<>();
+      int count = random.nextInt(300);
+      for (int i = 0; i < count; i++) {
+        long position = random.nextBoolean() ? random.nextInt(3600 * 1000) : random.nextLong();
+        states.put(random.nextInt() >> random.nextInt(32),
+            info(random.nextInt(4) - 1, position, random.nextBoolean(), random.nextFloat()));
+      }
+      assertRoundTrip(states);
+    }
+  }
+
+  // Mute flags are packed 8 per byte, check the boundaries.
+  @Test public void muteFlags() {
+    for (int count = 1; count <= 17; count++) {
+      SparseArray<PlaybackInfo> states = new SparseArray<>();
+      for (int i = 0; i < count; i++) {
+        states.put(i * 3, info(0, i, i % 3 != 1, 1f));
+      }
+      assertRoundTrip(states);
+    }
+  }
+
+  @Test public void otherValues_areSkipped() {
+    SparseArray<Object> states = new SparseArray<>();
+    states.put(1, info(0, 100, false, 1f));
+    states.put(2, "not a PlaybackInfo");
+    states.put(3, null);
+    states.put(4, info(1, 200, true, 0.2f));
+    SparseArray<PlaybackInfo> unpacked = PackedStates.unpack(PackedStates.pack(states));
+    assertNotNull(unpacked);
+    assertEquals(2, unpacked.size());
+    assertInfo((PlaybackInfo) states.get(1), unpacked.get(1));
+    assertInfo((PlaybackInfo) states.get(4), unpacked.get(4));
+  }
+
+  @Test public void compact() {
+    SparseArray<PlaybackInfo> states = new SparseArray<>();
+    for (int i = 0; i < 1000; i++) {
+      states.put(i * 2, info(0, 60 * 1000 + i, i % 2 == 0, 1f));
+    }
+    assertTrue(PackedStates.pack(states).length < 1000 * 16);
+  }
+
+  @Test public void unknownData_isNull() {
+    assertNull(PackedStates.unpack(null));
+    assertNull(PackedStates.unpack(new byte[0]));
+    assertNull(PackedStates.unpack(new byte[] { 42, 0 }));
+  }
+
+  private static PlaybackInfo info(int window, long position, boolean mute, float volume) {
+    return new PlaybackInfo(window, position, new VolumeInfo(mute, volume));
+  }
+
+  private static void assertRoundTrip(SparseArray<PlaybackInfo> states) {
+    SparseArray<PlaybackInfo> unpacked = PackedStates.unpack(PackedStates.pack(states));
+    assertNotNull(unpacked);
+    assertEquals(states.size(), unpacked.size());
+    for (int i = 0; i < states.size(); i++) {
+      assertEquals(states.keyAt(i), unpacked.keyAt(i));
+      assertInfo(states.valueAt(i), unpacked.valueAt(i));
+    }
+  }
+
+  // PlaybackInfo#equals doesn't compare the VolumeInfo.
+  private static void assertInfo(PlaybackInfo expected, PlaybackInfo actual) {
+    assertEquals(expected.getResumeWindow(), actual.getResumeWindow());
+    assertEquals(expected.getResumePosition(), actual.getResumePosition());
+    assertEquals(expected.getVolumeInfo().isMute(), actual.getVolumeInfo().isMute());
+    assertEquals(Float.floatToIntBits(expected.getVolumeInfo().getVolume()),
+        Float.floatToIntBits(actual.getVolumeInfo().getVolume()));
+  }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.widget;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link SortedIntMap} against a {@link TreeMap} that is updated the same way, for the
+ * operations {@link PlaybackInfoCache} does on Adapter's data change events. Shifts are lazy, so
+ * every storm mixes shifts with puts and removes, which fold the pending deltas into the keys.
+ *
+ * @author eneim (2018/06/30).
+ */
+public class SortedIntMapTest {
+
+  private static final int STORM_SIZE = 2000;
+
+  private SortedIntMap<String> map;
+  private TreeMap<Integer, String> expected;
+  private Random random;
+
+  @Before public void setUp() {
+    map = new SortedIntMap<>();
+    expected = new TreeMap<>();
+    random = new Random(42);  // same storm for every run.
+  }
+
+  @Test public void putGetRemove() {
+    put(5, "5");
+    put(1, "1");
+    put(3, "3");
+    assertEquals("1", map.put(1, "one"));
+    expected.put(1, "one");
+    assertSame();
+
+    assertTrue(map.containsKey(3));
+    assertFalse(map.containsKey(2));
+    assertNull(map.get(2));
+    assertEquals(~1, map.indexOfKey(2));
+    assertEquals(1, map.ceilingIndex(2));
+    assertEquals(3, map.ceilingIndex(6));
+
+    assertEquals("3", map.remove(3));
+    assertNull(map.remove(3));
+    expected.remove(3);
+    assertSame();
+  }
+
+  @Test public void shift_appliesToKeysFromTheStart() {
+    for (int i = 0; i < 10; i++) put(i * 2, String.valueOf(i));
+    map.shift(7, 3);
+    shiftExpected(7, Integer.MAX_VALUE, 3);
+    assertSame();
+
+    map.shift(-100, -1);
+    shiftExpected(Integer.MIN_VALUE, Integer.MAX_VALUE, -1);
+    assertSame();
+  }
+
+  @Test public void shiftRange_appliesToTheRangeOnly() {
+    for (int i = 0; i < 10; i++) put(i * 10, String.valueOf(i));
+    map.shiftRange(20, 50, 5);
+    shiftExpected(20, 50, 5);
+    assertSame();
+
+    map.shiftRange(0, 21, -1);
+    shiftExpected(0, 21, -1);
+    assertSame();
+  }
+
+  @Test public void put_afterShift_keepsTheShiftedKeys() {
+    for (int i = 0; i < 8; i++) put(i, String.valueOf(i));
+    map.shift(3, 2);
+    shiftExpected(3, Integer.MAX_VALUE, 2);
+    put(3, "new");  // in the gap left by the shift.
+    assertSame();
+    map.shift(0, 1);
+    shiftExpected(0, Integer.MAX_VALUE, 1);
+    assertEquals("new", map.remove(4));
+    expected.remove(4);
+    assertSame();
+  }
+
+  @Test public void insertRemoveStorm() {
+    fill(500, 2000);
+    for (int i = 0; i < STORM_SIZE; i++) {
+      int position = random.nextInt(2000);
+      int count = 1 + random.nextInt(5);
+      if (random.nextBoolean()) {
+        insert(position, count);
+        if (random.nextInt(3) == 0) put(position, "inserted-" + i);
+      } else {
+        remove(position, count);
+      }
+      if (i % 50 == 0) assertSame();  // also reads the keys before the deltas are folded.
+    }
+    assertSame();
+  }
+
+  @Test public void moveStorm() {
+    fill(300, 1000);
+    for (int i = 0; i < STORM_SIZE; i++) {
+      int from = random.nextInt(1000);
+      int to = random.nextInt(1000);
+      map.move(from, to);
+      moveExpected(from, to);
+      if (i % 50 == 0) assertSame();
+    }
+    assertSame();
+  }
+
+  @Test public void mixedStorm() {
+    fill(400, 1500);
+    for (int i = 0; i < STORM_SIZE; i++) {
+      int position = random.nextInt(1500);
+      switch (random.nextInt(4)) {
+        case 0:
+          insert(position, 1 + random.nextInt(3));
+          break;
+        case 1:
+          remove(position, 1 + random.nextInt(3));
+          break;
+        case 2:
+          int to = random.nextInt(1500);
+          map.move(position, to);
+          moveExpected(position, to);
+          break;
+        default:
+          put(position, "put-" + i);
+          break;
+      }
+    }
+    assertSame();
+  }
+
+  @Test public void retainAll_afterShift() {
+    for (int i = 0; i < 20; i++) put(i, i % 3 == 0 ? "keep" : "drop-" + i);
+    map.shift(5, 10);
+    shiftExpected(5, Integer.MAX_VALUE, 10);
+    map.retainAll(Arrays.asList("keep"));
+    for (Integer key : expected.keySet().toArray(new Integer[0])) {
+      if (!"keep".equals(expected.get(key))) expected.remove(key);
+    }
+    assertSame();
+  }
+
+  @Test public void clear_afterShift() {
+    for (int i = 0; i < 20; i++) put(i, String.valueOf(i));
+    map.shift(5, 10);
+    map.clear();
+    expected.clear();
+    assertSame();
+    put(7, "7");
+    put(2, "2");
+    assertSame();
+  }
+
+  /// Helpers, each one applies the same change to both maps.
+
+  private void put(int key, String value) {
+    map.put(key, value);
+    expected.put(key, value);
+  }
+
+  private void fill(int count, int range) {
+    for (int i = 0; i < count; i++) {
+      int key = random.nextInt(range);
+      put(key, "value-" + key);
+    }
+  }
+
+  // Adapter#notifyItemRangeInserted, as in PlaybackInfoCache#onItemRangeInserted.
+  private void insert(int position, int count) {
+    map.shift(position, count);
+    shiftExpected(position, Integer.MAX_VALUE, count);
+  }
+
+  // Adapter#notifyItemRangeRemoved, as in PlaybackInfoCache#onItemRangeRemoved.
+  private void remove(int position, int count) {
+    map.removeRange(position, position + count);
+    map.shift(position + count, -count);
+    expected.subMap(position, position + count).clear();
+    shiftExpected(position + count, Integer.MAX_VALUE, -count);
+  }
+
+  private void moveExpected(int from, int to) {
+    if (from == to) return;
+    String value = expected.remove(from);
+    if (from < to) {
+      shiftExpected(from + 1, to + 1, -1);
+    } else {
+      shiftExpected(to, from, 1);
+    }
+    if (value != null) expected.put(to, value);
+  }
+
+  // Add delta to the keys in range of [fromKey, toKey).
+  private void shiftExpected(int fromKey, int toKey, int delta) {
+    TreeMap<Integer, String> shifted = new TreeMap<>();
+    for (Map.Entry<Integer, String> entry : expected.entrySet()) {
+      int key = entry.getKey();
+      shifted.put(key >= fromKey && key < toKey ? key + delta : key, entry.getValue());
+    }
+    expected = shifted;
+  }
+
+  private void assertSame() {
+    assertEquals(expected.size(), map.size());
+    assertEquals(expected.isEmpty(), map.isEmpty());
+    int index = 0;
+    for (Map.Entry<Integer, String> entry : expected.entrySet()) {
+      assertEquals("key at " + index, (int) entry.getKey(), map.keyAt(index));
+      assertEquals("value at " + index, entry.getValue(), map.valueAt(index));
+      assertEquals(index, map.indexOfKey(entry.getKey()));
+      assertEquals(entry.getValue(), map.get(entry.getKey()));
+      index++;
+    }
+  }
+}
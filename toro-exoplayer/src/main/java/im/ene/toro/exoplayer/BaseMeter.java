@@ -23,7 +23,9 @@ import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
 import com.google.android.exoplayer2.upstream.TransferListener;
 
 /**
- * Abstract the {@link DefaultBandwidthMeter}, provide a wider use.
+ * Abstract the {@link DefaultBandwidthMeter}, provide a wider use. To share the estimate with all
+ * players of the process, use {@link ToroExo#getSharedMeter()}, or
+ * {@link Config.Builder#setSharedBandwidthMeter(boolean)}.
  *
  * @author eneim (2018/01/26).
  * @since 3.4.0
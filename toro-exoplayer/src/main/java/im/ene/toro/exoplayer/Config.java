@@ -16,6 +16,7 @@
 
 package im.ene.toro.exoplayer;
 
+import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import com.google.android.exoplayer2.DefaultLoadControl;
@@ -28,6 +29,7 @@ import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
 import com.google.android.exoplayer2.upstream.cache.Cache;
 import im.ene.toro.annotations.Beta;
+import java.io.File;
 import java.util.Arrays;
 
 import static com.google.android.exoplayer2.DefaultRenderersFactory.EXTENSION_RENDERER_MODE_OFF;
@@ -46,6 +48,8 @@ public final class Config {
 
   // primitive flags
   @ExtensionRendererMode final int extensionMode;
+  final boolean viewportTrackSelection;
+  final boolean feedLoadControl;
 
   // NonNull options
   @NonNull final BaseMeter meter;
@@ -56,13 +60,18 @@ public final class Config {
   @SuppressWarnings("WeakerAccess") //
   @Nullable final DrmSessionManager[] drmSessionManagers;
   @Nullable final Cache cache; // null by default
+  // Shared disk cache, used if cache is null. Disabled if diskCacheSize is 0.
+  @Nullable final File diskCacheDir; // null = default directory
+  final long diskCacheSize;
   // If null, ExoCreator must come up with a default one.
   // This is to help customizing the Data source, for example using OkHttp extension.
   @Nullable final DataSource.Factory dataSourceFactory;
 
   Config(int extensionMode, @NonNull BaseMeter meter, @NonNull LoadControl loadControl,
       @Nullable DataSource.Factory dataSourceFactory, @NonNull MediaSourceBuilder mediaSourceBuilder,
-      @Nullable DrmSessionManager[] drmSessionManagers, @Nullable Cache cache) {
+      @Nullable DrmSessionManager[] drmSessionManagers, @Nullable Cache cache,
+      @Nullable File diskCacheDir, long diskCacheSize, boolean viewportTrackSelection,
+      boolean feedLoadControl) {
     this.extensionMode = extensionMode;
     this.meter = meter;
     this.loadControl = loadControl;
@@ -70,6 +79,10 @@ public final class Config {
     this.mediaSourceBuilder = mediaSourceBuilder;
     this.drmSessionManagers = drmSessionManagers;
     this.cache = cache;
+    this.diskCacheDir = diskCacheDir;
+    this.diskCacheSize = diskCacheSize;
+    this.viewportTrackSelection = viewportTrackSelection;
+    this.feedLoadControl = feedLoadControl;
   }
 
   @Override public boolean equals(Object o) {
@@ -79,34 +92,48 @@ public final class Config {
     Config config = (Config) o;
 
     if (extensionMode != config.extensionMode) return false;
+    if (viewportTrackSelection != config.viewportTrackSelection) return false;
+    if (feedLoadControl != config.feedLoadControl) return false;
     if (!meter.equals(config.meter)) return false;
     if (!loadControl.equals(config.loadControl)) return false;
     if (!mediaSourceBuilder.equals(config.mediaSourceBuilder)) return false;
     // Probably incorrect - comparing Object[] arrays with Arrays.equals
     if (!Arrays.equals(drmSessionManagers, config.drmSessionManagers)) return false;
     if (cache != null ? !cache.equals(config.cache) : config.cache != null) return false;
+    if (diskCacheSize != config.diskCacheSize) return false;
+    if (diskCacheDir != null ? !diskCacheDir.equals(config.diskCacheDir)
+        : config.diskCacheDir != null) {
+      return false;
+    }
     return dataSourceFactory != null ? dataSourceFactory.equals(config.dataSourceFactory)
         : config.dataSourceFactory == null;
   }
 
   @Override public int hashCode() {
     int result = extensionMode;
+    result = 31 * result + (viewportTrackSelection ? 1 : 0);
+    result = 31 * result + (feedLoadControl ? 1 : 0);
     result = 31 * result + meter.hashCode();
     result = 31 * result + loadControl.hashCode();
     result = 31 * result + mediaSourceBuilder.hashCode();
     result = 31 * result + Arrays.hashCode(drmSessionManagers);
     result = 31 * result + (cache != null ? cache.hashCode() : 0);
+    result = 31 * result + (diskCacheDir != null ? diskCacheDir.hashCode() : 0);
+    result = 31 * result + (int) (diskCacheSize ^ (diskCacheSize >>> 32));
     result = 31 * result + (dataSourceFactory != null ? dataSourceFactory.hashCode() : 0);
     return result;
   }
 
   @SuppressWarnings("unused") public Builder newBuilder() {
     return new Builder().setCache(this.cache)
+        .setDiskCache(this.diskCacheDir, this.diskCacheSize)
         .setDrmSessionManagers(this.drmSessionManagers)
         .setExtensionMode(this.extensionMode)
         .setLoadControl(this.loadControl)
         .setMediaSourceBuilder(this.mediaSourceBuilder)
-        .setMeter(this.meter);
+        .setMeter(this.meter)
+        .setViewportTrackSelection(this.viewportTrackSelection)
+        .setFeedLoadControl(this.feedLoadControl);
   }
 
   /// Builder
@@ -121,6 +148,10 @@ public final class Config {
     private MediaSourceBuilder mediaSourceBuilder = MediaSourceBuilder.DEFAULT;
     private DrmSessionManager[] drmSessionManagers = null;
     private Cache cache = null;
+    private File diskCacheDir = null;
+    private long diskCacheSize = 0;
+    private boolean viewportTrackSelection = false;
+    private boolean feedLoadControl = false;
 
     public Builder setExtensionMode(@ExtensionRendererMode int extensionMode) {
       this.extensionMode = extensionMode;
@@ -132,6 +163,23 @@ public final class Config {
       return this;
     }
 
+    /**
+     * Use the {@link BaseMeter} shared by all players of the process, see
+     * {@link ToroExo#getSharedMeter()}, instead of the one of this {@link Builder}. The players
+     * then start with the bandwidth estimate of the previous players, also of the previous
+     * session. This replaces the {@link BaseMeter} set by {@link #setMeter(BaseMeter)}.
+     *
+     * @param shared {@code true} to use the shared {@link BaseMeter}, {@code false} to use a
+     * {@link DefaultBandwidthMeter} of this {@link Builder}.
+     * @since 3.5.3
+     */
+    @SuppressWarnings("unchecked") //
+    public Builder setSharedBandwidthMeter(boolean shared) {
+      this.meter = shared ? SharedBandwidthMeter.BASE_METER
+          : new BaseMeter(bandwidthMeter, bandwidthMeter);
+      return this;
+    }
+
     public Builder setLoadControl(@NonNull LoadControl loadControl) {
       this.loadControl = checkNotNull(loadControl, "Need non-null LoadControl");
       return this;
@@ -160,9 +208,76 @@ public final class Config {
       return this;
     }
 
+    /**
+     * Use a disk cache shared by all {@link Config}s of the process, in the default directory. See
+     * {@link #setDiskCache(File, long)}.
+     *
+     * @since 3.5.3
+     */
+    public Builder setDiskCache(@IntRange(from = 0) long maxBytes) {
+      return setDiskCache(null, maxBytes);
+    }
+
+    /**
+     * Use a disk cache for the media, shared by all {@link Config}s of the process that use the
+     * same directory. The cache is a
+     * {@link com.google.android.exoplayer2.upstream.cache.SimpleCache} created by {@link ToroExo}
+     * on first use, and bounded by a
+     * {@link com.google.android.exoplayer2.upstream.cache.LeastRecentlyUsedCacheEvictor}. Only the
+     * first size requested for a directory is used.
+     *
+     * This is ignored if a {@link Cache} is set by {@link #setCache(Cache)}.
+     *
+     * @param directory the cache directory, or {@code null} to use a directory in
+     * {@link android.content.Context#getCacheDir()}. It must not be used by anything else.
+     * @param maxBytes maximum size of the cache, or {@code 0} to disable it.
+     * @since 3.5.3
+     */
+    public Builder setDiskCache(@Nullable File directory, @IntRange(from = 0) long maxBytes) {
+      if (maxBytes < 0) throw new IllegalArgumentException("Negative size: " + maxBytes);
+      this.diskCacheDir = directory;
+      this.diskCacheSize = maxBytes;
+      return this;
+    }
+
+    /**
+     * Limit the video quality of each player to the size of its
+     * {@link com.google.android.exoplayer2.ui.PlayerView}, so that a small player in a list doesn't
+     * load and decode a 1080p stream. Each player then has its own
+     * {@link com.google.android.exoplayer2.trackselection.DefaultTrackSelector}.
+     *
+     * The limit is lowered as soon as the PlayerView becomes smaller, but only raised when the
+     * PlayerView is bigger and mostly visible (see {@code ToroUtil#visibleAreaOffset()}), so that
+     * scrolling doesn't switch the quality back and forth. It only applies to the players
+     * those are used by an {@link ExoPlayerViewHelper}.
+     *
+     * @since 3.5.3
+     */
+    public Builder setViewportTrackSelection(boolean viewportTrackSelection) {
+      this.viewportTrackSelection = viewportTrackSelection;
+      return this;
+    }
+
+    /**
+     * Use a {@link LoadControl} tuned for lists of players, instead of the one set by
+     * {@link #setLoadControl(LoadControl)}. The buffers of all players of the process then share
+     * one memory budget computed from the device's memory class: players those are not playing
+     * only buffer enough to start quickly, and the playing one has the priority.
+     *
+     * Each player has its own instance of this {@link LoadControl}, created by the
+     * {@link DefaultExoCreator}.
+     *
+     * @since 3.5.3
+     */
+    public Builder setFeedLoadControl(boolean feedLoadControl) {
+      this.feedLoadControl = feedLoadControl;
+      return this;
+    }
+
     public Config build() {
       return new Config(extensionMode, meter, loadControl, dataSourceFactory,
-          mediaSourceBuilder, drmSessionManagers, cache);
+          mediaSourceBuilder, drmSessionManagers, cache, diskCacheDir, diskCacheSize,
+          viewportTrackSelection, feedLoadControl);
     }
   }
 }
@@ -19,6 +19,7 @@ package im.ene.toro.exoplayer;
 import android.content.Context;
 import android.net.Uri;
 import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import com.google.android.exoplayer2.ExoPlaybackException;
@@ -28,6 +29,7 @@ import com.google.android.exoplayer2.LoadControl;
 import com.google.android.exoplayer2.RenderersFactory;
 import com.google.android.exoplayer2.SimpleExoPlayer;
 import com.google.android.exoplayer2.source.BehindLiveWindowException;
+import com.google.android.exoplayer2.source.LoopingMediaSource;
 import com.google.android.exoplayer2.source.MediaSource;
 import com.google.android.exoplayer2.source.MediaSourceEventListener;
 import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
@@ -36,6 +38,8 @@ import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DataSpec;
 import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
 import com.google.android.exoplayer2.upstream.DefaultHttpDataSourceFactory;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.upstream.cache.Cache;
 import com.google.android.exoplayer2.upstream.cache.CacheDataSourceFactory;
 import java.io.IOException;
 
@@ -54,35 +58,62 @@ public class DefaultExoCreator implements ExoCreator, MediaSourceEventListener {
 
   final ToroExo toro;  // per application
   private final TrackSelector trackSelector;  // 'maybe' stateless
+  private final BaseMeter meter;
+  private final boolean viewportTrackSelection;  // if true, each player has its own TrackSelector
   private final LoadControl loadControl;  // stateless
-  private final MediaSourceBuilder mediaSourceBuilder;  // stateless
+  private final boolean feedLoadControl;  // if true, each player has its own ToroLoadControl
+  final MediaSourceBuilder mediaSourceBuilder;  // stateless
   private final RenderersFactory renderersFactory;  // stateless
   private final DataSource.Factory mediaDataSourceFactory;  // stateless
-  private final DataSource.Factory manifestDataSourceFactory; // stateless
+  final DataSource.Factory manifestDataSourceFactory; // stateless
+  // MediaSource events are delivered on the main thread, even if it is created on a worker thread.
+  private final Handler eventHandler = new Handler(Looper.getMainLooper());
+  // Parsed manifests, so that playing the same media again doesn't load its manifest again.
+  final ManifestCache manifestCache = new ManifestCache(ManifestCache.DEFAULT_MAX_SIZE);
 
   @SuppressWarnings("unchecked")  //
   public DefaultExoCreator(ToroExo toro, Config config) {
     this.toro = checkNotNull(toro);
+    if (config.meter == SharedBandwidthMeter.BASE_METER) {
+      SharedBandwidthMeter.INSTANCE.loadSavedEstimate(this.toro.context);
+    }
     trackSelector = new DefaultTrackSelector(config.meter);
+    meter = config.meter;
+    viewportTrackSelection = config.viewportTrackSelection;
     loadControl = config.loadControl;
+    feedLoadControl = config.feedLoadControl;
     mediaSourceBuilder = config.mediaSourceBuilder;
     renderersFactory = new MultiDrmRendererFactory(this.toro.context, //
         config.drmSessionManagers, config.extensionMode);
-    DataSource.Factory baseFactory = config.dataSourceFactory;
-    if (baseFactory == null) {
-      baseFactory = new DefaultHttpDataSourceFactory(toro.appName, config.meter);
+    DataSource.Factory upstreamFactory = buildUpstreamFactory(this.toro, config);
+    Cache cache = this.toro.getCache(config);
+    mediaDataSourceFactory =
+        cache != null ? new CacheDataSourceFactory(cache, upstreamFactory) : upstreamFactory;
+    // Manifests use the same upstream, but not the disk cache as they may change.
+    HttpDataSource.Factory httpFactory = null;
+    if (config.dataSourceFactory instanceof HttpDataSource.Factory) {
+      httpFactory = (HttpDataSource.Factory) config.dataSourceFactory;
+    } else if (config.dataSourceFactory == null) {
+      httpFactory = new DefaultHttpDataSourceFactory(this.toro.appName, config.meter);
     }
-    DataSource.Factory factory = new DefaultDataSourceFactory(this.toro.context,  //
-        config.meter, baseFactory);
-    if (config.cache != null) factory = new CacheDataSourceFactory(config.cache, factory);
-    mediaDataSourceFactory = factory;
-    manifestDataSourceFactory = new DefaultDataSourceFactory(this.toro.context, this.toro.appName);
+    manifestDataSourceFactory = new ManifestDataSource.Factory(httpFactory, upstreamFactory,
+        ManifestDataSource.DEFAULT_MAX_SIZE);
   }
 
   public DefaultExoCreator(Context context, Config config) {
     this(with(context), config);
   }
 
+  // The DataSource.Factory for media, before the Cache. Shared with MediaPrefetcher so that the
+  // prefetched data is loaded the same way.
+  static DataSource.Factory buildUpstreamFactory(ToroExo toro, Config config) {
+    DataSource.Factory baseFactory = config.dataSourceFactory;
+    if (baseFactory == null) {
+      baseFactory = new DefaultHttpDataSourceFactory(toro.appName, config.meter);
+    }
+    return new DefaultDataSourceFactory(toro.context, config.meter, baseFactory);
+  }
+
   @SuppressWarnings("SimplifiableIfStatement") @Override public boolean equals(Object o) {
     if (this == o) return true;
     if (o == null || getClass() != o.getClass()) return false;
@@ -91,6 +122,8 @@ public class DefaultExoCreator implements ExoCreator, MediaSourceEventListener {
 
     if (!toro.equals(that.toro)) return false;
     if (!trackSelector.equals(that.trackSelector)) return false;
+    if (viewportTrackSelection != that.viewportTrackSelection) return false;
+    if (feedLoadControl != that.feedLoadControl) return false;
     if (!loadControl.equals(that.loadControl)) return false;
     if (!mediaSourceBuilder.equals(that.mediaSourceBuilder)) return false;
     if (!renderersFactory.equals(that.renderersFactory)) return false;
@@ -101,6 +134,8 @@ public class DefaultExoCreator implements ExoCreator, MediaSourceEventListener {
   @Override public int hashCode() {
     int result = toro.hashCode();
     result = 31 * result + trackSelector.hashCode();
+    result = 31 * result + (viewportTrackSelection ? 1 : 0);
+    result = 31 * result + (feedLoadControl ? 1 : 0);
     result = 31 * result + loadControl.hashCode();
     result = 31 * result + mediaSourceBuilder.hashCode();
     result = 31 * result + renderersFactory.hashCode();
@@ -119,12 +154,37 @@ public class DefaultExoCreator implements ExoCreator, MediaSourceEventListener {
 
   @NonNull @Override public SimpleExoPlayer createPlayer() {
     // return ExoPlayerFactory.newSimpleInstance(renderersFactory, trackSelector, loadControl);
-    return new ToroExoPlayer(renderersFactory, trackSelector, loadControl);
+    // Track selection then depends on the PlayerView, so the TrackSelector can't be shared.
+    DefaultTrackSelector selector =
+        viewportTrackSelection ? new DefaultTrackSelector(meter) : null;
+    // Keeps the state of its player, so it can't be shared either.
+    ToroLoadControl control = feedLoadControl ? new ToroLoadControl(toro.loadBudget) : null;
+    ToroExoPlayer player = new ToroExoPlayer(renderersFactory,
+        selector != null ? selector : trackSelector, control != null ? control : loadControl);
+    player.viewportTrackSelector = selector;
+    player.toroLoadControl = control;
+    return player;
   }
 
   @NonNull @Override public MediaSource createMediaSource(@NonNull Uri uri, String fileExt) {
-    return mediaSourceBuilder.buildMediaSource(this.toro.context, uri, fileExt, new Handler(),
-        manifestDataSourceFactory, mediaDataSourceFactory, this);
+    return createMediaSource(uri, fileExt, this);
+  }
+
+  // The MediaSource events go to the given listener instead, for the PlaybackMetrics of a Playable.
+  @NonNull final MediaSource createMediaSource(@NonNull Uri uri, String fileExt,
+      @NonNull MediaSourceEventListener listener) {
+    // Built-in builders only: a custom one may not build the same MediaSource from a manifest.
+    if (mediaSourceBuilder == MediaSourceBuilder.DEFAULT
+        || mediaSourceBuilder == MediaSourceBuilder.LOOPING) {
+      MediaSource source = manifestCache.buildMediaSource(uri, fileExt, eventHandler,
+          manifestDataSourceFactory, mediaDataSourceFactory, listener);
+      if (source != null) {
+        return mediaSourceBuilder == MediaSourceBuilder.LOOPING ? new LoopingMediaSource(source)
+            : source;
+      }
+    }
+    return mediaSourceBuilder.buildMediaSource(this.toro.context, uri, fileExt, eventHandler,
+        manifestDataSourceFactory, mediaDataSourceFactory, listener);
   }
 
   @NonNull @Override public Playable createPlayable(@NonNull Uri uri, String fileExt) {
@@ -122,6 +122,10 @@ public class ExoPlayable extends PlayableImpl {
       lastSeenTrackGroupArray = trackGroups;
       if (!(creator instanceof DefaultExoCreator)) return;
       TrackSelector selector = ((DefaultExoCreator) creator).getTrackSelector();
+      if (player instanceof ToroExoPlayer) {
+        TrackSelector own = ((ToroExoPlayer) player).viewportTrackSelector;
+        if (own != null) selector = own;  // not shared with other players.
+      }
       if (selector != null && selector instanceof DefaultTrackSelector) {
         MappedTrackInfo trackInfo = ((DefaultTrackSelector) selector).getCurrentMappedTrackInfo();
         if (trackInfo != null) {
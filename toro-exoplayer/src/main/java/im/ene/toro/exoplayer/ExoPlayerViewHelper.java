@@ -18,9 +18,13 @@ package im.ene.toro.exoplayer;
 
 import android.net.Uri;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.view.View;
+import android.view.ViewParent;
 import com.google.android.exoplayer2.ExoPlayer;
 import com.google.android.exoplayer2.ui.PlayerView;
 import im.ene.toro.ToroPlayer;
+import im.ene.toro.ToroUtil;
 import im.ene.toro.annotations.RemoveIn;
 import im.ene.toro.helper.ToroPlayerHelper;
 import im.ene.toro.media.PlaybackInfo;
@@ -42,6 +46,7 @@ public class ExoPlayerViewHelper extends ToroPlayerHelper {
 
   @NonNull private final ExoPlayable playable;
   @NonNull private final MyEventListeners listeners;
+  @NonNull private final ViewportListener viewportListener = new ViewportListener();
 
   // Container is no longer required for constructing new instance.
   @SuppressWarnings("unused") @RemoveIn(version = "3.6.0") @Deprecated  //
@@ -85,16 +90,35 @@ public class ExoPlayerViewHelper extends ToroPlayerHelper {
     playable.addEventListener(listeners);
     playable.prepare(false);
     playable.setPlayerView((PlayerView) player.getPlayerView());
+    player.getPlayerView().addOnLayoutChangeListener(viewportListener);
+    viewportListener.update();
   }
 
   @Override public void release() {
+    Container container = this.container;  // cleared by super.release().
+    player.getPlayerView().removeOnLayoutChangeListener(viewportListener);
+    viewportListener.reset();
     super.release();
     playable.setPlayerView(null);
     playable.removeEventListener(listeners);
     playable.release();
+    PlaybackMetrics metrics = playable.getMetrics();
+    if (container != null && metrics != null) {
+      with(player.getPlayerView().getContext()).recordMetrics(container, metrics);
+    }
+  }
+
+  /**
+   * @return the {@link PlaybackMetrics} of the current playback session, or of the last one. See
+   * {@link ToroExo#drainMetrics(Container)} to get the finished sessions of a {@link Container}.
+   * @since 3.5.3
+   */
+  @Nullable public PlaybackMetrics getMetrics() {
+    return playable.getMetrics();
   }
 
   @Override public void play() {
+    viewportListener.update();  // The player is likely to be well visible now.
     playable.play();
   }
 
@@ -146,6 +170,43 @@ public class ExoPlayerViewHelper extends ToroPlayerHelper {
     this.playable.removeOnVolumeChangeListener(listener);
   }
 
+  // Update the viewport size of the Playable. See Config.Builder#setViewportTrackSelection().
+  private class ViewportListener implements View.OnLayoutChangeListener {
+
+    // Below this visible area offset, a larger PlayerView doesn't raise the limit yet.
+    static final float MIN_VISIBLE_OFFSET_TO_RAISE = 0.5f;
+
+    int width;
+    int height;
+
+    ViewportListener() {
+    }
+
+    @Override public void onLayoutChange(View v, int left, int top, int right, int bottom,
+        int oldLeft, int oldTop, int oldRight, int oldBottom) {
+      if (right - left != oldRight - oldLeft || bottom - top != oldBottom - oldTop) update();
+    }
+
+    void update() {
+      View playerView = player.getPlayerView();
+      int newWidth = playerView.getWidth();
+      int newHeight = playerView.getHeight();
+      if (newWidth <= 0 || newHeight <= 0) return;  // not laid out yet.
+      if (newWidth == width && newHeight == height) return;
+      if (width > 0 && (newWidth > width || newHeight > height)) {
+        ViewParent parent = container != null ? container : playerView.getParent();
+        if (ToroUtil.visibleAreaOffset(player, parent) < MIN_VISIBLE_OFFSET_TO_RAISE) return;
+      }
+      width = newWidth;
+      height = newHeight;
+      playable.setViewportSize(width, height);
+    }
+
+    void reset() {
+      width = height = 0;
+    }
+  }
+
   // A proxy, to also hook into ToroPlayerHelper's state change event.
   private class MyEventListeners extends Playable.EventListeners {
 
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.exoplayer;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.util.LruCache;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.source.MediaSource;
+import com.google.android.exoplayer2.source.MediaSourceEventListener;
+import com.google.android.exoplayer2.source.dash.DashMediaSource;
+import com.google.android.exoplayer2.source.dash.DefaultDashChunkSource;
+import com.google.android.exoplayer2.source.dash.manifest.AdaptationSet;
+import com.google.android.exoplayer2.source.dash.manifest.DashManifest;
+import com.google.android.exoplayer2.source.dash.manifest.DashManifestParser;
+import com.google.android.exoplayer2.source.smoothstreaming.DefaultSsChunkSource;
+import com.google.android.exoplayer2.source.smoothstreaming.SsMediaSource;
+import com.google.android.exoplayer2.source.smoothstreaming.manifest.SsManifest;
+import com.google.android.exoplayer2.source.smoothstreaming.manifest.SsManifestParser;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.ParsingLoadable;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static android.text.TextUtils.isEmpty;
+import static com.google.android.exoplayer2.util.Util.inferContentType;
+
+/**
+ * LRU cache of the parsed DASH and SmoothStreaming manifests, keyed by media Uri and extension.
+ * Without it, each new {@link MediaSource} for the same media loads and parses its manifest again,
+ * which happens every time a recycled item is played again.
+ *
+ * Only static (VOD) manifests are cached, as live manifests must be refreshed anyway. A cached
+ * manifest is given to the new {@link MediaSource} directly, so it is not loaded at all. The cache
+ * is bounded by an estimation of the memory used by the manifests.
+ *
+ * HLS is not supported: {@link com.google.android.exoplayer2.source.hls.HlsMediaSource} can not be
+ * created from a parsed playlist. Progressive media has no manifest.
+ *
+ * Thread safe, as {@link MediaSource}s can be created on a background thread.
+ *
+ * @author eneim (2018/06/22).
+ */
+@SuppressWarnings({ "WeakerAccess", "unused" }) //
+final class ManifestCache {
+
+  static final int DEFAULT_MAX_SIZE = 2 * 1024 * 1024; // estimated bytes.
+
+  // Rough memory cost of the manifest objects, only used to bound the cache.
+  private static final int MANIFEST_COST = 1024;
+  private static final int FORMAT_COST = 512;
+  private static final int CHUNK_COST = 16;
+
+  private final LruCache<String, Object> manifests;
+
+  ManifestCache(int maxSize) {
+    this.manifests = new LruCache<String, Object>(maxSize) {
+      @Override protected int sizeOf(String key, Object value) {
+        return estimateSize(value);
+      }
+    };
+  }
+
+  /**
+   * Build a DASH or SmoothStreaming {@link MediaSource}, from the cached manifest if there is one.
+   * Otherwise the {@link MediaSource} loads the manifest as usual, and puts it into this cache.
+   *
+   * @return the {@link MediaSource}, or {@code null} if the media is neither DASH nor
+   * SmoothStreaming.
+   */
+  @Nullable MediaSource buildMediaSource(@NonNull Uri uri, @Nullable String ext,
+      @Nullable Handler handler, @NonNull DataSource.Factory manifestDataSourceFactory,
+      @NonNull DataSource.Factory mediaDataSourceFactory,
+      @Nullable MediaSourceEventListener listener) {
+    int type = isEmpty(ext) ? inferContentType(uri) : inferContentType("." + ext);
+    if (type != C.TYPE_DASH && type != C.TYPE_SS) return null;
+    String key = keyOf(uri, ext);
+    Object manifest = manifests.get(key);
+
+    if (type == C.TYPE_DASH) {
+      DashMediaSource.Factory factory = new DashMediaSource.Factory(
+          new DefaultDashChunkSource.Factory(mediaDataSourceFactory), manifestDataSourceFactory);
+      if (manifest instanceof DashManifest) {
+        return factory.createMediaSource((DashManifest) manifest, handler, listener);
+      }
+      return factory.setManifestParser(new CachingParser<>(new DashManifestParser(), key))
+          .createMediaSource(uri, handler, listener);
+    } else {
+      SsMediaSource.Factory factory = new SsMediaSource.Factory(
+          new DefaultSsChunkSource.Factory(mediaDataSourceFactory), manifestDataSourceFactory);
+      if (manifest instanceof SsManifest) {
+        return factory.createMediaSource((SsManifest) manifest, handler, listener);
+      }
+      return factory.setManifestParser(new CachingParser<>(new SsManifestParser(), key))
+          .createMediaSource(uri, handler, listener);
+    }
+  }
+
+  static String keyOf(@NonNull Uri uri, @Nullable String ext) {
+    return ext == null ? uri.toString() : uri + "\n" + ext;
+  }
+
+  @Nullable Object get(@NonNull String key) {
+    return manifests.get(key);
+  }
+
+  // Live manifests are not kept, see the class doc.
+  void putIfStatic(@NonNull String key, @NonNull Object manifest) {
+    if (isStatic(manifest)) manifests.put(key, manifest);
+  }
+
+  void clear() {
+    manifests.evictAll();
+  }
+
+  static int estimateSize(Object manifest) {
+    int size = MANIFEST_COST;
+    if (manifest instanceof DashManifest) {
+      DashManifest dash = (DashManifest) manifest;
+      for (int i = 0, periods = dash.getPeriodCount(); i < periods; i++) {
+        for (AdaptationSet adaptationSet : dash.getPeriod(i).adaptationSets) {
+          size += FORMAT_COST * adaptationSet.representations.size();
+        }
+      }
+    } else if (manifest instanceof SsManifest) {
+      for (SsManifest.StreamElement element : ((SsManifest) manifest).streamElements) {
+        size += FORMAT_COST * element.formats.length + CHUNK_COST * element.chunkCount;
+      }
+    }
+    return size;
+  }
+
+  static boolean isStatic(Object manifest) {
+    if (manifest instanceof DashManifest) return !((DashManifest) manifest).dynamic;
+    return manifest instanceof SsManifest && !((SsManifest) manifest).isLive;
+  }
+
+  // Called on the loader thread of the MediaSource.
+  final class CachingParser<T> implements ParsingLoadable.Parser<T> {
+
+    final ParsingLoadable.Parser<T> parser;
+    final String key;
+
+    CachingParser(ParsingLoadable.Parser<T> parser, String key) {
+      this.parser = parser;
+      this.key = key;
+    }
+
+    @Override public T parse(Uri uri, InputStream inputStream) throws IOException {
+      T manifest = parser.parse(uri, inputStream);
+      if (manifest != null) putIfStatic(key, manifest);
+      return manifest;
+    }
+  }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.exoplayer;
+
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.util.LruCache;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.ByteArrayDataSource;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@link DataSource} for manifests and playlists. Http(s) manifests are loaded with conditional
+ * requests: the last response of each Uri is kept in memory with its ETag and Last-Modified
+ * headers, and is served again if the server answers "304 Not Modified". Other Uris, or partial
+ * requests, are loaded by the fallback {@link DataSource} as-is.
+ *
+ * The response is not put to the disk cache of the {@link Config}: a manifest can change (for live
+ * streams), and the disk cache never revalidates its content.
+ *
+ * @author eneim (2018/06/23).
+ */
+@SuppressWarnings({ "WeakerAccess", "unused" }) //
+final class ManifestDataSource implements DataSource {
+
+  static final int DEFAULT_MAX_SIZE = 512 * 1024;  // bytes of cached responses.
+
+  private static final String ETAG = "ETag";
+  private static final String LAST_MODIFIED = "Last-Modified";
+  private static final String IF_NONE_MATCH = "If-None-Match";
+  private static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+  private static final int NOT_MODIFIED = 304;
+  private static final int BUFFER_SIZE = 4 * 1024;
+
+  /**
+   * Last responses by Uri, shared by the {@link ManifestDataSource}s of a {@link Factory}.
+   */
+  static final class Store extends LruCache<String, Response> {
+
+    Store(int maxSize) {
+      super(maxSize);
+    }
+
+    @Override protected int sizeOf(String key, Response value) {
+      return value.data.length;
+    }
+  }
+
+  static final class Response {
+
+    @NonNull final Uri uri;  // after redirects, if any.
+    @NonNull final byte[] data;
+    @Nullable final String etag;
+    @Nullable final String lastModified;
+
+    Response(@NonNull Uri uri, @NonNull byte[] data, @Nullable String etag,
+        @Nullable String lastModified) {
+      this.uri = uri;
+      this.data = data;
+      this.etag = etag;
+      this.lastModified = lastModified;
+    }
+  }
+
+  static final class Factory implements DataSource.Factory {
+
+    @Nullable final HttpDataSource.Factory httpFactory;
+    @NonNull final DataSource.Factory fallbackFactory;
+    @NonNull final Store store;
+
+    /**
+     * @param httpFactory to load http(s) manifests with conditional requests, or {@code null} to
+     * use the fallback for everything.
+     * @param fallbackFactory to load the other manifests.
+     */
+    Factory(@Nullable HttpDataSource.Factory httpFactory,
+        @NonNull DataSource.Factory fallbackFactory, int maxSize) {
+      this.httpFactory = httpFactory;
+      this.fallbackFactory = fallbackFactory;
+      this.store = new Store(maxSize);
+    }
+
+    @Override public DataSource createDataSource() {
+      return new ManifestDataSource(
+          httpFactory != null ? httpFactory.createDataSource() : null,
+          fallbackFactory.createDataSource(), store);
+    }
+  }
+
+  @Nullable private final HttpDataSource httpDataSource;
+  @NonNull private final DataSource fallbackDataSource;
+  @NonNull private final Store store;
+
+  private DataSource current;
+  private Uri currentUri;  // of the http response.
+
+  ManifestDataSource(@Nullable HttpDataSource httpDataSource,
+      @NonNull DataSource fallbackDataSource, @NonNull Store store) {
+    this.httpDataSource = httpDataSource;
+    this.fallbackDataSource = fallbackDataSource;
+    this.store = store;
+  }
+
+  @Override public long open(DataSpec dataSpec) throws IOException {
+    String scheme = dataSpec.uri.getScheme();
+    boolean http = "http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme);
+    boolean whole = dataSpec.position == 0 && dataSpec.length == C.LENGTH_UNSET;
+    if (httpDataSource == null || !http || !whole) {
+      current = fallbackDataSource;
+      return current.open(dataSpec);
+    }
+
+    String key = dataSpec.key != null ? dataSpec.key : dataSpec.uri.toString();
+    Response cached = store.get(key);
+    Response response;
+    try {
+      response = load(httpDataSource, dataSpec, key, cached);
+    } catch (HttpDataSource.InvalidResponseCodeException error) {
+      if (cached == null || error.responseCode != NOT_MODIFIED) throw error;
+      response = cached;
+    }
+
+    currentUri = response.uri;
+    current = new ByteArrayDataSource(response.data);
+    return current.open(new DataSpec(response.uri));
+  }
+
+  // Load the whole response, and keep it in the Store if it can be validated later.
+  private Response load(HttpDataSource source, DataSpec dataSpec, String key,
+      @Nullable Response cached) throws IOException {
+    source.clearRequestProperty(IF_NONE_MATCH);
+    source.clearRequestProperty(IF_MODIFIED_SINCE);
+    if (cached != null && cached.etag != null) {
+      source.setRequestProperty(IF_NONE_MATCH, cached.etag);
+    }
+    if (cached != null && cached.lastModified != null) {
+      source.setRequestProperty(IF_MODIFIED_SINCE, cached.lastModified);
+    }
+
+    Uri uri;
+    byte[] data;
+    String etag;
+    String lastModified;
+    try {
+      long length = source.open(dataSpec);
+      data = new byte[length > 0 && length <= Integer.MAX_VALUE ? (int) length : BUFFER_SIZE];
+      int size = 0;
+      int read;
+      while (true) {
+        if (size == data.length) data = Arrays.copyOf(data, data.length * 2);
+        read = source.read(data, size, data.length - size);
+        if (read == C.RESULT_END_OF_INPUT) break;
+        size += read;
+      }
+      data = size == data.length ? data : Arrays.copyOf(data, size);
+      uri = source.getUri();  // Must be read before close().
+      Map<String, List<String>> headers = source.getResponseHeaders();
+      etag = getHeader(headers, ETAG);
+      lastModified = getHeader(headers, LAST_MODIFIED);
+    } finally {
+      source.close();
+    }
+
+    Response response = new Response(uri != null ? uri : dataSpec.uri, data, etag, lastModified);
+    if (etag != null || lastModified != null) {
+      store.put(key, response);
+    } else {
+      store.remove(key);
+    }
+    return response;
+  }
+
+  @Override public int read(byte[] buffer, int offset, int readLength) throws IOException {
+    return current.read(buffer, offset, readLength);
+  }
+
+  @Override public Uri getUri() {
+    if (current == null) return null;
+    return current == fallbackDataSource ? current.getUri() : currentUri;
+  }
+
+  @Override public void close() throws IOException {
+    if (current != null) {
+      try {
+        current.close();
+      } finally {
+        current = null;
+        currentUri = null;
+      }
+    }
+  }
+
+  // Header names are case-insensitive, and some HTTP stacks use lower case.
+  @Nullable private static String getHeader(@Nullable Map<String, List<String>> headers,
+      String name) {
+    if (headers == null) return null;
+    for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+      if (name.equalsIgnoreCase(entry.getKey()) && !entry.getValue().isEmpty()) {
+        return entry.getValue().get(0);
+      }
+    }
+    return null;
+  }
+}
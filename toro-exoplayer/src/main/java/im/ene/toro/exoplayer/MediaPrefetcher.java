@@ -0,0 +1,452 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.exoplayer;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.util.SparseArray;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.source.dash.DashSegmentIndex;
+import com.google.android.exoplayer2.source.dash.manifest.AdaptationSet;
+import com.google.android.exoplayer2.source.dash.manifest.DashManifest;
+import com.google.android.exoplayer2.source.dash.manifest.DashManifestParser;
+import com.google.android.exoplayer2.source.dash.manifest.RangedUri;
+import com.google.android.exoplayer2.source.dash.manifest.Representation;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMasterPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsPlaylistParser;
+import com.google.android.exoplayer2.source.smoothstreaming.manifest.SsManifest;
+import com.google.android.exoplayer2.source.smoothstreaming.manifest.SsManifestParser;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSourceInputStream;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.ParsingLoadable;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer2.util.UriUtil;
+import com.google.android.exoplayer2.util.Util;
+import im.ene.toro.widget.Container;
+import im.ene.toro.widget.PredictionCallback;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+import static android.support.v7.widget.RecyclerView.NO_POSITION;
+import static android.text.TextUtils.isEmpty;
+import static com.google.android.exoplayer2.util.Util.inferContentType;
+import static im.ene.toro.ToroUtil.checkNotNull;
+
+/**
+ * A {@link PredictionCallback} that warms the {@link Cache} of a {@link Config} with the
+ * beginning of the media of upcoming items, without any {@link
+ * com.google.android.exoplayer2.SimpleExoPlayer}. Loading happens on a background thread, through
+ * the same {@link Cache} and upstream {@link DataSource} as the {@link DefaultExoCreator} of the
+ * {@link Config}, so the players find the data in the cache later.
+ *
+ * What is prefetched for each item:
+ * - Progressive media: the first {@code bytesPerItem} bytes.
+ * - DASH and SmoothStreaming: the manifest, then the first segment of the lowest bitrate video
+ * representation (with its initialization data for DASH), up to {@code bytesPerItem} bytes.
+ * - HLS: the playlists, then the first segment of the lowest bitrate variant, up to
+ * {@code bytesPerItem} bytes.
+ *
+ * Manifests and playlists are not put to the disk cache, as they may change. If the {@link
+ * ExoCreator} of the {@link Config} is a {@link DefaultExoCreator}, they are loaded through its
+ * manifest {@link DataSource}, so the players only revalidate them; and the parsed DASH and
+ * SmoothStreaming manifests are given to its players directly.
+ *
+ * Budget: one prefetch window never schedules more than {@code maxBytes} bytes. Items that leave
+ * the window are cancelled, and an item is not prefetched again once it is done.
+ *
+ * Usage:
+ * <pre><code>
+ *   MediaPrefetcher prefetcher = new MediaPrefetcher(ToroExo.with(context), config, provider,
+ *       1024 * 1024, 4 * 1024 * 1024);
+ *   prefetcher.setStandbyEnabled(true); // optional
+ *   container.setPrefetchCallback(prefetcher, 3);
+ *   // Later, when the Container is gone:
+ *   container.setPrefetchCallback(null, 1);
+ *   prefetcher.release();
+ * </code></pre>
+ *
+ * @author eneim (2018/06/17).
+ * @since 3.5.3
+ */
+@SuppressWarnings({ "WeakerAccess", "unused" }) //
+public final class MediaPrefetcher implements PredictionCallback {
+
+  private static final String TAG = "ToroExo:Prefetch";
+  private static final int MAX_DONE_KEYS = 256;
+  private static final int BUFFER_SIZE = 16 * 1024;
+
+  /**
+   * Provide the media of an adapter position. Called on the main thread.
+   */
+  public interface MediaProvider {
+
+    /**
+     * @return the media {@link Uri} at the adapter position, or {@code null} if there is nothing to
+     * prefetch.
+     */
+    @Nullable Uri getMediaUri(int position);
+
+    /**
+     * @return the optional (File) extension of the media at the adapter position, same as the one
+     * used in {@link ExoCreator#createPlayable(Uri, String)}.
+     */
+    @Nullable String getMediaExtension(int position);
+  }
+
+  @NonNull private final ToroExo toro;
+  @NonNull private final Config config;
+  @NonNull private final MediaProvider mediaProvider;
+  @NonNull private final Cache cache;
+  @NonNull private final DataSource.Factory upstreamFactory;
+  @NonNull private final DataSource.Factory manifestFactory;
+  @Nullable private final ManifestCache manifestCache;  // of the DefaultExoCreator, if any.
+  private final long bytesPerItem;
+  private final long maxBytes;
+
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private final HandlerThread thread;
+  private final Handler handler;
+
+  // Main thread only.
+  private final SparseArray<Task> tasks = new SparseArray<>();  // by adapter position
+  private final LinkedHashSet<String> doneKeys = new LinkedHashSet<>();
+  private boolean standbyEnabled;
+  private int standbyPosition = NO_POSITION;
+
+  /**
+   * @param toro the {@link ToroExo} instance.
+   * @param config the {@link Config} whose {@link Cache} is used, see {@link
+   * ToroExo#getCache(Config)}. It must have a Cache.
+   * @param mediaProvider to get the media of an adapter position.
+   * @param bytesPerItem maximum number of bytes to prefetch for an item.
+   * @param maxBytes maximum number of bytes to prefetch for a window.
+   */
+  public MediaPrefetcher(@NonNull ToroExo toro, @NonNull Config config,
+      @NonNull MediaProvider mediaProvider, long bytesPerItem, long maxBytes) {
+    Cache cache = checkNotNull(toro).getCache(config);
+    if (cache == null) throw new IllegalArgumentException("Config has no Cache.");
+    if (bytesPerItem <= 0 || maxBytes <= 0) throw new IllegalArgumentException("Invalid budget.");
+    this.toro = toro;
+    this.config = config;
+    this.mediaProvider = checkNotNull(mediaProvider);
+    this.cache = cache;
+    this.upstreamFactory = DefaultExoCreator.buildUpstreamFactory(toro, config);
+    ExoCreator creator = toro.getCreator(config);
+    if (creator instanceof DefaultExoCreator) {
+      this.manifestFactory = ((DefaultExoCreator) creator).manifestDataSourceFactory;
+      this.manifestCache = ((DefaultExoCreator) creator).manifestCache;
+    } else {
+      this.manifestFactory = upstreamFactory;
+      this.manifestCache = null;
+    }
+    this.bytesPerItem = bytesPerItem;
+    this.maxBytes = maxBytes;
+    this.thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+    this.thread.start();
+    this.handler = new Handler(thread.getLooper());
+  }
+
+  /**
+   * Also keep a player prepared for the item the {@link Container} predicts to be played next:
+   * where a fling lands, or the next item in scroll direction. See
+   * {@link PredictionCallback} and {@link ToroExo#prepareStandby(ExoCreator, Uri,
+   * String)}. The player is created by the {@link ExoCreator} of the {@link Config} used by this
+   * instance, so it is only used if the item's {@link Playable} is created by the same
+   * {@link ExoCreator}. When the prediction changes, the previous standby player is released with
+   * its decoder, unless its item is about to be played.
+   *
+   * @param enabled {@code true} to keep a standby player, {@code false} otherwise.
+   */
+  public void setStandbyEnabled(boolean enabled) {
+    if (this.standbyEnabled && !enabled) {
+      toro.clearStandby();
+      standbyPosition = NO_POSITION;
+    }
+    this.standbyEnabled = enabled;
+  }
+
+  @Override public void onPrefetchWindowChanged(@NonNull Container container, int fromPosition,
+      int toPosition, boolean reverse) {
+    // Cancel the items that left the window, count the budget of the remaining ones.
+    long budget = maxBytes;
+    for (int i = tasks.size() - 1; i >= 0; i--) {
+      int position = tasks.keyAt(i);
+      Task task = tasks.valueAt(i);
+      if (position < fromPosition || position >= toPosition) {
+        task.cancel();
+        tasks.removeAt(i);
+      } else {
+        budget -= task.maxBytes;
+      }
+    }
+
+    // Schedule the new ones, closest to the visible items first.
+    int count = toPosition - fromPosition;
+    for (int i = 0; i < count && budget > 0; i++) {
+      int position = reverse ? toPosition - 1 - i : fromPosition + i;
+      if (tasks.get(position) != null) continue;
+      Uri uri = mediaProvider.getMediaUri(position);
+      if (uri == null || doneKeys.contains(uri.toString())) continue;
+      Task task = new Task(position, uri, mediaProvider.getMediaExtension(position),
+          Math.min(bytesPerItem, budget));
+      tasks.put(position, task);
+      budget -= task.maxBytes;
+      handler.post(task);
+    }
+  }
+
+  @Override public void onPredictionChanged(@NonNull Container container, int position,
+      boolean fling) {
+    if (!standbyEnabled || position == standbyPosition) return;
+    // Next item in scroll direction: keep the current standby while its item is attached, as it
+    // is about to be played. A fling goes past it, so the fling target is prepared instead.
+    if (!fling && standbyPosition != NO_POSITION && toro.hasStandby()
+        && container.findViewHolderForAdapterPosition(standbyPosition) != null) {
+      return;
+    }
+    Uri uri = position != NO_POSITION ? mediaProvider.getMediaUri(position) : null;
+    if (uri == null) {
+      toro.clearStandby();  // Also gives its decoder back to the DecoderBudget.
+      standbyPosition = NO_POSITION;
+      return;
+    }
+    standbyPosition = position;
+    toro.prepareStandby(toro.getCreator(config), uri, mediaProvider.getMediaExtension(position));
+  }
+
+  /**
+   * Cancel all prefetching and stop the background thread. This instance should not be used
+   * after this call.
+   */
+  public void release() {
+    setStandbyEnabled(false);
+    for (int i = 0, size = tasks.size(); i < size; i++) {
+      tasks.valueAt(i).cancel();
+    }
+    tasks.clear();
+    handler.removeCallbacksAndMessages(null);
+    mainHandler.removeCallbacksAndMessages(null);
+    thread.quit();
+  }
+
+  // Called on the main thread when a Task finishes, successfully or not.
+  void onTaskFinished(Task task, boolean success) {
+    if (tasks.get(task.position) == task) tasks.remove(task.position);
+    if (!success) return;
+    doneKeys.add(task.uri.toString());
+    if (doneKeys.size() > MAX_DONE_KEYS) {
+      Iterator<String> iterator = doneKeys.iterator();
+      iterator.next();
+      iterator.remove();
+    }
+  }
+
+  final class Task implements Runnable {
+
+    final int position;
+    final Uri uri;
+    final String ext;
+    final long maxBytes;
+    volatile boolean canceled;
+
+    Task(int position, Uri uri, @Nullable String ext, long maxBytes) {
+      this.position = position;
+      this.uri = uri;
+      this.ext = ext;
+      this.maxBytes = maxBytes;
+    }
+
+    void cancel() {
+      canceled = true;
+      handler.removeCallbacks(this);
+    }
+
+    // Background thread.
+    @Override public void run() {
+      boolean success = false;
+      try {
+        CacheDataSource dataSource = new CacheDataSource(cache, upstreamFactory.createDataSource(),
+            CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR);
+        int type = isEmpty(ext) ? inferContentType(uri) : inferContentType("." + ext);
+        if (type == C.TYPE_OTHER) {
+          success = load(dataSource, new DataSpec(uri, 0, maxBytes, null), maxBytes) >= 0;
+        } else if (type == C.TYPE_HLS) {
+          success = loadHls(dataSource);
+        } else if (type == C.TYPE_DASH) {
+          success = loadDash(dataSource);
+        } else if (type == C.TYPE_SS) {
+          success = loadSs(dataSource);
+        }
+      } catch (IOException e) {
+        Log.w(TAG, "Prefetch failed: " + uri, e);
+      } catch (RuntimeException e) {
+        Log.w(TAG, "Prefetch failed: " + uri, e);
+      }
+
+      final boolean result = success;
+      mainHandler.post(new Runnable() {
+        @Override public void run() {
+          onTaskFinished(Task.this, result);
+        }
+      });
+    }
+
+    private boolean loadHls(CacheDataSource dataSource) throws IOException {
+      HlsPlaylistParser parser = new HlsPlaylistParser();
+      DataSource playlistSource = manifestFactory.createDataSource();
+      HlsPlaylist playlist = parse(parser, playlistSource, uri);
+      if (playlist instanceof HlsMasterPlaylist) {
+        HlsMasterPlaylist master = (HlsMasterPlaylist) playlist;
+        if (master.variants.isEmpty() || canceled) return false;
+        HlsMasterPlaylist.HlsUrl variant = master.variants.get(0);
+        for (HlsMasterPlaylist.HlsUrl candidate : master.variants) {
+          if (candidate.format.bitrate < variant.format.bitrate) variant = candidate;
+        }
+        playlist = parse(parser, playlistSource, UriUtil.resolveToUri(master.baseUri, variant.url));
+      }
+
+      if (!(playlist instanceof HlsMediaPlaylist) || canceled) return false;
+      HlsMediaPlaylist media = (HlsMediaPlaylist) playlist;
+      if (media.segments.isEmpty()) return false;
+      HlsMediaPlaylist.Segment segment = media.segments.get(0);
+      long length = segment.byterangeLength == C.LENGTH_UNSET ? maxBytes
+          : Math.min(segment.byterangeLength, maxBytes);
+      DataSpec dataSpec = new DataSpec(UriUtil.resolveToUri(media.baseUri, segment.url),
+          segment.byterangeOffset, length, null);
+      return load(dataSource, dataSpec, length) >= 0;
+    }
+
+    private boolean loadDash(CacheDataSource dataSource) throws IOException {
+      DashManifest manifest = getManifest(DashManifest.class, new DashManifestParser());
+      if (manifest == null || manifest.dynamic || manifest.getPeriodCount() == 0) return false;
+      Representation representation = null;
+      for (AdaptationSet adaptationSet : manifest.getPeriod(0).adaptationSets) {
+        if (adaptationSet.type != C.TRACK_TYPE_VIDEO) continue;
+        for (Representation candidate : adaptationSet.representations) {
+          if (representation == null || candidate.format.bitrate < representation.format.bitrate) {
+            representation = candidate;
+          }
+        }
+      }
+      if (representation == null) return false;
+
+      // Same DataSpecs as DefaultDashChunkSource, so that the player finds them in the Cache.
+      String cacheKey = representation.getCacheKey();
+      long budget = maxBytes;
+      RangedUri initUri = representation.getInitializationUri();
+      if (initUri != null) {
+        budget = load(dataSource, dataSpecOf(initUri, representation.baseUrl, cacheKey, budget),
+            budget);
+        if (budget <= 0) return budget == 0;
+      }
+      DashSegmentIndex index = representation.getIndex();
+      if (index == null) {
+        // Single segment: the index and the first samples are at the beginning of the file.
+        DataSpec dataSpec = new DataSpec(Uri.parse(representation.baseUrl), 0, budget, cacheKey);
+        return load(dataSource, dataSpec, budget) >= 0;
+      }
+      RangedUri segmentUri = index.getSegmentUrl(index.getFirstSegmentNum());
+      return load(dataSource, dataSpecOf(segmentUri, representation.baseUrl, cacheKey, budget),
+          budget) >= 0;
+    }
+
+    private boolean loadSs(CacheDataSource dataSource) throws IOException {
+      SsManifest manifest = getManifest(SsManifest.class, new SsManifestParser());
+      if (manifest == null || manifest.isLive) return false;
+      SsManifest.StreamElement element = null;
+      int track = C.INDEX_UNSET;
+      for (SsManifest.StreamElement candidate : manifest.streamElements) {
+        if (candidate.type != C.TRACK_TYPE_VIDEO || candidate.chunkCount == 0) continue;
+        for (int i = 0; i < candidate.formats.length; i++) {
+          if (element == null
+              || candidate.formats[i].bitrate < element.formats[track].bitrate) {
+            element = candidate;
+            track = i;
+          }
+        }
+      }
+      if (element == null) return false;
+      // Same DataSpec as DefaultSsChunkSource, so that the player finds it in the Cache.
+      DataSpec dataSpec = new DataSpec(element.buildRequestUri(track, 0), 0, maxBytes, null);
+      return load(dataSource, dataSpec, maxBytes) >= 0;
+    }
+
+    // The cached manifest if any, otherwise load it and give it to the players through the cache.
+    @Nullable private <T> T getManifest(Class<T> type, ParsingLoadable.Parser<T> parser)
+        throws IOException {
+      String key = ManifestCache.keyOf(uri, ext);
+      Object cached = manifestCache != null ? manifestCache.get(key) : null;
+      if (type.isInstance(cached)) return type.cast(cached);
+      T manifest = parse(parser, manifestFactory.createDataSource(), uri);
+      if (manifest == null || canceled) return null;
+      if (manifestCache != null) manifestCache.putIfStatic(key, manifest);
+      return manifest;
+    }
+
+    private <T> T parse(ParsingLoadable.Parser<T> parser, DataSource dataSource, Uri uri)
+        throws IOException {
+      DataSourceInputStream inputStream =
+          new DataSourceInputStream(dataSource, new DataSpec(uri, DataSpec.FLAG_ALLOW_GZIP));
+      try {
+        inputStream.open();
+        // As ParsingLoadable: relative Uris are resolved against the Uri after redirects.
+        Uri resolved = dataSource.getUri();
+        return parser.parse(resolved != null ? resolved : uri, inputStream);
+      } finally {
+        Util.closeQuietly(inputStream);
+      }
+    }
+
+    private DataSpec dataSpecOf(RangedUri rangedUri, String baseUrl, String cacheKey,
+        long budget) {
+      long length =
+          rangedUri.length == C.LENGTH_UNSET ? budget : Math.min(rangedUri.length, budget);
+      return new DataSpec(rangedUri.resolveUri(baseUrl), rangedUri.start, length, cacheKey);
+    }
+
+    // Read through the CacheDataSource, so that the data is written to the Cache. Returns what is
+    // left of the budget, or -1 if canceled.
+    private long load(CacheDataSource dataSource, DataSpec dataSpec, long budget)
+        throws IOException {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      long remaining = dataSpec.length;
+      try {
+        dataSource.open(dataSpec);
+        while (remaining > 0 && !canceled) {
+          int read = dataSource.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+          if (read == C.RESULT_END_OF_INPUT) break;
+          remaining -= read;
+          budget -= read;
+        }
+      } finally {
+        Util.closeQuietly(dataSource);
+      }
+      return canceled ? -1 : Math.max(budget, 0);
+    }
+  }
+}
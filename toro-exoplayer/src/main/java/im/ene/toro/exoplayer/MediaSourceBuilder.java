@@ -29,6 +29,7 @@ import com.google.android.exoplayer2.source.MediaSource;
 import com.google.android.exoplayer2.source.MediaSourceEventListener;
 import com.google.android.exoplayer2.source.dash.DashMediaSource;
 import com.google.android.exoplayer2.source.dash.DefaultDashChunkSource;
+import com.google.android.exoplayer2.source.hls.HlsDataSourceFactory;
 import com.google.android.exoplayer2.source.hls.HlsMediaSource;
 import com.google.android.exoplayer2.source.smoothstreaming.DefaultSsChunkSource;
 import com.google.android.exoplayer2.source.smoothstreaming.SsMediaSource;
@@ -38,6 +39,10 @@ import static android.text.TextUtils.isEmpty;
 import static com.google.android.exoplayer2.util.Util.inferContentType;
 
 /**
+ * Note: {@link DefaultExoCreator} calls a custom builder on the main thread. To let it build the
+ * {@link MediaSource} on a background thread before it is played, implement {@link ThreadSafe}.
+ * {@link #DEFAULT} and {@link #LOOPING} may always be called on a background thread.
+ *
  * @author eneim (2018/01/24).
  * @since 3.4.0
  */
@@ -50,6 +55,17 @@ public interface MediaSourceBuilder {
       @NonNull DataSource.Factory mediaDataSourceFactory,
       @Nullable MediaSourceEventListener listener);
 
+  /**
+   * A {@link MediaSourceBuilder} that doesn't depend on the calling thread, so that
+   * {@link DefaultExoCreator} can call it on a background thread. The {@link Handler} passed to it
+   * is always of the main thread.
+   *
+   * @since 3.5.3
+   */
+  interface ThreadSafe extends MediaSourceBuilder {
+
+  }
+
   MediaSourceBuilder DEFAULT = new MediaSourceBuilder() {
     @NonNull @Override
     public MediaSource buildMediaSource(@NonNull Context context, @NonNull Uri uri,
@@ -67,8 +83,15 @@ public interface MediaSourceBuilder {
               new DefaultDashChunkSource.Factory(mediaDataSourceFactory), manifestDataSourceFactory)
               .createMediaSource(uri, handler, listener);
         case C.TYPE_HLS:
-          return new HlsMediaSource.Factory(mediaDataSourceFactory) //
-              .createMediaSource(uri, handler, listener);
+          // Playlists are loaded like the manifests of other types, segments like the media.
+          final DataSource.Factory playlistFactory = manifestDataSourceFactory;
+          final DataSource.Factory segmentFactory = mediaDataSourceFactory;
+          return new HlsMediaSource.Factory(new HlsDataSourceFactory() {
+            @Override public DataSource createDataSource(int dataType) {
+              return dataType == C.DATA_TYPE_MANIFEST ? playlistFactory.createDataSource()
+                  : segmentFactory.createDataSource();
+            }
+          }).createMediaSource(uri, handler, listener);
         case C.TYPE_OTHER:
           return new ExtractorMediaSource.Factory(mediaDataSourceFactory) //
               .createMediaSource(uri, handler, listener);
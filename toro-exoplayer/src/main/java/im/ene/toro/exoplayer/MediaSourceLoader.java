@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.exoplayer;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import com.google.android.exoplayer2.source.MediaSource;
+import com.google.android.exoplayer2.source.MediaSourceEventListener;
+
+/**
+ * Build {@link MediaSource}s on a background thread, so that the main thread doesn't pay for the
+ * content type inference and the {@link MediaSourceBuilder} while the
+ * {@link im.ene.toro.widget.Container} is scrolling. Results are delivered on the main thread.
+ *
+ * Only used with {@link DefaultExoCreator} itself, whose {@link
+ * DefaultExoCreator#createMediaSource(Uri, String)} doesn't depend on the calling thread, and only
+ * if its {@link MediaSourceBuilder} is {@link MediaSourceBuilder#DEFAULT},
+ * {@link MediaSourceBuilder#LOOPING} or a {@link MediaSourceBuilder.ThreadSafe}. Other
+ * {@link ExoCreator}s and {@link MediaSourceBuilder}s are always called on the main thread.
+ *
+ * @author eneim (2018/06/21).
+ */
+final class MediaSourceLoader {
+
+  private static final String TAG = "ToroExo:Source";
+
+  interface Callback {
+
+    // Called on the main thread, unless the Task is cancelled.
+    void onMediaSourceLoaded(@NonNull Task task, @Nullable MediaSource mediaSource);
+  }
+
+  private static Handler worker;  // lazily started, lives as long as the process.
+  private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+  private MediaSourceLoader() {
+    throw new RuntimeException("Meh!");
+  }
+
+  static boolean supports(@NonNull ExoCreator creator) {
+    if (!isDefault(creator)) return false;
+    MediaSourceBuilder builder = ((DefaultExoCreator) creator).mediaSourceBuilder;
+    return builder == MediaSourceBuilder.DEFAULT || builder == MediaSourceBuilder.LOOPING
+        || builder instanceof MediaSourceBuilder.ThreadSafe;
+  }
+
+  // Not a subclass, as it may override createMediaSource().
+  static boolean isDefault(@NonNull ExoCreator creator) {
+    return creator.getClass() == DefaultExoCreator.class;
+  }
+
+  // The background thread of this library, also used for other short tasks. Any thread.
+  @NonNull static synchronized Handler getWorker() {
+    if (worker == null) {
+      HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+      thread.start();
+      worker = new Handler(thread.getLooper());
+    }
+    return worker;
+  }
+
+  // Main thread only.
+  @NonNull static Task load(@NonNull ExoCreator creator, @NonNull Uri uri,
+      @Nullable String fileExt, @Nullable MediaSourceEventListener listener,
+      @NonNull Callback callback) {
+    Task task = new Task(creator, uri, fileExt, listener, callback);
+    getWorker().post(task);
+    return task;
+  }
+
+  static final class Task implements Runnable {
+
+    final ExoCreator creator;
+    final Uri uri;
+    final String fileExt;
+    final MediaSourceEventListener listener;  // if null, the creator's one is used.
+    final Callback callback;
+    volatile boolean canceled;
+
+    Task(ExoCreator creator, Uri uri, String fileExt, MediaSourceEventListener listener,
+        Callback callback) {
+      this.creator = creator;
+      this.uri = uri;
+      this.fileExt = fileExt;
+      this.listener = listener;
+      this.callback = callback;
+    }
+
+    // Main thread only.
+    void cancel() {
+      canceled = true;
+      if (worker != null) worker.removeCallbacks(this);
+    }
+
+    // Worker thread.
+    @Override public void run() {
+      if (canceled) return;
+      MediaSource source = null;
+      try {
+        source = listener != null
+            ? ((DefaultExoCreator) creator).createMediaSource(uri, fileExt, listener)
+            : creator.createMediaSource(uri, fileExt);
+      } catch (RuntimeException error) {
+        // Let the main thread try again, so that the error is thrown where it used to be.
+        Log.w(TAG, "Failed to create MediaSource: " + uri, error);
+      }
+
+      final MediaSource result = source;
+      mainHandler.post(new Runnable() {
+        @Override public void run() {
+          if (!canceled) callback.onMediaSourceLoaded(Task.this, result);
+        }
+      });
+    }
+  }
+}
@@ -38,6 +38,7 @@ import im.ene.toro.annotations.RemoveIn;
 import im.ene.toro.media.PlaybackInfo;
 import im.ene.toro.media.VolumeInfo;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -264,92 +265,143 @@ public interface Playable {
   /** List of EventListener */
   class EventListeners extends HashSet<EventListener> implements EventListener {
 
+    private static final EventListener[] EMPTY = new EventListener[0];
+
+    // Copy of this Set, dropped on every change and rebuilt on the next event. Dispatching iterates
+    // it, so it doesn't allocate, and a listener can be added or removed during a dispatch.
+    private EventListener[] snapshot = EMPTY;
+
     EventListeners() {
     }
 
+    @Override public boolean add(EventListener eventListener) {
+      boolean changed = super.add(eventListener);
+      if (changed) snapshot = null;
+      return changed;
+    }
+
+    @Override public boolean remove(Object o) {
+      boolean changed = super.remove(o);
+      if (changed) snapshot = null;
+      return changed;
+    }
+
+    @Override public void clear() {
+      super.clear();
+      snapshot = EMPTY;
+    }
+
+    // removeAll, retainAll and Iterator#remove() all remove through the Iterator.
+    @NonNull @Override public Iterator<EventListener> iterator() {
+      final Iterator<EventListener> iterator = super.iterator();
+      return new Iterator<EventListener>() {
+        @Override public boolean hasNext() {
+          return iterator.hasNext();
+        }
+
+        @Override public EventListener next() {
+          return iterator.next();
+        }
+
+        @Override public void remove() {
+          iterator.remove();
+          snapshot = null;
+        }
+      };
+    }
+
+    private EventListener[] listeners() {
+      EventListener[] snapshot = this.snapshot;
+      if (snapshot == null) {
+        snapshot = toArray(new EventListener[size()]);
+        this.snapshot = snapshot;
+      }
+      return snapshot;
+    }
+
     @Override public void onVideoSizeChanged(int width, int height, int unAppliedRotationDegrees,
         float pixelWidthHeightRatio) {
-      for (EventListener eventListener : this) {
+      for (EventListener eventListener : listeners()) {
         eventListener.onVideoSizeChanged(width, height, unAppliedRotationDegrees,
             pixelWidthHeightRatio);
       }
     }
 
     @Override public void onRenderedFirstFrame() {
-      for (EventListener eventListener : this) {
+      for (EventListener eventListener : listeners()) {
         eventListener.onRenderedFirstFrame();
       }
     }
 
     @Override public void onTimelineChanged(Timeline timeline, Object manifest, int reason) {
-      for (EventListener eventListener : this) {
+      for (EventListener eventListener : listeners()) {
         eventListener.onTimelineChanged(timeline, manifest, reason);
       }
     }
 
     @Override
     public void onTracksChanged(TrackGroupArray trackGroups, TrackSelectionArray trackSelections) {
-      for (EventListener eventListener : this) {
+      for (EventListener eventListener : listeners()) {
         eventListener.onTracksChanged(trackGroups, trackSelections);
       }
     }
 
     @Override public void onLoadingChanged(boolean isLoading) {
-      for (EventListener eventListener : this) {
+      for (EventListener eventListener : listeners()) {
         eventListener.onLoadingChanged(isLoading);
       }
     }
 
     @Override public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
-      for (EventListener eventListener : this) {
+      for (EventListener eventListener : listeners()) {
         eventListener.onPlayerStateChanged(playWhenReady, playbackState);
       }
     }
 
     @Override public void onRepeatModeChanged(int repeatMode) {
-      for (EventListener eventListener : this) {
+      for (EventListener eventListener : listeners()) {
         eventListener.onRepeatModeChanged(repeatMode);
       }
     }
 
     @Override public void onShuffleModeEnabledChanged(boolean shuffleModeEnabled) {
-      for (EventListener eventListener : this) {
+      for (EventListener eventListener : listeners()) {
         eventListener.onShuffleModeEnabledChanged(shuffleModeEnabled);
       }
     }
 
     @Override public void onPlayerError(ExoPlaybackException error) {
-      for (EventListener eventListener : this) {
+      for (EventListener eventListener : listeners()) {
         eventListener.onPlayerError(error);
       }
     }
 
     @Override public void onPositionDiscontinuity(int reason) {
-      for (EventListener eventListener : this) {
+      for (EventListener eventListener : listeners()) {
         eventListener.onPositionDiscontinuity(reason);
       }
     }
 
     @Override public void onPlaybackParametersChanged(PlaybackParameters playbackParameters) {
-      for (EventListener eventListener : this) {
+      for (EventListener eventListener : listeners()) {
         eventListener.onPlaybackParametersChanged(playbackParameters);
       }
     }
 
     @Override public void onSeekProcessed() {
-      for (EventListener eventListener : this) {
+      for (EventListener eventListener : listeners()) {
         eventListener.onSeekProcessed();
       }
     }
 
     @Override public void onCues(List<Cue> cues) {
-      for (EventListener eventListener : this) {
+      for (EventListener eventListener : listeners()) {
         eventListener.onCues(cues);
       }
     }
 
     @Override public void onMetadata(Metadata metadata) {
-      for (EventListener eventListener : this) {
+      for (EventListener eventListener : listeners()) {
         eventListener.onMetadata(metadata);
       }
     }
@@ -25,6 +25,7 @@ import com.google.android.exoplayer2.PlaybackParameters;
 import com.google.android.exoplayer2.Player;
 import com.google.android.exoplayer2.SimpleExoPlayer;
 import com.google.android.exoplayer2.source.MediaSource;
+import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
 import com.google.android.exoplayer2.ui.PlayerView;
 import im.ene.toro.ToroPlayer;
 import im.ene.toro.ToroUtil;
@@ -66,6 +67,14 @@ class PlayableImpl implements Playable {
   protected PlayerView playerView; // on-demand, not always required.
 
   private boolean listenerApplied = false;
+  private ToroExo.Standby standby;  // taken from ToroExo, until its Surface is released.
+  private MediaSourceLoader.Task pendingSource;  // MediaSource being built on a worker thread.
+  private MediaSource loadedSource; // built, but not prepared yet.
+  private boolean playWhenLoaded;  // play() is called before the MediaSource is built.
+  private int viewportWidth;  // in pixels, 0 = no limit.
+  private int viewportHeight;
+  private PlaybackMetrics metrics;  // of the current or last session.
+  private PlaybackMetrics.Collector metricsCollector;  // of the current session.
 
   PlayableImpl(ExoCreator creator, Uri uri, String fileExt) {
     this.creator = creator;
@@ -74,14 +83,30 @@ class PlayableImpl implements Playable {
   }
 
   @CallSuper @Override public void prepare(boolean prepareSource) {
+    boolean adopted = false;
     if (player == null) {
-      player = with(checkNotNull(creator.getContext(), "ExoCreator has no Context")) //
-          .requestPlayer(creator);
+      ToroExo toro = with(checkNotNull(creator.getContext(), "ExoCreator has no Context"));
+      standby = toro.takeStandby(creator, mediaUri, fileExt);
+      if (standby != null) {
+        // Already prepared: keep its MediaSource so it is not prepared again, and its session.
+        adopted = true;
+        player = standby.player;
+        mediaSource = standby.mediaSource;
+        metrics = standby.metrics;
+        metricsCollector = standby.collector; // already listens to the player and the source.
+      } else {
+        player = toro.requestPlayer(creator);
+        metrics = new PlaybackMetrics(mediaUri);
+        metricsCollector = new PlaybackMetrics.Collector(metrics);
+        player.addVideoDebugListener(metricsCollector);
+      }
+      listeners.add(metricsCollector);
       if (player instanceof ToroExoPlayer && volumeChangeListeners != null) {
         for (ToroPlayer.OnVolumeChangeListener listener : volumeChangeListeners) {
           ((ToroExoPlayer) player).addOnVolumeChangeListener(listener);
         }
       }
+      applyViewportSize();
     }
 
     if (!listenerApplied) {
@@ -93,16 +118,37 @@ class PlayableImpl implements Playable {
     }
 
     boolean haveResumePosition = playbackInfo.getResumeWindow() != C.INDEX_UNSET;
-    if (haveResumePosition) {
+    // A standby is buffered from its default position, seeking there again would drop its buffer.
+    if (haveResumePosition && !(adopted && isAtResumePosition())) {
       player.seekTo(playbackInfo.getResumeWindow(), playbackInfo.getResumePosition());
     }
 
     if (prepareSource) {
       ensurePlayerView();
       ensureMediaSource();
+    } else if (mediaSource == null && loadedSource == null && pendingSource == null
+        && MediaSourceLoader.supports(creator)) {
+      // Build the MediaSource ahead of play(), off the main thread.
+      pendingSource = MediaSourceLoader.load(creator, mediaUri, fileExt, metricsCollector,
+          sourceCallback);
     }
   }
 
+  private final MediaSourceLoader.Callback sourceCallback = new MediaSourceLoader.Callback() {
+    @Override public void onMediaSourceLoaded(@NonNull MediaSourceLoader.Task task,
+        @Nullable MediaSource mediaSource) {
+      if (task != pendingSource) return;
+      pendingSource = null;
+      loadedSource = mediaSource; // if null, ensureMediaSource() will try again.
+      if (playWhenLoaded && player != null) {
+        playWhenLoaded = false;
+        ensurePlayerView();
+        ensureMediaSource();
+        player.setPlayWhenReady(true);
+      }
+    }
+  };
+
   @CallSuper @Override public void setPlayerView(@Nullable PlayerView playerView) {
     if (this.playerView == playerView) return;
     if (playerView == null) {
@@ -110,6 +156,7 @@ class PlayableImpl implements Playable {
     } else {
       if (this.player != null) {
         PlayerView.switchTargetView(this.player, this.playerView, playerView);
+        releaseStandbySurface();  // The PlayerView replaced it.
       }
     }
 
@@ -122,13 +169,21 @@ class PlayableImpl implements Playable {
 
   @CallSuper @Override public void play() {
     checkNotNull(player, "Playable#play(): Player is null!");
+    if (metricsCollector != null) metricsCollector.onPlayRequested();
     ensurePlayerView();
+    setActive(true);
+    if (mediaSource == null && loadedSource == null && pendingSource != null) {
+      playWhenLoaded = true;  // Will start once the MediaSource is built.
+      return;
+    }
     ensureMediaSource();
     player.setPlayWhenReady(true);
   }
 
   @CallSuper @Override public void pause() {
+    playWhenLoaded = false;
     checkNotNull(player, "Playable#pause(): Player is null!").setPlayWhenReady(false);
+    setActive(false);
   }
 
   @CallSuper @Override public void reset() {
@@ -137,15 +192,29 @@ class PlayableImpl implements Playable {
     // TODO [20180214] double check this when ExoPlayer 2.7.0 is released.
     // TODO [20180326] reusable MediaSource will be added after ExoPlayer 2.7.1.
     this.mediaSource = null; // so it will be re-prepared when play() is called.
+    cancelPendingSource();
   }
 
   @CallSuper @Override public void release() {
     this.setPlayerView(null);
     if (this.player != null) {
       this.player.stop(true);
+      if (standby != null) {
+        player.clearVideoSurface(standby.surface);
+        releaseStandbySurface();
+      }
       if (this.player instanceof ToroExoPlayer) {
         ((ToroExoPlayer) this.player).clearOnVolumeChangeListener();
       }
+      // The player may be reused by another Playable, with another PlayerView.
+      setViewportSize(0, 0);
+      setActive(false);
+      if (metricsCollector != null) {
+        metricsCollector.finish();
+        player.removeVideoDebugListener(metricsCollector);
+        listeners.remove(metricsCollector);
+        metricsCollector = null;
+      }
       if (listenerApplied) {
         player.removeListener(listeners);
         player.removeVideoListener(listeners);
@@ -158,6 +227,7 @@ class PlayableImpl implements Playable {
     }
     this.player = null;
     this.mediaSource = null;
+    cancelPendingSource();
   }
 
   @CallSuper @NonNull @Override public PlaybackInfo getPlaybackInfo() {
@@ -241,10 +311,61 @@ class PlayableImpl implements Playable {
     }
   }
 
+  // A play() waiting for the MediaSource is not playing yet, it is tracked by playWhenLoaded.
   @Override public boolean isPlaying() {
     return player != null && player.getPlayWhenReady();
   }
 
+  /**
+   * @return the {@link PlaybackMetrics} of the current session, or of the last one after
+   * {@link #release()}. {@code null} if this {@link Playable} was never prepared.
+   * @since 3.5.3
+   */
+  @Nullable public final PlaybackMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Limit the video quality to the given size, if the player has its own TrackSelector: the
+   * selected video is then the smallest one that fills the viewport. Does nothing otherwise.
+   *
+   * @param width viewport width in pixels, or 0 to remove the limit.
+   * @param height viewport height in pixels, or 0 to remove the limit.
+   */
+  final void setViewportSize(int width, int height) {
+    if (width <= 0 || height <= 0) width = height = 0;
+    if (this.viewportWidth == width && this.viewportHeight == height) return;
+    this.viewportWidth = width;
+    this.viewportHeight = height;
+    applyViewportSize();
+  }
+
+  // Give the buffering priority to this player, if it uses a ToroLoadControl.
+  private void setActive(boolean active) {
+    if (player instanceof ToroExoPlayer && ((ToroExoPlayer) player).toroLoadControl != null) {
+      ((ToroExoPlayer) player).toroLoadControl.setActive(active);
+    }
+  }
+
+  private void applyViewportSize() {
+    if (!(player instanceof ToroExoPlayer)) return;
+    DefaultTrackSelector selector = ((ToroExoPlayer) player).viewportTrackSelector;
+    if (selector == null) return;
+    DefaultTrackSelector.Parameters parameters = selector.getParameters();
+    if (viewportWidth == 0) {
+      if (parameters.viewportWidth == Integer.MAX_VALUE) return;
+      selector.setParameters(parameters.buildUpon().clearViewportSizeConstraints().build());
+    } else {
+      if (parameters.viewportWidth == viewportWidth
+          && parameters.viewportHeight == viewportHeight) {
+        return;
+      }
+      // Track selection is invalidated, so the new limit applies to the next loaded chunks.
+      selector.setParameters(parameters.buildUpon() //
+          .setViewportSize(viewportWidth, viewportHeight, false).build());
+    }
+  }
+
   final void updatePlaybackInfo() {
     if (player == null || player.getPlaybackState() == Player.STATE_IDLE) return;
     playbackInfo.setResumeWindow(player.getCurrentWindowIndex());
@@ -254,12 +375,42 @@ class PlayableImpl implements Playable {
   }
 
   private void ensurePlayerView() {
-    if (playerView != null && playerView.getPlayer() != player) playerView.setPlayer(player);
+    if (playerView != null && playerView.getPlayer() != player) {
+      playerView.setPlayer(player);
+      releaseStandbySurface();
+    }
+  }
+
+  private boolean isAtResumePosition() {
+    return player.getCurrentWindowIndex() == playbackInfo.getResumeWindow()
+        && player.getCurrentPosition() == playbackInfo.getResumePosition();
+  }
+
+  private void releaseStandbySurface() {
+    if (standby != null) {
+      standby.releaseSurface();
+      standby = null;
+    }
+  }
+
+  private void cancelPendingSource() {
+    if (pendingSource != null) {
+      pendingSource.cancel();
+      pendingSource = null;
+    }
+    loadedSource = null;
+    playWhenLoaded = false;
   }
 
   private void ensureMediaSource() {
     if (mediaSource == null) {  // Only actually prepare the source when play() is called.
-      mediaSource = creator.createMediaSource(mediaUri, fileExt);
+      mediaSource = loadedSource;
+      loadedSource = null;
+      if (mediaSource == null) {
+        mediaSource = metricsCollector != null && MediaSourceLoader.isDefault(creator)
+            ? ((DefaultExoCreator) creator).createMediaSource(mediaUri, fileExt, metricsCollector)
+            : creator.createMediaSource(mediaUri, fileExt);
+      }
       player.prepare(mediaSource, playbackInfo.getResumeWindow() == C.INDEX_UNSET, false);
     }
   }
@@ -0,0 +1,388 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.exoplayer;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.view.Surface;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ExoPlaybackException;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.decoder.DecoderCounters;
+import com.google.android.exoplayer2.source.MediaSourceEventListener;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.video.VideoRendererEventListener;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Quality of experience of one playback session of a {@link Playable}: from
+ * {@link Playable#prepare(boolean)} to {@link Playable#release()}. Values are updated on the main
+ * thread while the session is running, see {@link ExoPlayerViewHelper#getMetrics()}.
+ *
+ * Finished sessions of the players in a {@link im.ene.toro.widget.Container} are collected by
+ * {@link ToroExo}, and can be exported as a {@link Batch} by
+ * {@link ToroExo#drainMetrics(im.ene.toro.widget.Container)}.
+ *
+ * @author eneim (2018/06/26).
+ * @since 3.5.3
+ */
+@SuppressWarnings({ "WeakerAccess", "unused" }) //
+public final class PlaybackMetrics {
+
+  @NonNull final Uri uri;
+  long startTimeMs = C.TIME_UNSET;  // SystemClock.elapsedRealtime() at the first play request.
+
+  long joinTimeMs = C.TIME_UNSET;
+  int rebufferCount;
+  long rebufferTimeMs;
+  long playTimeMs;
+  int bitrateSwitchCount;
+  int droppedFrames;
+  long bytesLoaded;
+  boolean failed;
+  boolean recorded;  // by ToroExo, once the session is finished.
+
+  PlaybackMetrics(@NonNull Uri uri) {
+    this.uri = uri;
+  }
+
+  @NonNull public Uri getUri() {
+    return uri;
+  }
+
+  /**
+   * @return time from the first {@link Playable#play()} to the first frame shown while playing in
+   * milliseconds, or {@link C#TIME_UNSET} if there was none. If a frame was rendered before, for
+   * example by a player prepared ahead of time, this is the time until the playback starts.
+   */
+  public long getJoinTimeMs() {
+    return joinTimeMs;
+  }
+
+  /**
+   * @return number of times the playback stalled to buffer after it started.
+   */
+  public int getRebufferCount() {
+    return rebufferCount;
+  }
+
+  public long getRebufferTimeMs() {
+    return rebufferTimeMs;
+  }
+
+  /**
+   * @return time spent playing, excluding rebuffering, in milliseconds.
+   */
+  public long getPlayTimeMs() {
+    return playTimeMs;
+  }
+
+  /**
+   * @return part of the time spent rebuffering, over the time the user wanted to watch.
+   */
+  public float getRebufferRatio() {
+    long total = playTimeMs + rebufferTimeMs;
+    return total > 0 ? rebufferTimeMs / (float) total : 0.f;
+  }
+
+  /**
+   * @return number of video format changes after the first one, which are mostly caused by
+   * adaptive streaming.
+   */
+  public int getBitrateSwitchCount() {
+    return bitrateSwitchCount;
+  }
+
+  public int getDroppedFrames() {
+    return droppedFrames;
+  }
+
+  /**
+   * @return bytes loaded by the {@link com.google.android.exoplayer2.source.MediaSource}. Only
+   * counted for the {@link com.google.android.exoplayer2.source.MediaSource}s created by a
+   * {@link DefaultExoCreator}.
+   */
+  public long getBytesLoaded() {
+    return bytesLoaded;
+  }
+
+  /**
+   * @return {@code true} if a player error happened during this session.
+   */
+  public boolean hasFailed() {
+    return failed;
+  }
+
+  /**
+   * @return {@code true} if a player error happened before the first frame was rendered.
+   */
+  public boolean isStartupFailure() {
+    return failed && joinTimeMs == C.TIME_UNSET;
+  }
+
+  @Override public String toString() {
+    return "ToroExo:Metrics{" + "uri=" + uri + ", joinTimeMs=" + joinTimeMs + ", rebufferCount="
+        + rebufferCount + ", rebufferTimeMs=" + rebufferTimeMs + ", playTimeMs=" + playTimeMs
+        + ", bitrateSwitchCount=" + bitrateSwitchCount + ", droppedFrames=" + droppedFrames
+        + ", bytesLoaded=" + bytesLoaded + ", failed=" + failed + '}';
+  }
+
+  /**
+   * Finished {@link PlaybackMetrics} of a {@link im.ene.toro.widget.Container}, in the order they
+   * finished, with some aggregated values.
+   */
+  public static final class Batch {
+
+    static final Batch EMPTY = new Batch(Collections.<PlaybackMetrics>emptyList());
+
+    @NonNull private final List<PlaybackMetrics> items;
+
+    Batch(@NonNull List<PlaybackMetrics> items) {
+      this.items = Collections.unmodifiableList(new ArrayList<>(items));
+    }
+
+    @NonNull public List<PlaybackMetrics> getItems() {
+      return items;
+    }
+
+    public int getCount() {
+      return items.size();
+    }
+
+    public int getStartupFailureCount() {
+      int count = 0;
+      for (PlaybackMetrics item : items) {
+        if (item.isStartupFailure()) count++;
+      }
+      return count;
+    }
+
+    /**
+     * @return the mean join time of the sessions those rendered a frame, or {@link C#TIME_UNSET}
+     * if there is none.
+     */
+    public long getMeanJoinTimeMs() {
+      long total = 0;
+      int count = 0;
+      for (PlaybackMetrics item : items) {
+        if (item.joinTimeMs != C.TIME_UNSET) {
+          total += item.joinTimeMs;
+          count++;
+        }
+      }
+      return count > 0 ? total / count : C.TIME_UNSET;
+    }
+
+    public float getRebufferRatio() {
+      long rebuffer = 0;
+      long total = 0;
+      for (PlaybackMetrics item : items) {
+        rebuffer += item.rebufferTimeMs;
+        total += item.rebufferTimeMs + item.playTimeMs;
+      }
+      return total > 0 ? rebuffer / (float) total : 0.f;
+    }
+
+    public long getBytesLoaded() {
+      long total = 0;
+      for (PlaybackMetrics item : items) {
+        total += item.bytesLoaded;
+      }
+      return total;
+    }
+
+    /**
+     * Export the sessions as CSV, one line per session, without the Uri. Columns are: join time
+     * (ms, -1 if unset), rebuffer count, rebuffer time (ms), play time (ms), bitrate switches,
+     * dropped frames, bytes loaded, failed (0 or 1).
+     */
+    @NonNull public String toCsv() {
+      StringBuilder builder = new StringBuilder(items.size() * 32);
+      for (PlaybackMetrics item : items) {
+        builder.append(String.format(Locale.US, "%d,%d,%d,%d,%d,%d,%d,%d\n",
+            item.joinTimeMs == C.TIME_UNSET ? -1 : item.joinTimeMs, item.rebufferCount,
+            item.rebufferTimeMs, item.playTimeMs, item.bitrateSwitchCount, item.droppedFrames,
+            item.bytesLoaded, item.failed ? 1 : 0));
+      }
+      return builder.toString();
+    }
+  }
+
+  /**
+   * Update a {@link PlaybackMetrics} from the events of the player and of its
+   * {@link com.google.android.exoplayer2.source.MediaSource}. All events are delivered on the main
+   * thread.
+   */
+  static final class Collector extends Playable.DefaultEventListener
+      implements VideoRendererEventListener, MediaSourceEventListener {
+
+    @NonNull final PlaybackMetrics metrics;
+
+    private long playStartMs = C.TIME_UNSET;
+    private long rebufferStartMs = C.TIME_UNSET;
+    private Format videoFormat;
+    private boolean frameRendered;  // A frame is rendered, maybe before the play request.
+
+    Collector(@NonNull PlaybackMetrics metrics) {
+      this.metrics = metrics;
+    }
+
+    // Start the join time clock, on the first call.
+    void onPlayRequested() {
+      if (metrics.startTimeMs == C.TIME_UNSET) metrics.startTimeMs = SystemClock.elapsedRealtime();
+    }
+
+    private void maybeJoin(long now) {
+      if (metrics.startTimeMs != C.TIME_UNSET && metrics.joinTimeMs == C.TIME_UNSET) {
+        metrics.joinTimeMs = now - metrics.startTimeMs;
+      }
+    }
+
+    // Stop the running timers, at the end of the session.
+    void finish() {
+      long now = SystemClock.elapsedRealtime();
+      stopPlaying(now);
+      stopRebuffering(now);
+    }
+
+    private void stopPlaying(long now) {
+      if (playStartMs != C.TIME_UNSET) {
+        metrics.playTimeMs += now - playStartMs;
+        playStartMs = C.TIME_UNSET;
+      }
+    }
+
+    private void stopRebuffering(long now) {
+      if (rebufferStartMs != C.TIME_UNSET) {
+        metrics.rebufferTimeMs += now - rebufferStartMs;
+        rebufferStartMs = C.TIME_UNSET;
+      }
+    }
+
+    /// Player.EventListener, VideoListener
+
+    @Override public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+      long now = SystemClock.elapsedRealtime();
+      if (playWhenReady && playbackState == Player.STATE_READY) {
+        stopRebuffering(now);
+        if (playStartMs == C.TIME_UNSET) playStartMs = now;
+        // The frame rendered before the play request is shown from now on.
+        if (frameRendered) maybeJoin(now);
+      } else if (playWhenReady && playbackState == Player.STATE_BUFFERING) {
+        stopPlaying(now);
+        // Buffering before the first frame is part of the join time.
+        if (metrics.joinTimeMs != C.TIME_UNSET && rebufferStartMs == C.TIME_UNSET) {
+          metrics.rebufferCount++;
+          rebufferStartMs = now;
+        }
+      } else {
+        stopPlaying(now);
+        stopRebuffering(now);
+      }
+    }
+
+    @Override public void onPlayerError(ExoPlaybackException error) {
+      metrics.failed = true;
+      finish();
+    }
+
+    // Called again when the Surface is changed, only the first one after the play request matters.
+    @Override public void onRenderedFirstFrame() {
+      frameRendered = true;
+      maybeJoin(SystemClock.elapsedRealtime());
+    }
+
+    /// VideoRendererEventListener
+
+    @Override public void onVideoEnabled(DecoderCounters counters) {
+      // no-ops
+    }
+
+    @Override public void onVideoDecoderInitialized(String decoderName,
+        long initializedTimestampMs, long initializationDurationMs) {
+      // no-ops
+    }
+
+    @Override public void onVideoInputFormatChanged(Format format) {
+      if (videoFormat != null && format != null && videoFormat.bitrate != format.bitrate) {
+        metrics.bitrateSwitchCount++;
+      }
+      videoFormat = format;
+    }
+
+    @Override public void onDroppedFrames(int count, long elapsedMs) {
+      metrics.droppedFrames += count;
+    }
+
+    // Also received before this is a Player listener, for example by a standby player.
+    @Override public void onRenderedFirstFrame(Surface surface) {
+      frameRendered = true;
+    }
+
+    @Override public void onVideoDisabled(DecoderCounters counters) {
+      // no-ops
+    }
+
+    /// MediaSourceEventListener
+
+    @Override
+    public void onLoadStarted(DataSpec dataSpec, int dataType, int trackType, Format trackFormat,
+        int trackSelectionReason, Object trackSelectionData, long mediaStartTimeMs,
+        long mediaEndTimeMs, long elapsedRealtimeMs) {
+      // no-ops
+    }
+
+    @Override
+    public void onLoadCompleted(DataSpec dataSpec, int dataType, int trackType, Format trackFormat,
+        int trackSelectionReason, Object trackSelectionData, long mediaStartTimeMs,
+        long mediaEndTimeMs, long elapsedRealtimeMs, long loadDurationMs, long bytesLoaded) {
+      metrics.bytesLoaded += bytesLoaded;
+    }
+
+    @Override
+    public void onLoadCanceled(DataSpec dataSpec, int dataType, int trackType, Format trackFormat,
+        int trackSelectionReason, Object trackSelectionData, long mediaStartTimeMs,
+        long mediaEndTimeMs, long elapsedRealtimeMs, long loadDurationMs, long bytesLoaded) {
+      metrics.bytesLoaded += bytesLoaded;
+    }
+
+    @Override
+    public void onLoadError(DataSpec dataSpec, int dataType, int trackType, Format trackFormat,
+        int trackSelectionReason, Object trackSelectionData, long mediaStartTimeMs,
+        long mediaEndTimeMs, long elapsedRealtimeMs, long loadDurationMs, long bytesLoaded,
+        IOException error, boolean wasCanceled) {
+      metrics.bytesLoaded += bytesLoaded;
+    }
+
+    @Override
+    public void onUpstreamDiscarded(int trackType, long mediaStartTimeMs, long mediaEndTimeMs) {
+      // no-ops
+    }
+
+    @Override
+    public void onDownstreamFormatChanged(int trackType, Format trackFormat,
+        int trackSelectionReason, Object trackSelectionData, long mediaTimeMs) {
+      // no-ops
+    }
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.exoplayer;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.android.exoplayer2.util.Util;
+import java.util.ArrayList;
+
+import static java.lang.Runtime.getRuntime;
+
+/**
+ * The pool of idle {@link SimpleExoPlayer}s, shared by all {@link ExoCreator}s. An idle player
+ * still holds its renderers and buffers, so the total number of idle players is bounded, no matter
+ * how many {@link ExoCreator}s there are. When the bound is exceeded, the player released the
+ * earliest is evicted, whichever {@link ExoCreator} created it.
+ *
+ * Idle players are also evicted after {@link #IDLE_TIMEOUT_MS}, or by {@link #trimTo(int)} when
+ * the system is low on memory. Main thread only.
+ *
+ * @author eneim (2018/06/19).
+ */
+@SuppressWarnings({ "WeakerAccess", "unused" }) //
+final class PlayerPool {
+
+  static final long IDLE_TIMEOUT_MS = 60 * 1000;
+
+  // Legacy bound of a per-creator pool: API 16 ~ 18 will set it to 2, etc.
+  private static final int MAX_SIZE =
+      Math.max(Util.SDK_INT / 6, getRuntime().availableProcessors());
+
+  final int maxSize;
+  // Ordered by release time, the earliest first.
+  private final ArrayList<Entry> entries;
+  private final Handler handler = new Handler(Looper.getMainLooper());
+  private final Runnable evictIdle = new Runnable() {
+    @Override public void run() {
+      evictionScheduled = false;
+      long now = SystemClock.uptimeMillis();
+      while (!entries.isEmpty() && now - entries.get(0).releasedAt >= IDLE_TIMEOUT_MS) evict(0);
+      if (!entries.isEmpty()) scheduleEviction(entries.get(0).releasedAt + IDLE_TIMEOUT_MS - now);
+    }
+  };
+  private boolean evictionScheduled;
+
+  int hitCount;
+  int missCount;
+  int releaseCount;
+  int evictionCount;
+
+  PlayerPool(@NonNull Context context) {
+    this.maxSize = computeMaxSize(context);
+    this.entries = new ArrayList<>(maxSize);
+  }
+
+  // The memory class of the device tells how generous it can be: about one idle player per 32MB of
+  // heap, at least one, and not more than the legacy bound. Players mostly use native memory, but
+  // devices with a small heap also have less memory in total.
+  static int computeMaxSize(@NonNull Context context) {
+    ActivityManager manager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+    if (manager == null) return 1;
+    if (Util.SDK_INT >= 19 && manager.isLowRamDevice()) return 1;
+    return Math.max(1, Math.min(manager.getMemoryClass() / 32, MAX_SIZE));
+  }
+
+  /**
+   * @return an idle player created by the {@link ExoCreator}, or {@code null} if there is none.
+   */
+  @Nullable SimpleExoPlayer acquire(@NonNull ExoCreator creator) {
+    // The latest released first, it is the least likely to be trimmed by the system.
+    for (int i = entries.size() - 1; i >= 0; i--) {
+      if (entries.get(i).creator.equals(creator)) {
+        hitCount++;
+        return entries.remove(i).player;
+      }
+    }
+    missCount++;
+    return null;
+  }
+
+  /**
+   * Put an idle player to this pool. If the pool is full, the earliest released player is evicted.
+   *
+   * @return {@code true} if the player is kept by this pool, {@code false} otherwise.
+   */
+  boolean release(@NonNull ExoCreator creator, @NonNull SimpleExoPlayer player) {
+    for (int i = 0, size = entries.size(); i < size; i++) {
+      if (entries.get(i).player == player) throw new IllegalStateException("Already in the pool!");
+    }
+    releaseCount++;
+    if (maxSize <= 0) return false;
+    while (entries.size() >= maxSize) evict(0);
+    entries.add(new Entry(creator, player, SystemClock.uptimeMillis()));
+    if (!evictionScheduled) scheduleEviction(IDLE_TIMEOUT_MS);
+    return true;
+  }
+
+  /**
+   * Evict the earliest released players, until there are at most {@code size} idle players.
+   */
+  void trimTo(int size) {
+    while (entries.size() > Math.max(0, size)) evict(0);
+    if (entries.isEmpty() && evictionScheduled) {
+      handler.removeCallbacks(evictIdle);
+      evictionScheduled = false;
+    }
+  }
+
+  int size() {
+    return entries.size();
+  }
+
+  void resetStats() {
+    hitCount = 0;
+    missCount = 0;
+    releaseCount = 0;
+    evictionCount = 0;
+  }
+
+  private void evict(int index) {
+    entries.remove(index).player.release();
+    evictionCount++;
+  }
+
+  private void scheduleEviction(long delayMs) {
+    handler.postDelayed(evictIdle, delayMs);
+    evictionScheduled = true;
+  }
+
+  static final class Entry {
+
+    @NonNull final ExoCreator creator;
+    @NonNull final SimpleExoPlayer player;
+    final long releasedAt;
+
+    Entry(@NonNull ExoCreator creator, @NonNull SimpleExoPlayer player, long releasedAt) {
+      this.creator = creator;
+      this.player = player;
+      this.releasedAt = releasedAt;
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.exoplayer;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.TransferListener;
+import com.google.android.exoplayer2.util.SlidingPercentile;
+
+/**
+ * A {@link BandwidthMeter} shared by all players of the process, see
+ * {@link ToroExo#getSharedMeter()}. It works like
+ * {@link com.google.android.exoplayer2.upstream.DefaultBandwidthMeter}: the estimate is the median
+ * of the recent samples, weighted by their size. In addition:
+ * - Transfers of all players are counted together, so every player benefits from what the others
+ * have learnt.
+ * - The estimate is saved to {@link SharedPreferences} from time to time, and used as the initial
+ * estimate in the next session, so the first video does not start blind. It is read once, on the
+ * background thread of {@link MediaSourceLoader}, as {@link SharedPreferences} reads its file on
+ * first access.
+ *
+ * There is one instance per process, {@link #INSTANCE}, which {@link Config.Builder} uses if
+ * asked to, see {@link Config.Builder#setSharedBandwidthMeter(boolean)}. It needs a
+ * {@link Context} to load the saved estimate, see {@link #loadSavedEstimate(Context)}.
+ *
+ * Thread safe, as transfers are reported by the loader threads of all players.
+ *
+ * @author eneim (2018/06/24).
+ */
+final class SharedBandwidthMeter implements BandwidthMeter, TransferListener<Object> {
+
+  private static final String PREFS_NAME = "toro_exo_bandwidth";
+  private static final String KEY_ESTIMATE = "bitrate_estimate";
+
+  // Same as DefaultBandwidthMeter.
+  private static final int MAX_WEIGHT = 2000;
+  private static final int ELAPSED_MILLIS_FOR_ESTIMATE = 2000;
+  private static final int BYTES_TRANSFERRED_FOR_ESTIMATE = 512 * 1024;
+  // Weight of the saved estimate, so that it is forgotten once a few real samples are there.
+  private static final int SEED_WEIGHT = 100;
+  private static final long SAVE_INTERVAL_MS = 10 * 1000;
+
+  static final SharedBandwidthMeter INSTANCE = new SharedBandwidthMeter();
+  @SuppressWarnings("unchecked") //
+  static final BaseMeter BASE_METER = new BaseMeter(INSTANCE, INSTANCE);
+
+  private boolean loadRequested;
+  private SharedPreferences preferences;  // null until the saved estimate is loaded.
+  private final SlidingPercentile slidingPercentile = new SlidingPercentile(MAX_WEIGHT);
+
+  private int streamCount;
+  private long sampleStartTimeMs;
+  private long sampleBytesTransferred;
+  private long totalElapsedTimeMs;
+  private long totalBytesTransferred;
+  private long bitrateEstimate = NO_ESTIMATE;
+  private long lastSaveTimeMs;
+
+  private SharedBandwidthMeter() {
+  }
+
+  // Start loading the saved estimate, if not done yet. Cheap, can be called often.
+  void loadSavedEstimate(@NonNull Context context) {
+    synchronized (this) {
+      if (loadRequested) return;
+      loadRequested = true;
+    }
+    final Context appContext = context.getApplicationContext();
+    MediaSourceLoader.getWorker().post(new Runnable() {
+      @Override public void run() {
+        load(appContext);
+      }
+    });
+  }
+
+  // Called once, on the worker thread.
+  private void load(@NonNull Context context) {
+    SharedPreferences preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    long saved = preferences.getLong(KEY_ESTIMATE, NO_ESTIMATE);
+    synchronized (this) {
+      // Only if there is no real estimate yet, which is more accurate.
+      if (saved > 0 && bitrateEstimate == NO_ESTIMATE) {
+        bitrateEstimate = saved;
+        slidingPercentile.addSample(SEED_WEIGHT, saved);
+      }
+      this.preferences = preferences;
+    }
+  }
+
+  @Override public synchronized long getBitrateEstimate() {
+    return bitrateEstimate;
+  }
+
+  @Override public synchronized void onTransferStart(Object source, DataSpec dataSpec) {
+    if (streamCount == 0) sampleStartTimeMs = SystemClock.elapsedRealtime();
+    streamCount++;
+  }
+
+  @Override public synchronized void onBytesTransferred(Object source, int bytes) {
+    sampleBytesTransferred += bytes;
+  }
+
+  @Override public synchronized void onTransferEnd(Object source) {
+    if (streamCount <= 0) return;
+    long nowMs = SystemClock.elapsedRealtime();
+    int sampleElapsedTimeMs = (int) (nowMs - sampleStartTimeMs);
+    totalElapsedTimeMs += sampleElapsedTimeMs;
+    totalBytesTransferred += sampleBytesTransferred;
+    if (sampleElapsedTimeMs > 0) {
+      float bitsPerSecond = (sampleBytesTransferred * 8000f) / sampleElapsedTimeMs;
+      slidingPercentile.addSample((int) Math.sqrt(sampleBytesTransferred), bitsPerSecond);
+      if (totalElapsedTimeMs >= ELAPSED_MILLIS_FOR_ESTIMATE
+          || totalBytesTransferred >= BYTES_TRANSFERRED_FOR_ESTIMATE) {
+        bitrateEstimate = (long) slidingPercentile.getPercentile(0.5f);
+        maybeSave(nowMs);
+      }
+    }
+    if (--streamCount > 0) sampleStartTimeMs = nowMs;
+    sampleBytesTransferred = 0;
+  }
+
+  private void maybeSave(long nowMs) {
+    if (preferences == null) return;
+    if (bitrateEstimate <= 0 || nowMs - lastSaveTimeMs < SAVE_INTERVAL_MS) return;
+    lastSaveTimeMs = nowMs;
+    preferences.edit().putLong(KEY_ESTIMATE, bitrateEstimate).apply();  // async write
+  }
+}
@@ -18,15 +18,19 @@ package im.ene.toro.exoplayer;
 
 import android.annotation.SuppressLint;
 import android.app.Application;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.SurfaceTexture;
+import android.net.Uri;
 import android.os.Handler;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.RequiresApi;
 import android.support.annotation.RestrictTo;
 import android.support.annotation.StringRes;
-import android.support.v4.util.Pools;
 import android.text.TextUtils;
+import android.view.Surface;
 import android.widget.Toast;
 import com.google.android.exoplayer2.SimpleExoPlayer;
 import com.google.android.exoplayer2.drm.DefaultDrmSessionManager;
@@ -35,18 +39,28 @@ import com.google.android.exoplayer2.drm.FrameworkMediaCrypto;
 import com.google.android.exoplayer2.drm.FrameworkMediaDrm;
 import com.google.android.exoplayer2.drm.HttpMediaDrmCallback;
 import com.google.android.exoplayer2.drm.UnsupportedDrmException;
+import com.google.android.exoplayer2.source.MediaSource;
 import com.google.android.exoplayer2.upstream.DefaultHttpDataSourceFactory;
 import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.LeastRecentlyUsedCacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.SimpleCache;
 import com.google.android.exoplayer2.util.Util;
 import im.ene.toro.media.DrmMedia;
 import im.ene.toro.media.VolumeInfo;
+import im.ene.toro.widget.Container;
+import im.ene.toro.widget.DecoderBudget;
+import im.ene.toro.widget.Stats;
+import java.io.File;
 import java.net.CookieHandler;
 import java.net.CookieManager;
 import java.net.CookiePolicy;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.WeakHashMap;
 
 import static android.widget.Toast.LENGTH_SHORT;
 import static com.google.android.exoplayer2.drm.UnsupportedDrmException.REASON_UNSUPPORTED_SCHEME;
@@ -54,7 +68,6 @@ import static com.google.android.exoplayer2.util.Util.getDrmUuid;
 import static com.google.android.exoplayer2.util.Util.getUserAgent;
 import static im.ene.toro.ToroUtil.checkNotNull;
 import static im.ene.toro.exoplayer.BuildConfig.LIB_NAME;
-import static java.lang.Runtime.getRuntime;
 
 /**
  * Global helper class to manage {@link ExoCreator} and {@link SimpleExoPlayer} instances.
@@ -76,10 +89,10 @@ import static java.lang.Runtime.getRuntime;
 public final class ToroExo {
 
   private static final String TAG = "ToroExo";
+  private static final String DISK_CACHE_DIR = "toro_cache";
+  // Finished PlaybackMetrics kept for a Container, the oldest are dropped if not drained.
+  private static final int MAX_METRICS_PER_CONTAINER = 100;
 
-  // Magic number: Build.VERSION.SDK_INT / 6 --> API 16 ~ 18 will set pool size to 2, etc.
-  @SuppressWarnings("WeakerAccess") //
-  static final int MAX_POOL_SIZE = Math.max(Util.SDK_INT / 6, getRuntime().availableProcessors());
   @SuppressLint("StaticFieldLeak")  //
   static volatile ToroExo toro;
 
@@ -95,15 +108,42 @@ public final class ToroExo {
   @NonNull final String appName;
   @NonNull final Context context;  // Application context
   @NonNull private final Map<Config, ExoCreator> creators;
-  @NonNull private final Map<ExoCreator, Pools.Pool<SimpleExoPlayer>> playerPools;
+  @NonNull private final PlayerPool playerPool;  // shared by all creators
+  @NonNull final ToroLoadControl.Budget loadBudget;  // shared by all ToroLoadControls
 
   private Config defaultConfig; // will be created on the first time it is used.
+  private Standby standby;  // the warm standby player, if any.
+  // Counts the standby player in the DecoderBudget, the player is released if a Container needs it.
+  @NonNull private final DecoderBudget.Reservation standbyReservation =
+      new DecoderBudget.Reservation() {
+        @Override public void onRevoked() {
+          clearStandby();
+        }
+      };
+  // SimpleCache by directory. A directory must only be used by one SimpleCache in the process.
+  @NonNull private final Map<File, SimpleCache> diskCaches = new HashMap<>();
+  // Finished PlaybackMetrics by Container. Main thread only.
+  @NonNull private final Map<Container, List<PlaybackMetrics>> metrics = new WeakHashMap<>();
 
   private ToroExo(@NonNull Context context /* Application context */) {
     this.context = context;
     this.appName = getUserAgent(context, LIB_NAME);
-    this.playerPools = new HashMap<>();
+    this.playerPool = new PlayerPool(context);
+    this.loadBudget = new ToroLoadControl.Budget(context);
     this.creators = new HashMap<>();
+    context.registerComponentCallbacks(new ComponentCallbacks2() {
+      @Override public void onTrimMemory(int level) {
+        ToroExo.this.onTrimMemory(level);
+      }
+
+      @Override public void onConfigurationChanged(Configuration newConfig) {
+        // no-ops
+      }
+
+      @Override public void onLowMemory() {
+        ToroExo.this.onTrimMemory(TRIM_MEMORY_COMPLETE);
+      }
+    });
 
     // Adapt from ExoPlayer demo app. Start this on demand.
     CookieManager cookieManager = new CookieManager();
@@ -127,10 +167,25 @@ public final class ToroExo {
   }
 
   public final Config getDefaultConfig() {
-    if (defaultConfig == null) defaultConfig = new Config.Builder().build();
+    if (defaultConfig == null) {
+      defaultConfig = new Config.Builder().setSharedBandwidthMeter(true).build();
+    }
     return defaultConfig;
   }
 
+  /**
+   * Get the {@link BaseMeter} shared by all players of the process. Transfers of all players using
+   * it are counted together, and its estimate is persisted, so that the first video of the next
+   * session can start with an appropriate bitrate. The default {@link Config} uses it, other
+   * {@link Config}s use it if {@link Config.Builder#setSharedBandwidthMeter(boolean)} is called.
+   *
+   * @since 3.5.3
+   */
+  @NonNull public final BaseMeter getSharedMeter() {
+    SharedBandwidthMeter.INSTANCE.loadSavedEstimate(context);
+    return SharedBandwidthMeter.BASE_METER;
+  }
+
   /**
    * Get the default {@link ExoCreator}. This ExoCreator is configured by {@link #defaultConfig}.
    */
@@ -150,21 +205,194 @@ public final class ToroExo {
    */
   @NonNull  //
   public final SimpleExoPlayer requestPlayer(@NonNull ExoCreator creator) {
-    SimpleExoPlayer player = getPool(checkNotNull(creator)).acquire();
+    SimpleExoPlayer player = playerPool.acquire(checkNotNull(creator));
     if (player == null) player = creator.createPlayer();
     return player;
   }
 
   /**
-   * Release player to Pool attached to the creator.
+   * Release player to the Pool. The Pool is shared by all {@link ExoCreator}s, and bounded
+   * according to the memory class of the device. If it is full, the player that has been idle the
+   * longest is released.
    *
    * @param creator the {@link ExoCreator} that created the player.
    * @param player the {@link SimpleExoPlayer} to be released back to the Pool
-   * @return true if player is released to relevant Pool, false otherwise.
+   * @return true if player is released to the Pool, false otherwise.
    */
   @SuppressWarnings({ "WeakerAccess", "UnusedReturnValue" }) //
   public final boolean releasePlayer(@NonNull ExoCreator creator, @NonNull SimpleExoPlayer player) {
-    return getPool(checkNotNull(creator)).release(player);
+    return playerPool.release(checkNotNull(creator), checkNotNull(player));
+  }
+
+  /**
+   * Get the statistics of the player Pool, since this instance is created or since the last call
+   * to {@link #resetPoolStats()}.
+   *
+   * @since 3.5.3
+   */
+  @NonNull public final PoolStats getPoolStats() {
+    return new PoolStats(playerPool.size(), playerPool.maxSize, playerPool.hitCount,
+        playerPool.missCount, playerPool.releaseCount, playerPool.evictionCount);
+  }
+
+  /** @since 3.5.3 */
+  public final void resetPoolStats() {
+    playerPool.resetStats();
+  }
+
+  /**
+   * Get the {@link PlaybackMetrics} of the sessions finished in a {@link Container} since the last
+   * call, and forget them. Sessions are collected by {@link ExoPlayerViewHelper} when it is
+   * released. Must be called on the main thread.
+   *
+   * @since 3.5.3
+   */
+  @NonNull public final PlaybackMetrics.Batch drainMetrics(@NonNull Container container) {
+    List<PlaybackMetrics> items = metrics.remove(checkNotNull(container));
+    return items != null ? new PlaybackMetrics.Batch(items) : PlaybackMetrics.Batch.EMPTY;
+  }
+
+  // Main thread only.
+  void recordMetrics(@NonNull Container container, @NonNull PlaybackMetrics item) {
+    if (item.recorded) return;  // The helper may be released more than once.
+    item.recorded = true;
+    List<PlaybackMetrics> items = metrics.get(container);
+    if (items == null) {
+      items = new ArrayList<>();
+      metrics.put(container, items);
+    }
+    if (items.size() >= MAX_METRICS_PER_CONTAINER) items.remove(0);
+    items.add(item);
+  }
+
+  // Registered to the Application, so Client doesn't need to call this. Levels are not ordered by
+  // severity: TRIM_MEMORY_UI_HIDDEN (the UI is just no longer visible) is between
+  // TRIM_MEMORY_RUNNING_CRITICAL and TRIM_MEMORY_BACKGROUND, so it is handled on its own.
+  void onTrimMemory(int level) {
+    if (level == ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+      // User may come back soon, keep the standby player and half of the pool.
+      playerPool.trimTo(playerPool.size() / 2);
+    } else if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL
+        || level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+      cleanUp();
+    } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+      playerPool.trimTo(playerPool.size() / 2);
+    }
+  }
+
+  /**
+   * Get the {@link Cache} used by a {@link Config}: its own {@link Cache} if any, otherwise its
+   * shared disk cache, created on first use. See {@link Config.Builder#setDiskCache(File, long)}.
+   *
+   * @return the {@link Cache}, or {@code null} if the {@link Config} uses no cache.
+   * @since 3.5.3
+   */
+  @Nullable public final Cache getCache(@NonNull Config config) {
+    if (config.cache != null) return config.cache;
+    if (config.diskCacheSize <= 0) return null;
+    File directory = config.diskCacheDir != null ? config.diskCacheDir
+        : new File(context.getCacheDir(), DISK_CACHE_DIR);
+    synchronized (diskCaches) {
+      SimpleCache cache = diskCaches.get(directory);
+      if (cache == null) {
+        cache = new SimpleCache(directory, new LeastRecentlyUsedCacheEvictor(config.diskCacheSize));
+        diskCaches.put(directory, cache);
+      }
+      return cache;
+    }
+  }
+
+  /**
+   * Keep one {@link SimpleExoPlayer} prepared for the media that is likely to be played next, so
+   * that the {@link Playable} of that media can start with a player that has already loaded the
+   * media and initialized its decoders. The player doesn't play: its first frame is rendered to an
+   * offscreen Surface. The standby is handed to the first {@link Playable} created by the same
+   * {@link ExoCreator} for the same media, when it is prepared.
+   *
+   * There is at most one standby. Requesting another media releases the current one, requesting the
+   * same media is no-op. The standby player is counted in the {@link DecoderBudget}: it is not
+   * prepared if the budget is full, and it is released when a {@link Container} needs its slot.
+   * The {@link MediaSource} is built off the main thread if the {@link ExoCreator} allows it, see
+   * {@link MediaSourceLoader}. Until it is built, the standby is not handed to a {@link Playable}.
+   * Must be called on the main thread. {@link MediaPrefetcher} calls this for the item a
+   * {@link Container} predicts to be played next, see
+   * {@link im.ene.toro.widget.PredictionCallback}.
+   *
+   * @param creator the {@link ExoCreator} that will create the {@link Playable} of the media.
+   * @param uri the media Uri.
+   * @param fileExt the optional (File) extension of the media, same as the one used in
+   * {@link ExoCreator#createPlayable(Uri, String)}.
+   * @since 3.5.3
+   */
+  public final void prepareStandby(@NonNull ExoCreator creator, @NonNull Uri uri,
+      @Nullable String fileExt) {
+    if (standby != null && standby.matches(creator, uri, fileExt)) return;
+    clearStandby();
+    if (!DecoderBudget.reserve(standbyReservation)) return;  // No decoder to spare.
+    SimpleExoPlayer player = requestPlayer(creator);
+    standby = new Standby(creator, uri, fileExt, player);
+    player.setPlayWhenReady(false);
+    player.setVideoSurface(standby.surface);
+    if (MediaSourceLoader.supports(creator)) {
+      standby.pendingSource =
+          MediaSourceLoader.load(creator, uri, fileExt, standby.collector, standbyCallback);
+    } else {
+      standby.prepare(MediaSourceLoader.isDefault(creator)
+          ? ((DefaultExoCreator) creator).createMediaSource(uri, fileExt, standby.collector)
+          : creator.createMediaSource(uri, fileExt));
+    }
+  }
+
+  private final MediaSourceLoader.Callback standbyCallback = new MediaSourceLoader.Callback() {
+    @Override public void onMediaSourceLoaded(@NonNull MediaSourceLoader.Task task,
+        @Nullable MediaSource mediaSource) {
+      if (standby == null || standby.pendingSource != task) return;
+      standby.pendingSource = null;
+      // If it failed, the Playable of this media will try again and report the error.
+      if (mediaSource == null) {
+        clearStandby();
+      } else {
+        standby.prepare(mediaSource);
+      }
+    }
+  };
+
+  /**
+   * Release the current standby player, if any. See
+   * {@link #prepareStandby(ExoCreator, Uri, String)}.
+   *
+   * @since 3.5.3
+   */
+  public final void clearStandby() {
+    if (standby == null) return;
+    Standby current = standby;
+    standby = null;
+    DecoderBudget.cancel(standbyReservation);
+    if (current.pendingSource != null) current.pendingSource.cancel();
+    current.player.removeVideoDebugListener(current.collector);
+    current.player.stop(true);
+    current.player.clearVideoSurface(current.surface);
+    current.releaseSurface();
+    if (!releasePlayer(current.creator, current.player)) current.player.release();
+  }
+
+  boolean hasStandby() {
+    return standby != null;
+  }
+
+  // Take the standby if it is prepared for the media, or return null. The caller owns it.
+  @Nullable Standby takeStandby(@NonNull ExoCreator creator, @NonNull Uri uri, String fileExt) {
+    if (standby == null || !standby.matches(creator, uri, fileExt)) return null;
+    if (standby.mediaSource == null) {
+      // Still building its MediaSource: the Playable builds its own.
+      clearStandby();
+      return null;
+    }
+    Standby result = standby;
+    standby = null;
+    // From now on, the player is counted when its Container starts it.
+    DecoderBudget.cancel(standbyReservation);
+    return result;
   }
 
   /**
@@ -172,25 +400,90 @@ public final class ToroExo {
    * client Application runs out of memory ({@link Application#onTrimMemory(int)} for example).
    */
   public final void cleanUp() {
-    // TODO [2018/03/07] Test this. Ref: https://stackoverflow.com/a/1884916/1553254
-    for (Iterator<Map.Entry<ExoCreator, Pools.Pool<SimpleExoPlayer>>> it =
-        playerPools.entrySet().iterator(); it.hasNext(); ) {
-      Pools.Pool<SimpleExoPlayer> pool = it.next().getValue();
-      SimpleExoPlayer item;
-      while ((item = pool.acquire()) != null) item.release();
-      it.remove();
-    }
+    clearStandby();
+    playerPool.trimTo(0);
   }
 
   /// internal APIs
-  private Pools.Pool<SimpleExoPlayer> getPool(ExoCreator creator) {
-    Pools.Pool<SimpleExoPlayer> pool = playerPools.get(creator);
-    if (pool == null) {
-      pool = new Pools.SimplePool<>(MAX_POOL_SIZE);
-      playerPools.put(creator, pool);
+
+  // A player prepared ahead of time, with the offscreen Surface it renders to.
+  static final class Standby {
+
+    @NonNull final ExoCreator creator;
+    @NonNull final Uri uri;
+    @Nullable final String fileExt;
+    @NonNull final SimpleExoPlayer player;
+    @NonNull final Surface surface;
+    @NonNull private final SurfaceTexture surfaceTexture;
+    // The session of the Playable that takes this standby starts here.
+    @NonNull final PlaybackMetrics metrics;
+    @NonNull final PlaybackMetrics.Collector collector;
+
+    @Nullable MediaSource mediaSource;  // null until it is built.
+    @Nullable MediaSourceLoader.Task pendingSource;  // MediaSource being built on a worker thread.
+
+    Standby(@NonNull ExoCreator creator, @NonNull Uri uri, @Nullable String fileExt,
+        @NonNull SimpleExoPlayer player) {
+      this.creator = creator;
+      this.uri = uri;
+      this.fileExt = fileExt;
+      this.player = player;
+      this.surfaceTexture = new SurfaceTexture(0);  // never drawn, frames are just dropped.
+      this.surface = new Surface(surfaceTexture);
+      this.metrics = new PlaybackMetrics(uri);
+      this.collector = new PlaybackMetrics.Collector(metrics);
+      player.addVideoDebugListener(collector);
+    }
+
+    void prepare(@NonNull MediaSource mediaSource) {
+      this.mediaSource = mediaSource;
+      player.prepare(mediaSource);
+    }
+
+    boolean matches(ExoCreator creator, Uri uri, String fileExt) {
+      return this.creator.equals(creator) && this.uri.equals(uri) //
+          && TextUtils.equals(this.fileExt, fileExt);
     }
 
-    return pool;
+    // Must be called once the player doesn't render to the Surface anymore.
+    void releaseSurface() {
+      surface.release();
+      surfaceTexture.release();
+    }
+  }
+
+  /**
+   * Statistics of the {@link SimpleExoPlayer} Pool. See {@link #getPoolStats()}.
+   *
+   * @since 3.5.3
+   */
+  public static final class PoolStats extends Stats {
+
+    public final int size;
+    public final int maxSize;
+    public final int hitCount;
+    public final int missCount;
+    public final int releaseCount;
+    public final int evictionCount;
+
+    PoolStats(int size, int maxSize, int hitCount, int missCount, int releaseCount,
+        int evictionCount) {
+      this.size = size;
+      this.maxSize = maxSize;
+      this.hitCount = hitCount;
+      this.missCount = missCount;
+      this.releaseCount = releaseCount;
+      this.evictionCount = evictionCount;
+    }
+
+    @Override protected void describe(@NonNull Description description) {
+      description.add("size", size)
+          .add("maxSize", maxSize)
+          .add("hit", hitCount)
+          .add("miss", missCount)
+          .add("release", releaseCount)
+          .add("eviction", evictionCount);
+    }
   }
 
   /**
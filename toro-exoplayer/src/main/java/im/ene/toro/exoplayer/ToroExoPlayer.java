@@ -21,11 +21,11 @@ import android.support.annotation.NonNull;
 import com.google.android.exoplayer2.LoadControl;
 import com.google.android.exoplayer2.RenderersFactory;
 import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
 import com.google.android.exoplayer2.trackselection.TrackSelector;
 import im.ene.toro.ToroPlayer;
 import im.ene.toro.media.VolumeInfo;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Arrays;
 
 import static im.ene.toro.ToroUtil.checkNotNull;
 
@@ -43,19 +43,45 @@ public class ToroExoPlayer extends SimpleExoPlayer {
     super(renderersFactory, trackSelector, loadControl);
   }
 
-  private Set<ToroPlayer.OnVolumeChangeListener> listeners;
+  // Set if the TrackSelector is used by this player only, so its Parameters can be changed for
+  // this player's PlayerView. See Config.Builder#setViewportTrackSelection(boolean).
+  DefaultTrackSelector viewportTrackSelector;
+  // Set if the LoadControl is a ToroLoadControl, see Config.Builder#setFeedLoadControl(boolean).
+  ToroLoadControl toroLoadControl;
+
+  private static final ToroPlayer.OnVolumeChangeListener[] NO_LISTENERS =
+      new ToroPlayer.OnVolumeChangeListener[0];
+
+  // Copy-on-write: replaced on every change, so setVolumeInfo doesn't allocate to dispatch.
+  private ToroPlayer.OnVolumeChangeListener[] listeners = NO_LISTENERS;
 
   public final void addOnVolumeChangeListener(@NonNull ToroPlayer.OnVolumeChangeListener listener) {
-    if (this.listeners == null) this.listeners = new HashSet<>();
-    this.listeners.add(checkNotNull(listener));
+    checkNotNull(listener);
+    if (indexOf(listener) >= 0) return;
+    ToroPlayer.OnVolumeChangeListener[] copy = Arrays.copyOf(listeners, listeners.length + 1);
+    copy[listeners.length] = listener;
+    this.listeners = copy;
   }
 
   public final void removeOnVolumeChangeListener(ToroPlayer.OnVolumeChangeListener listener) {
-    if (this.listeners != null) this.listeners.remove(listener);
+    int index = indexOf(listener);
+    if (index < 0) return;
+    ToroPlayer.OnVolumeChangeListener[] copy =
+        new ToroPlayer.OnVolumeChangeListener[listeners.length - 1];
+    System.arraycopy(listeners, 0, copy, 0, index);
+    System.arraycopy(listeners, index + 1, copy, index, copy.length - index);
+    this.listeners = copy;
   }
 
   public final void clearOnVolumeChangeListener() {
-    if (this.listeners != null) this.listeners.clear();
+    this.listeners = NO_LISTENERS;
+  }
+
+  private int indexOf(ToroPlayer.OnVolumeChangeListener listener) {
+    for (int i = 0; i < listeners.length; i++) {
+      if (listeners[i].equals(listener)) return i;
+    }
+    return -1;
   }
 
   @CallSuper @Override public void setVolume(float audioVolume) {
@@ -70,10 +96,8 @@ public class ToroExoPlayer extends SimpleExoPlayer {
     if (changed) {
       this.volumeInfo.setTo(volumeInfo.isMute(), volumeInfo.getVolume());
       super.setVolume(volumeInfo.isMute() ? 0 : volumeInfo.getVolume());
-      if (listeners != null) {
-        for (ToroPlayer.OnVolumeChangeListener listener : this.listeners) {
-          listener.onVolumeChanged(volumeInfo);
-        }
+      for (ToroPlayer.OnVolumeChangeListener listener : this.listeners) {
+        listener.onVolumeChanged(volumeInfo);
       }
     }
 
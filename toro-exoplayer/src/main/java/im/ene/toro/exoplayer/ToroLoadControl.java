@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2018 Nam Nguyen, nam@ene.im
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.ene.toro.exoplayer;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.support.annotation.NonNull;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.DefaultLoadControl;
+import java.util.ArrayList;
+
+/**
+ * The {@link com.google.android.exoplayer2.LoadControl} of one player, when
+ * {@link Config.Builder#setFeedLoadControl(boolean)} is used. It buffers as a
+ * {@link DefaultLoadControl} does, plus:
+ * - The buffers of all players are bounded by one {@link Budget} of the process, instead of each
+ * player buffering up to its own maximum.
+ * - A player those is not playing (paused, off-screen or warming up) only buffers what it needs to
+ * start quickly, and only in the part of the {@link Budget} left for such players.
+ * - The playing player can use the whole {@link Budget}, and always buffers enough to not stall.
+ *
+ * Each player needs its own instance, as a {@link DefaultLoadControl} keeps the state of its
+ * player.
+ *
+ * @author eneim (2018/06/25).
+ */
+final class ToroLoadControl extends DefaultLoadControl {
+
+  // A player those is not playing stops buffering here: enough to start the playback.
+  private static final long INACTIVE_BUFFER_US =
+      C.msToUs(DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_MS);
+  // Below this, the playing player keeps buffering even if the Budget is used up.
+  private static final long MIN_ACTIVE_BUFFER_US =
+      C.msToUs(DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS);
+
+  @NonNull private final Budget budget;
+  private volatile boolean active;  // set on the main thread, read on the playback thread.
+
+  ToroLoadControl(@NonNull Budget budget) {
+    super();
+    this.budget = budget;
+  }
+
+  // Called by the Playable, when playback is requested or paused.
+  void setActive(boolean active) {
+    this.active = active;
+  }
+
+  @Override public void onPrepared() {
+    super.onPrepared();
+    budget.add(this);
+  }
+
+  @Override public void onStopped() {
+    super.onStopped();  // Its allocations are released here.
+    budget.remove(this);
+  }
+
+  @Override public void onReleased() {
+    super.onReleased();
+    budget.remove(this);
+  }
+
+  // Called on the playback thread. DefaultLoadControl is always asked first, as it updates its
+  // buffering state there, then its answer is overridden.
+  @Override public boolean shouldContinueLoading(long bufferedDurationUs, float playbackSpeed) {
+    boolean shouldLoad = super.shouldContinueLoading(bufferedDurationUs, playbackSpeed);
+    boolean active = this.active;
+    if (active && bufferedDurationUs < MIN_ACTIVE_BUFFER_US) return true;
+    if (!shouldLoad) return false;
+    if (!active && bufferedDurationUs >= INACTIVE_BUFFER_US) return false;
+    return budget.canLoad(active);
+  }
+
+  /**
+   * The buffer memory shared by all {@link ToroLoadControl}s of the process. Buffers are allocated
+   * on the Java heap, so the {@link Budget} is computed from the memory class of the device.
+   */
+  static final class Budget {
+
+    private static final int MB = 1024 * 1024;
+    // About twice the default target buffer of one video player, at most.
+    private static final int MAX_SIZE = 32 * MB;
+    private static final int MIN_SIZE = 8 * MB;
+    // Players those are not playing can only use this part of the Budget.
+    private static final float INACTIVE_FRACTION = 0.5f;
+
+    final int maxBytes;
+    private final ArrayList<ToroLoadControl> controls = new ArrayList<>();
+
+    Budget(@NonNull Context context) {
+      this.maxBytes = computeMaxBytes(context);
+    }
+
+    static int computeMaxBytes(@NonNull Context context) {
+      ActivityManager manager =
+          (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+      if (manager == null) return MIN_SIZE;
+      // A quarter of the heap, as the rest of the app needs it too.
+      return Math.max(MIN_SIZE, Math.min(manager.getMemoryClass() * MB / 4, MAX_SIZE));
+    }
+
+    synchronized void add(ToroLoadControl control) {
+      if (!controls.contains(control)) controls.add(control);
+    }
+
+    synchronized void remove(ToroLoadControl control) {
+      controls.remove(control);
+    }
+
+    synchronized boolean canLoad(boolean active) {
+      return getTotalBytesAllocated() < (active ? maxBytes : maxBytes * INACTIVE_FRACTION);
+    }
+
+    synchronized int getTotalBytesAllocated() {
+      int total = 0;
+      for (ToroLoadControl control : controls) {
+        total += control.getAllocator().getTotalBytesAllocated();
+      }
+      return total;
+    }
+  }
+}